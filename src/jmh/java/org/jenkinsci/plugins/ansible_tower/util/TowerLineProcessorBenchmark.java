@@ -0,0 +1,127 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    Measures how fast imported Tower output is turned into log lines, in lines per second.
+
+    The input is a playbook run as Tower's job_events hand it to us: task banners, colored ok/changed lines,
+    verbose module results and the odd JENKINS_EXPORT debug line. "legacy" is the regex based logLine that
+    TowerLineProcessor replaced, "processor" is TowerLineProcessor.
+
+    Run with: mvn -Pjmh test-compile exec:exec
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TowerLineProcessorBenchmark {
+    private static final String GREEN = "\u001B[0;32m";
+    private static final String YELLOW = "\u001B[0;33m";
+    private static final String RESET = "\u001B[0m";
+    // Each event is one stdout from job_events, LINES is how many lines they add up to
+    private static final int EVENTS = 1000;
+    private static final int LINES = EVENTS * 4;
+
+    @Param({"true", "false"})
+    public boolean removeColor;
+
+    private final List<String> events = new ArrayList<String>();
+    private final TowerLineProcessor processor = new TowerLineProcessor();
+
+    @Setup
+    public void createOutput() {
+        events.clear();
+        for(int i = 0; i < EVENTS; i++) {
+            String host = "web"+ (i % 50) +".example.com";
+            switch(i % 4) {
+                case 0:
+                    events.add("\r\nTASK [deploy : Install package "+ i +"] ****************************************************\r\n"+
+                            "task path: /runner/project/roles/deploy/tasks/main.yml:"+ i +"\r\n"+
+                            "Thursday 01 October 2020  12:00:00 +0000 (0:00:00.512)       0:00:"+ (i % 60) +".123 ******");
+                    break;
+                case 1:
+                    events.add(GREEN +"ok: ["+ host +"]"+ RESET +"\r\n"+
+                            GREEN +"    \"changed\": false,"+ RESET +"\r\n"+
+                            GREEN +"    \"msg\": \"All items completed\""+ RESET +"\r\n"+
+                            GREEN +"}"+ RESET);
+                    break;
+                case 2:
+                    events.add(YELLOW +"changed: ["+ host +"] => (item=nginx-1.18."+ i +")"+ RESET +"\r\n"+
+                            YELLOW +"    \"rc\": 0, \"stdout\": \"Installed: nginx\","+ RESET +"\r\n"+
+                            YELLOW +"    \"stderr\": \"\","+ RESET +"\r\n"+
+                            YELLOW +"}"+ RESET);
+                    break;
+                default:
+                    events.add(GREEN +"ok: ["+ host +"] => {"+ RESET +"\r\n"+
+                            GREEN +"    \"msg\": \"JENKINS_EXPORT build_"+ (i % 10) +"="+ i +"\""+ RESET +"\r\n"+
+                            GREEN +"}"+ RESET +"\r\n");
+                    break;
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void legacy(Blackhole blackhole) {
+        Map<String, String> exports = new HashMap<String, String>();
+        for(String event : events) {
+            blackhole.consume(legacyLogLine(event, removeColor, exports));
+        }
+        blackhole.consume(exports);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void processor(final Blackhole blackhole) {
+        Map<String, String> exports = new HashMap<String, String>();
+        TowerLogSink sink = new TowerLogSink() {
+            public void onLine(String line) { blackhole.consume(line); }
+            public void flush() { }
+        };
+        for(String event : events) {
+            processor.process(event, removeColor, exports, sink);
+        }
+        blackhole.consume(exports);
+    }
+
+    // TowerConnector.logLine before TowerLineProcessor
+    private static Vector<String> legacyLogLine(String output, boolean removeColor, Map<String, String> exports) {
+        Vector<String> returnLines = new Vector<String>();
+        String[] lines = output.split("\\r\\n");
+        for(String line : lines) {
+            if(line.matches("^.*JENKINS_EXPORT.*$")) {
+                String[] entities = line.replaceAll("\u001B\\[[;\\d]*m", "").split("=", 2);
+                if(entities.length == 2) {
+                    entities[0] = entities[0].replaceAll(".*JENKINS_EXPORT ", "");
+                    entities[1] = entities[1].replaceAll("\"$", "");
+                    exports.put(entities[0], entities[1]);
+                }
+            }
+            if(removeColor) {
+                line = line.replaceAll("\u001B\\[[;\\d]*m", "");
+            }
+            returnLines.add(line);
+        }
+        return returnLines;
+    }
+}
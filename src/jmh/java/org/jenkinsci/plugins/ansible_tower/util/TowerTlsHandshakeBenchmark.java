@@ -0,0 +1,218 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    Counts the TLS handshakes a single job launch costs.
+
+    A local HTTPS server (self signed cert made with keytool) stands in for Tower and we replay the
+    calls a job launch makes (ping, template lookup, template, inventory, credentials, launch, status, events).
+    "before" builds a new trusting socket factory and client for every call like TowerConnector used to.
+    "resumed" opens a new connection for every call too (no keep-alive) but through the socket factory TowerSSLContexts
+    keeps for the installation, so it only measures session resumption.
+    "pooled" goes through TowerClientPool, where keep-alive saves most of the connections to begin with.
+
+    Full handshakes are counted by the server: it only picks its certificate in a full handshake, an abbreviated one
+    (resumed session) doesn't send a certificate.
+
+    This counts rather than times so it isn't a JMH benchmark, the jmh profile runs it on its own.
+    Run with: mvn -Pjmh test-compile exec:exec@tls-handshakes
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.net.ssl.X509KeyManager;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.security.KeyStore;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TowerTlsHandshakeBenchmark {
+    private static final List<String> LAUNCH_CALLS = Arrays.asList(
+            "/api/v2/ping/", "/api/v2/job_templates/?name=bench", "/api/v2/job_templates/7/",
+            "/api/v2/inventories/?name=bench", "/api/v2/credential_types/", "/api/v2/job_templates/7/launch/",
+            "/api/v2/jobs/42/", "/api/v2/jobs/42/job_events/?id__gt=0"
+    );
+    private static final int JOBS = 10;
+
+    public static void main(String[] args) throws Exception {
+        HttpsServer server = startServer();
+        String url = "https://localhost:"+ server.getAddress().getPort();
+        try {
+            Result before = new Result();
+            for(int job = 0; job < JOBS; job++) {
+                for(String call : LAUNCH_CALLS) {
+                    // What getHttpClient() used to do for every single request
+                    SSLContext context = TrustingSSLSocketFactory.createTrustingContext();
+                    CloseableHttpClient client = HttpClients.custom()
+                            .setSSLSocketFactory(new SSLConnectionSocketFactory(context, NoopHostnameVerifier.INSTANCE))
+                            .build();
+                    execute(client, url + call, before);
+                    client.close();
+                }
+            }
+
+            Result resumed = new Result();
+            for(int job = 0; job < JOBS; job++) {
+                for(String call : LAUNCH_CALLS) {
+                    // A new client and connection every time, only the socket factory (and its sessions) is shared
+                    CloseableHttpClient client = HttpClients.custom()
+                            .setSSLSocketFactory(TowerSSLContexts.getSocketFactory(url, true, null))
+                            .setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE)
+                            .build();
+                    execute(client, url + call, resumed);
+                    client.close();
+                }
+            }
+
+            Result pooled = new Result();
+            for(int job = 0; job < JOBS; job++) {
+                for(String call : LAUNCH_CALLS) {
+                    execute(TowerClientPool.getHttpClient(url, true), url + call, pooled);
+                }
+            }
+
+            System.out.println("Requests per job:        "+ LAUNCH_CALLS.size());
+            print("before: ", before);
+            print("resumed:", resumed);
+            print("pooled: ", pooled);
+        } finally {
+            TowerClientPool.shutdown();
+            server.stop(0);
+        }
+    }
+
+    private static void print(String name, Result result) {
+        int connections = result.sockets.size();
+        System.out.println(name +" connections/job "+ result.perJob(connections) +
+                ", full handshakes/job "+ result.perJob(result.fullHandshakes) +
+                ", resumed handshakes/job "+ result.perJob(connections - result.fullHandshakes));
+    }
+
+    private static void execute(HttpClient client, String url, Result result) throws Exception {
+        int handshakesBefore = fullHandshakes.get();
+        HttpClientContext context = HttpClientContext.create();
+        HttpResponse response = client.execute(new HttpGet(url), context);
+        // Without keep-alive the connection is closed as soon as the response is read
+        Socket socket = context.getConnection(ManagedHttpClientConnection.class).getSocket();
+        EntityUtils.consume(response.getEntity());
+        result.sockets.add(socket);
+        result.fullHandshakes += fullHandshakes.get() - handshakesBefore;
+    }
+
+    private static HttpsServer startServer() throws Exception {
+        File keyStoreFile = File.createTempFile("tower-bench", ".jks");
+        keyStoreFile.delete();
+        keyStoreFile.deleteOnExit();
+        char[] password = "changeit".toCharArray();
+        Process keytool = new ProcessBuilder(
+                System.getProperty("java.home") + File.separator +"bin"+ File.separator +"keytool",
+                "-genkeypair", "-alias", "tower", "-keyalg", "RSA", "-keysize", "2048", "-validity", "1",
+                "-dname", "CN=localhost", "-storetype", "JKS", "-keystore", keyStoreFile.getAbsolutePath(),
+                "-storepass", new String(password), "-keypass", new String(password)
+        ).inheritIO().start();
+        if(keytool.waitFor() != 0) { throw new IllegalStateException("keytool failed"); }
+
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        FileInputStream in = new FileInputStream(keyStoreFile);
+        try {
+            keyStore.load(in, password);
+        } finally {
+            in.close();
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, password);
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        KeyManager[] keyManagers = kmf.getKeyManagers();
+        for(int i = 0; i < keyManagers.length; i++) {
+            if(keyManagers[i] instanceof X509KeyManager) {
+                keyManagers[i] = new CountingKeyManager((X509KeyManager) keyManagers[i]);
+            }
+        }
+        serverContext.init(keyManagers, null, null);
+
+        HttpsServer server = HttpsServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(serverContext));
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) {
+                try {
+                    byte[] body = "{\"id\": 42, \"version\": \"3.6.0\"}".getBytes(Charset.forName("UTF-8"));
+                    exchange.getResponseHeaders().add("Content-Type", "application/json");
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                } catch(Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static final AtomicInteger fullHandshakes = new AtomicInteger();
+
+    /*
+        The server asks for its certificate once per full handshake, a resumed session doesn't need it
+     */
+    private static class CountingKeyManager extends X509ExtendedKeyManager {
+        private final X509KeyManager delegate;
+
+        CountingKeyManager(X509KeyManager delegate) { this.delegate = delegate; }
+
+        public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+            String alias = delegate.chooseServerAlias(keyType, issuers, null);
+            if(alias != null) { fullHandshakes.incrementAndGet(); }
+            return alias;
+        }
+
+        public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+            String alias = delegate.chooseServerAlias(keyType, issuers, socket);
+            if(alias != null) { fullHandshakes.incrementAndGet(); }
+            return alias;
+        }
+
+        public String[] getClientAliases(String keyType, Principal[] issuers) { return delegate.getClientAliases(keyType, issuers); }
+        public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) { return delegate.chooseClientAlias(keyType, issuers, socket); }
+        public String[] getServerAliases(String keyType, Principal[] issuers) { return delegate.getServerAliases(keyType, issuers); }
+        public X509Certificate[] getCertificateChain(String alias) { return delegate.getCertificateChain(alias); }
+        public PrivateKey getPrivateKey(String alias) { return delegate.getPrivateKey(alias); }
+    }
+
+    private static class Result {
+        Set<Socket> sockets = Collections.newSetFromMap(new IdentityHashMap<Socket, Boolean>());
+        int fullHandshakes = 0;
+
+        String perJob(int count) { return String.format("%.1f", count / (double) JOBS); }
+    }
+}
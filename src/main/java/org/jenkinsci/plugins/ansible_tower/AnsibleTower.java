@@ -253,6 +253,9 @@ public class AnsibleTower extends Builder {
 			items.add("Import Truncated Logs", "true");
 			items.add("Import Full Logs", "full");
 			items.add("Process Variables Only", "vars");
+			items.add("Failures Only", "failures");
+			items.add("Changed Tasks Only", "changed");
+			items.add("Headers and Failures", "headers");
 			return items;
 		}
 
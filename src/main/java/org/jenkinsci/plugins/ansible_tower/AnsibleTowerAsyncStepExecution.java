@@ -0,0 +1,204 @@
+package org.jenkinsci.plugins.ansible_tower;
+
+/*
+    This class is the common part of the pipeline step executions.
+    Steps used to sit on a thread for as long as the Tower job ran. Now the launch is done on a pooled thread, the job
+    is handed to the TowerJobMonitor and the step is completed from the monitor's callback, so a pipeline waiting on
+    Tower doesn't hold a thread at all.
+    The launch, the work after the job is done and resuming all block on Tower, so they run on our own small executor
+    (shared by all steps) rather than on Jenkins' Timer. A lot of parallel branches launching at once queue up there
+    instead of starving core's periodic tasks.
+
+    What is being monitored is saved with the step (see TowerJobRecord) so after a restart we go back to watching the
+    same job, picking the logs up where we left off, instead of failing the build. The program is saved as soon as
+    there is a record and then at most every SAVE_INTERVAL while the logs move along, so after a crash (rather than a
+    clean restart) a few seconds of output can show up twice.
+ */
+
+import hudson.AbortException;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import org.jenkinsci.plugins.ansible_tower.util.TowerJobMonitor;
+import org.jenkinsci.plugins.ansible_tower.util.TowerJobRecord;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+
+import java.io.PrintStream;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+public abstract class AnsibleTowerAsyncStepExecution extends AbstractStepExecutionImpl {
+    private static final long serialVersionUID = 1L;
+    private static final long SAVE_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+    private static final int THREADS = 10;
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Ansible Tower step");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private transient AnsibleTowerRunner runner = null;
+    private transient Future<?> launch = null;
+    private transient volatile boolean stopped = false;
+    // The context may only be completed once, stop() can race the launch and the monitor's callback
+    private transient boolean completed = false;
+    private transient volatile long lastSaved = 0;
+    // Saved with the pipeline, this is what lets us resume after a restart
+    private volatile TowerJobRecord record = null;
+    private Properties towerResults = new Properties();
+
+    // Launches whatever the step runs, returns false if that failed
+    protected abstract boolean launch(AnsibleTowerRunner runner, PrintStream logger, Properties towerResults) throws Exception;
+    // Called once Tower is done, returns the overall result of the step
+    protected abstract boolean complete(AnsibleTowerRunner runner, PrintStream logger, boolean wasSuccessful, Properties towerResults) throws Exception;
+    protected abstract boolean isAsync();
+    protected abstract boolean getThrowExceptionWhenFail();
+    protected abstract String getFailureMessage();
+
+    @Override
+    public boolean start() throws Exception {
+        final PrintStream logger = getContext().get(TaskListener.class).getLogger();
+        runner = newRunner();
+
+        // Launching makes a few requests to Tower, that shouldn't happen on the pipeline's thread
+        launch = executor.submit(new Runnable() {
+            public void run() {
+                try {
+                    boolean launched = launch(runner, logger, towerResults);
+                    if (!launched || isAsync() || runner.getMonitor() == null) {
+                        finish(launched, towerResults);
+                        return;
+                    }
+                    record = runner.getRecord();
+                    saveRecord(true);
+                    watch(logger);
+                } catch (Throwable t) {
+                    fail(t);
+                }
+            }
+        });
+        return false;
+    }
+
+    private AnsibleTowerRunner newRunner() {
+        AnsibleTowerRunner newRunner = new AnsibleTowerRunner();
+        newRunner.setRecordListener(new Runnable() {
+            public void run() { saveRecord(false); }
+        });
+        return newRunner;
+    }
+
+    // Has the pipeline write its program, and our record with it, to disk. Unless forced at most every SAVE_INTERVAL
+    private void saveRecord(boolean force) {
+        long now = System.currentTimeMillis();
+        if (!force && now - lastSaved < SAVE_INTERVAL) { return; }
+        lastSaved = now;
+        getContext().saveState();
+    }
+
+    private void watch(final PrintStream logger) {
+        if (stopped) {
+            // Stopped while we were launching, the job has to go too
+            runner.cancelMonitored(logger);
+            return;
+        }
+        runner.getMonitor().getResult().whenCompleteAsync(new BiConsumer<Boolean, Throwable>() {
+            public void accept(Boolean wasSuccessful, Throwable error) {
+                monitorCompleted(logger, wasSuccessful, error, towerResults);
+            }
+        }, executor);
+    }
+
+    private void monitorCompleted(PrintStream logger, Boolean wasSuccessful, Throwable error, Properties towerResults) {
+        // If we were stopped the context has already been told
+        if (stopped || error instanceof CancellationException) { return; }
+        try {
+            if (error != null) {
+                runner.monitorFailed(logger, error);
+                finish(false, towerResults);
+            } else {
+                finish(complete(runner, logger, wasSuccessful, towerResults), towerResults);
+            }
+        } catch (Throwable t) {
+            fail(t);
+        }
+    }
+
+    private void finish(boolean runResult, Properties towerResults) {
+        if (!runResult && getThrowExceptionWhenFail()) {
+            fail(new AbortException(getFailureMessage()));
+        } else if (markCompleted()) {
+            getContext().onSuccess(towerResults);
+        }
+    }
+
+    private void fail(Throwable cause) {
+        if (markCompleted()) { getContext().onFailure(cause); }
+    }
+
+    // True for whoever gets to complete the context, false if it already has been
+    private synchronized boolean markCompleted() {
+        if (completed) { return false; }
+        completed = true;
+        return true;
+    }
+
+    @Override
+    public void onResume() {
+        final TowerJobRecord record = this.record;
+        if (record == null) {
+            // We hadn't launched anything yet (or were async), there is nothing to go back to
+            fail(new AbortException("Resuming an Ansible Tower step after a Jenkins restart is not supported"));
+            return;
+        }
+        runner = newRunner();
+
+        launch = executor.submit(new Runnable() {
+            public void run() {
+                try {
+                    PrintStream logger = getContext().get(TaskListener.class).getLogger();
+                    Run<?, ?> run = getContext().get(Run.class);
+                    boolean resumed;
+                    if (record.isProjectSync()) {
+                        resumed = runner.resumeProjectSync(logger, record, run);
+                    } else {
+                        resumed = runner.resumeJobTemplate(logger, record, run);
+                    }
+                    if (!resumed) {
+                        finish(false, towerResults);
+                        return;
+                    }
+                    watch(logger);
+                } catch (Throwable t) {
+                    fail(t);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void stop(Throwable cause) throws Exception {
+        stopped = true;
+        if (launch != null) { launch.cancel(true); }
+        final TowerJobMonitor.Handle monitor = runner == null ? null : runner.getMonitor();
+        if (monitor != null && !monitor.getResult().isDone()) {
+            final PrintStream logger = getContext().get(TaskListener.class).getLogger();
+            // Telling Tower can take a moment, don't make the pipeline wait on it
+            executor.submit(new Runnable() {
+                public void run() { runner.cancelMonitored(logger); }
+            });
+        }
+        fail(cause);
+    }
+}
@@ -6,6 +6,8 @@ package org.jenkinsci.plugins.ansible_tower;
 
 import hudson.Extension;
 import hudson.XmlFile;
+import hudson.init.Terminator;
+import hudson.util.Secret;
 import hudson.util.XStream2;
 import jenkins.model.GlobalConfiguration;
 import jenkins.model.Jenkins;
@@ -14,19 +16,50 @@ import org.kohsuke.stapler.StaplerRequest;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.jenkinsci.plugins.ansible_tower.util.TowerCapabilities;
+import org.jenkinsci.plugins.ansible_tower.util.TowerClientPool;
+import org.jenkinsci.plugins.ansible_tower.util.TowerCredentialsCache;
 import org.jenkinsci.plugins.ansible_tower.util.TowerInstallation;
+import org.jenkinsci.plugins.ansible_tower.util.TowerJobMonitor;
+import org.jenkinsci.plugins.ansible_tower.util.TowerLookupCache;
+import org.jenkinsci.plugins.ansible_tower.util.TowerRateLimiter;
+import org.jenkinsci.plugins.ansible_tower.util.TowerSSLContexts;
+import org.jenkinsci.plugins.ansible_tower.util.TowerTokenLeaseManager;
 
 @Extension
 public class AnsibleTowerGlobalConfig extends GlobalConfiguration {
 
     private List<TowerInstallation> towerInstallations = new ArrayList<TowerInstallation>();
+    // Rebuilt whenever the installations change so steps never scan the list or reload the config file
+    private transient volatile Map<String, TowerInstallation> installationIndex = Collections.emptyMap();
+    private int requestsPerSecond = TowerRateLimiter.DEFAULT_REQUESTS_PER_SECOND;
+    private int requestBurst = TowerRateLimiter.DEFAULT_BURST;
+    private int maxConnectionsPerRoute = TowerClientPool.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private int connectionIdleTimeout = TowerClientPool.DEFAULT_IDLE_TIMEOUT;
+    private int sslSessionTimeout = TowerSSLContexts.DEFAULT_SESSION_TIMEOUT;
+    private int capabilityCacheTimeout = TowerCapabilities.DEFAULT_TTL;
+    private int tokenIdleTimeout = TowerTokenLeaseManager.DEFAULT_IDLE_TIMEOUT;
+    private int lookupCacheTimeout = TowerLookupCache.DEFAULT_TTL;
+    private int lookupCacheSize = TowerLookupCache.DEFAULT_MAX_SIZE;
+    private int credentialsCacheTimeout = TowerCredentialsCache.DEFAULT_TTL;
+    private int credentialsCacheSize = TowerCredentialsCache.DEFAULT_MAX_SIZE;
+    private int initialPollInterval = TowerJobMonitor.DEFAULT_INITIAL_POLL_INTERVAL;
+    private int maxPollInterval = TowerJobMonitor.DEFAULT_MAX_POLL_INTERVAL;
+    // Tower webhooks have to send this, no token turns the webhook off
+    private Secret webhookToken = null;
+    private int webhookStatusInterval = TowerJobMonitor.DEFAULT_WEBHOOK_STATUS_INTERVAL;
 
     private static final XStream2 XSTREAM2 = new XStream2();
 
     public AnsibleTowerGlobalConfig() {
         load();
+        indexInstallations();
+        applySettings();
     }
 
     @Override
@@ -44,27 +77,104 @@ public class AnsibleTowerGlobalConfig extends GlobalConfiguration {
     {
         req.bindJSON(this, json);
         save();
+        applySettings();
         return true;
     }
 
+    // Push the tuning options down to the shared per installation helpers
+    private void applySettings() {
+        TowerRateLimiter.configure(requestsPerSecond, requestBurst);
+        TowerClientPool.configure(maxConnectionsPerRoute, connectionIdleTimeout);
+        TowerSSLContexts.configure(sslSessionTimeout);
+        TowerCapabilities.configure(capabilityCacheTimeout);
+        TowerTokenLeaseManager.configure(tokenIdleTimeout);
+        TowerLookupCache.configure(lookupCacheTimeout, lookupCacheSize);
+        TowerCredentialsCache.configure(credentialsCacheTimeout, credentialsCacheSize);
+        boolean webhooks = webhookToken != null && !webhookToken.getPlainText().isEmpty();
+        TowerJobMonitor.configure(initialPollInterval, maxPollInterval, webhooks, webhookStatusInterval);
+    }
+
+    @Terminator
+    public static void closeConnections() {
+        // Tokens have to go first, revoking them needs the connection pools
+        TowerTokenLeaseManager.revokeAll();
+        TowerClientPool.shutdown();
+    }
+
     public static AnsibleTowerGlobalConfig get() {
         return GlobalConfiguration.all().get(AnsibleTowerGlobalConfig.class);
     }
 
     public List<TowerInstallation> getTowerInstallation() {
-        return towerInstallations;
+        return Collections.unmodifiableList(towerInstallations);
     }
 
     public TowerInstallation getTowerInstallationByName(String name) {
-        for(TowerInstallation installation : towerInstallations) {
-            if(installation.getTowerDisplayName().equals(name)) { return installation; }
-        }
-        return null;
+        if(name == null) { return null; }
+        return installationIndex.get(name);
     }
 
     public void setTowerInstallation(List<TowerInstallation> towerInstallations) {
-        this.towerInstallations = towerInstallations;
+        this.towerInstallations = new ArrayList<TowerInstallation>(towerInstallations);
+        indexInstallations();
     }
 
+    private void indexInstallations() {
+        if(towerInstallations == null) { towerInstallations = new ArrayList<TowerInstallation>(); }
+        Map<String, TowerInstallation> index = new HashMap<String, TowerInstallation>();
+        for(TowerInstallation installation : towerInstallations) {
+            // Keep the first one on duplicate names, that is what the old lookup returned
+            if(installation.getTowerDisplayName() != null && !index.containsKey(installation.getTowerDisplayName())) {
+                index.put(installation.getTowerDisplayName(), installation);
+            }
+        }
+        installationIndex = Collections.unmodifiableMap(index);
+    }
+
+    public int getRequestsPerSecond() { return requestsPerSecond; }
+    public void setRequestsPerSecond(int requestsPerSecond) { this.requestsPerSecond = requestsPerSecond; }
+
+    public int getRequestBurst() { return requestBurst; }
+    public void setRequestBurst(int requestBurst) { this.requestBurst = requestBurst; }
+
+    public int getMaxConnectionsPerRoute() { return maxConnectionsPerRoute; }
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) { this.maxConnectionsPerRoute = maxConnectionsPerRoute; }
+
+    public int getConnectionIdleTimeout() { return connectionIdleTimeout; }
+    public void setConnectionIdleTimeout(int connectionIdleTimeout) { this.connectionIdleTimeout = connectionIdleTimeout; }
+
+    public int getSslSessionTimeout() { return sslSessionTimeout; }
+    public void setSslSessionTimeout(int sslSessionTimeout) { this.sslSessionTimeout = sslSessionTimeout; }
+
+    public int getCapabilityCacheTimeout() { return capabilityCacheTimeout; }
+    public void setCapabilityCacheTimeout(int capabilityCacheTimeout) { this.capabilityCacheTimeout = capabilityCacheTimeout; }
+
+    public int getTokenIdleTimeout() { return tokenIdleTimeout; }
+    public void setTokenIdleTimeout(int tokenIdleTimeout) { this.tokenIdleTimeout = tokenIdleTimeout; }
+
+    public int getLookupCacheTimeout() { return lookupCacheTimeout; }
+    public void setLookupCacheTimeout(int lookupCacheTimeout) { this.lookupCacheTimeout = lookupCacheTimeout; }
+
+    public int getLookupCacheSize() { return lookupCacheSize; }
+    public void setLookupCacheSize(int lookupCacheSize) { this.lookupCacheSize = lookupCacheSize; }
+
+    public int getCredentialsCacheTimeout() { return credentialsCacheTimeout; }
+    public void setCredentialsCacheTimeout(int credentialsCacheTimeout) { this.credentialsCacheTimeout = credentialsCacheTimeout; }
+
+    public int getCredentialsCacheSize() { return credentialsCacheSize; }
+    public void setCredentialsCacheSize(int credentialsCacheSize) { this.credentialsCacheSize = credentialsCacheSize; }
+
+    public int getInitialPollInterval() { return initialPollInterval; }
+    public void setInitialPollInterval(int initialPollInterval) { this.initialPollInterval = initialPollInterval; }
+
+    public int getMaxPollInterval() { return maxPollInterval; }
+    public void setMaxPollInterval(int maxPollInterval) { this.maxPollInterval = maxPollInterval; }
+
+    public Secret getWebhookToken() { return webhookToken; }
+    public void setWebhookToken(Secret webhookToken) { this.webhookToken = webhookToken; }
+
+    public int getWebhookStatusInterval() { return webhookStatusInterval; }
+    public void setWebhookStatusInterval(int webhookStatusInterval) { this.webhookStatusInterval = webhookStatusInterval; }
+
 }
 
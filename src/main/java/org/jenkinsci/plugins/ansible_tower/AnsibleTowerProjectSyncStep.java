@@ -13,7 +13,6 @@ import org.jenkinsci.plugins.ansible_tower.util.GetUserPageCredentials;
 import org.jenkinsci.plugins.ansible_tower.util.TowerInstallation;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
-import org.jenkinsci.plugins.workflow.steps.AbstractSynchronousNonBlockingStepExecution;
 import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -22,6 +21,7 @@ import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.verb.POST;
 
 import javax.annotation.Nonnull;
+import java.io.PrintStream;
 import java.util.Properties;
 
 import static com.cloudbees.plugins.credentials.CredentialsMatchers.instanceOf;
@@ -131,7 +131,7 @@ public class AnsibleTowerProjectSyncStep extends AbstractStepImpl {
     }
 
 
-    public static final class AnsibleTowerProjectSyncStepExecution extends AbstractSynchronousNonBlockingStepExecution<Properties> {
+    public static final class AnsibleTowerProjectSyncStepExecution extends AnsibleTowerAsyncStepExecution {
         private static final long serialVersionUID = 1L;
 
         @Inject
@@ -155,16 +155,20 @@ public class AnsibleTowerProjectSyncStep extends AbstractStepImpl {
         @StepContextParameter
         private transient Computer computer;
 
-
+        // The step isn't around after a restart, so keep what we need to finish up
+        private boolean throwExceptionWhenFail = true;
 
         @Override
-        protected Properties run() throws AbortException {
+        public boolean start() throws Exception {
             if ((computer == null) || (computer.getNode() == null)) {
                 throw new AbortException("The Ansible Tower Project Sync build step requires to be launched on a node");
             }
+            throwExceptionWhenFail = step.getThrowExceptionWhenFail() == null || step.getThrowExceptionWhenFail();
+            return super.start();
+        }
 
-            AnsibleTowerRunner runner = new AnsibleTowerRunner();
-
+        @Override
+        protected boolean launch(AnsibleTowerRunner runner, PrintStream logger, Properties towerResults) {
             // Doing this will make the options optional in the pipeline step.
             String project = "";
             if(step.getProject() != null) { project = step.getProject(); }
@@ -174,20 +178,26 @@ public class AnsibleTowerProjectSyncStep extends AbstractStepImpl {
             if(step.getImportTowerLogs() != null) { importTowerLogs = step.getImportTowerLogs(); }
             boolean removeColor = false;
             if(step.getRemoveColor() != null) { removeColor = step.getRemoveColor(); }
-            boolean throwExceptionWhenFail = true;
-            if(step.getThrowExceptionWhenFail() != null) { throwExceptionWhenFail = step.getThrowExceptionWhenFail(); }
-            boolean async = false;
-            if(step.getAsync() != null) { async = step.getAsync(); }
-            Properties map = new Properties();
-            boolean runResult = runner.projectSync(
-                    listener.getLogger(), step.getTowerServer(), step.getTowerCredentialsId(), project, verbose,
-                    importTowerLogs, removeColor, envVars, ws, run, map, async
+            return runner.launchProjectSync(
+                    logger, step.getTowerServer(), step.getTowerCredentialsId(), project, verbose,
+                    importTowerLogs, removeColor, envVars, run, towerResults, isAsync()
             );
-            if(!runResult && throwExceptionWhenFail) {
-                throw new AbortException("Ansible Tower Project Sync build step failed");
-            }
-            return map;
         }
+
+        @Override
+        protected boolean complete(AnsibleTowerRunner runner, PrintStream logger, boolean wasSuccessful, Properties towerResults) {
+            return runner.completeProjectSync(logger, wasSuccessful, towerResults);
+        }
+
+        @Override
+        protected boolean isAsync() {
+            return step.getAsync() != null && step.getAsync();
+        }
+
+        @Override
+        protected boolean getThrowExceptionWhenFail() { return throwExceptionWhenFail; }
+
+        @Override
+        protected String getFailureMessage() { return "Ansible Tower Project Sync build step failed"; }
     }
 }
-
@@ -17,9 +17,15 @@ import org.jenkinsci.plugins.envinject.service.EnvInjectActionSetter;
 
 import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 
 public class AnsibleTowerRunner {
     private TowerJob myJob = null;
+    private TowerConnector myTowerConnection = null;
+    private TowerJobMonitor.Handle monitor = null;
+    private TowerJobRecord record = null;
+    // Told after the record has changed so whoever keeps it can save it, can be null
+    private Runnable recordListener = null;
 
     public boolean runJobTemplate(
             PrintStream logger, String towerServer, String towerCredentialsId, String jobTemplate, String jobType,
@@ -37,27 +43,43 @@ public class AnsibleTowerRunner {
             String extraVars, String limit, String jobTags, String skipJobTags, String inventory, String credential, String scmBranch,
             boolean verbose, String importTowerLogs, boolean removeColor, EnvVars envVars, String templateType,
             boolean importWorkflowChildLogs, FilePath ws, Run<?, ?> run, Properties towerResults, boolean async
+    ) {
+        if (!this.launchJobTemplate(logger, towerServer, towerCredentialsId, jobTemplate, jobType, extraVars, limit,
+                jobTags, skipJobTags, inventory, credential, scmBranch, verbose, importTowerLogs, removeColor, envVars,
+                templateType, importWorkflowChildLogs, run, towerResults, async)) {
+            return false;
+        }
+        if (async) { return true; }
+
+        // The monitor polls Tower for us, we just wait for the result
+        Boolean wasSuccessful = this.waitForMonitor(logger);
+        if (wasSuccessful == null) { return false; }
+        return this.completeJobTemplate(logger, wasSuccessful, verbose, envVars, ws, run, towerResults);
+    }
+
+    /*
+        Launches the job template and, unless we are async, registers it with the job monitor.
+        Pipeline steps use this directly so they don't have to keep a thread waiting on Tower, see getMonitor().
+     */
+    public boolean launchJobTemplate(
+            PrintStream logger, String towerServer, String towerCredentialsId, String jobTemplate, String jobType,
+            String extraVars, String limit, String jobTags, String skipJobTags, String inventory, String credential, String scmBranch,
+            boolean verbose, String importTowerLogs, boolean removeColor, EnvVars envVars, String templateType,
+            boolean importWorkflowChildLogs, Run<?, ?> run, Properties towerResults, boolean async
     ) {
         if (verbose) {
             logger.println("Beginning Ansible Tower Run on " + towerServer);
         }
 
-        AnsibleTowerGlobalConfig myConfig = new AnsibleTowerGlobalConfig();
-        TowerInstallation towerConfigToRunOn = myConfig.getTowerInstallationByName(towerServer);
+        TowerInstallation towerConfigToRunOn = AnsibleTowerGlobalConfig.get().getTowerInstallationByName(towerServer);
         if (towerConfigToRunOn == null) {
             logger.println("ERROR: Ansible tower server " + towerServer + " does not exist in Ansible Tower configuration");
             return false;
         }
 
-        if(towerCredentialsId != null && !towerCredentialsId.equals("")) {
-            towerConfigToRunOn.setTowerCredentialsId(towerCredentialsId);
-        }
-
-        if(run != null) {
-            towerConfigToRunOn.setRun(run);
-        }
-
-        TowerConnector myTowerConnection = towerConfigToRunOn.getTowerConnector();
+        // Apply credential override if provided
+        TowerConnector myTowerConnection = towerConfigToRunOn.withOverrides(towerCredentialsId, run).getTowerConnector();
+        this.myTowerConnection = myTowerConnection;
         this.myJob = new TowerJob(myTowerConnection);
         try {
             this.myJob.setTemplateType(templateType);
@@ -67,8 +89,9 @@ public class AnsibleTowerRunner {
         }
 
         // Check the import logs settings
-        if (!(importTowerLogs.matches("false") || importTowerLogs.matches("true") || importTowerLogs.matches("vars") || importTowerLogs.matches("full"))) {
-            logger.println("ERROR: Import Tower Logs must be one of (false, true, vars or full)");
+        if (!(importTowerLogs.matches("false") || importTowerLogs.matches("true") || importTowerLogs.matches("vars") || importTowerLogs.matches("full") ||
+                TowerConnector.getEventFilter(importTowerLogs) != null)) {
+            logger.println("ERROR: Import Tower Logs must be one of (false, true, vars, full, failures, changed or headers)");
             return false;
         }
 
@@ -147,15 +170,16 @@ public class AnsibleTowerRunner {
             }
         }
 
-        // Get the job template.
-        JSONObject template;
+        // Get the job template along with the inventory and credentials to launch it with.
+        TowerLaunchPreparation preparation = new TowerLaunchPreparation(myTowerConnection, expandedJobTemplate, templateType, expandedInventory, expandedCredential);
         try {
-            template = myTowerConnection.getJobTemplate(expandedJobTemplate, templateType);
+            preparation.resolve();
         } catch (AnsibleTowerException e) {
-            logger.println("ERROR: Unable to lookup job template " + e.getMessage());
+            logger.println("ERROR: Unable to prepare job template launch " + e.getMessage());
             myTowerConnection.releaseToken();
             return false;
         }
+        JSONObject template = preparation.getTemplate();
 
 
         if (jobType != null && template.containsKey("ask_job_type_on_launch") && !template.getBoolean("ask_job_type_on_launch")) {
@@ -203,7 +227,7 @@ public class AnsibleTowerRunner {
         }
 
         try {
-            this.myJob.setJobId(myTowerConnection.submitTemplate(template.getInt("id"), expandedExtraVars, expandedLimit, expandedJobTags, expandedSkipJobTags, jobType, expandedInventory, expandedCredential, expandedScmBranch, templateType));
+            this.myJob.setJobId(myTowerConnection.submitTemplate(preparation, expandedExtraVars, expandedLimit, expandedJobTags, expandedSkipJobTags, jobType, expandedScmBranch));
         } catch (AnsibleTowerException e) {
             logger.println("ERROR: Unable to request job template invocation " + e.getMessage());
             myTowerConnection.releaseToken();
@@ -222,65 +246,101 @@ public class AnsibleTowerRunner {
             return true;
         }
 
-        boolean jobCompleted = false;
         // Assume the old logging behaviour (truncated logs) but we we are doing full logging or var logging then swtich to true
         if (importTowerLogs.matches("full") || importTowerLogs.matches("vars")) { myTowerConnection.setGetFullLogs(true); }
-        while (!jobCompleted) {
-            if(Thread.currentThread().isInterrupted()) {
-                myTowerConnection.releaseToken();
-                return this.cancelJob(logger);
-            }
+        myTowerConnection.setEventFilter(TowerConnector.getEventFilter(importTowerLogs));
 
-            // First log any events if the user wants them
-            try {
-                this.getJobLogs(importTowerLogs, logger);
-            } catch (AnsibleTowerException e) {
-                logger.println("ERROR: Failed to get job events from tower: " + e.getMessage());
-                myTowerConnection.releaseToken();
-                return false;
-            }
+        this.record = new TowerJobRecord(towerServer, towerCredentialsId, templateType, this.myJob.getJobID(),
+                importTowerLogs, removeColor, importWorkflowChildLogs);
+        this.myJob.setReadExportsWhenDone(readsExportsWhenDone(importTowerLogs, templateType));
+        this.monitor = TowerJobMonitor.register(this.myJob, getJobLogSink(importTowerLogs, templateType, logger));
+        return true;
+    }
 
-           try {
-                jobCompleted = this.myJob.isComplete();
-            } catch (AnsibleTowerException e) {
-                logger.println("ERROR: Failed to get job status from Tower: " + e.getMessage());
-                myTowerConnection.releaseToken();
-                return false;
-            }
-            if (!jobCompleted) {
-                if(Thread.currentThread().isInterrupted()) {
-                    myTowerConnection.releaseToken();
-                    return this.cancelJob(logger);
-                } else {
-                    try {
-                        Thread.sleep(3000);
-                    } catch (InterruptedException ie) {
-                        myTowerConnection.releaseToken();
-                        return this.cancelJob(logger);
-                    }
-                }
-            }
-        }
-        // One final log of events (if we want them)
-        // Note, that a job can complete long before Tower has finished consuming the logs. This can cause incomplete
-        //    logs within Jenkins.
-        try {
-            this.getJobLogs(importTowerLogs, logger);
-        } catch (AnsibleTowerException e) {
-            logger.println("ERROR: Failed to get final job events from tower: " + e.getMessage());
-            myTowerConnection.releaseToken();
+    /*
+        Picks up monitoring a job that was launched before Jenkins restarted.
+        The logs continue from the last event we had seen and the variables exported so far are kept.
+     */
+    public boolean resumeJobTemplate(PrintStream logger, TowerJobRecord record, Run<?, ?> run) {
+        TowerInstallation towerConfigToRunOn = AnsibleTowerGlobalConfig.get().getTowerInstallationByName(record.getTowerServer());
+        if (towerConfigToRunOn == null) {
+            logger.println("ERROR: Ansible tower server " + record.getTowerServer() + " does not exist in Ansible Tower configuration");
             return false;
         }
 
-        boolean wasSuccessful;
+        TowerConnector myTowerConnection = towerConfigToRunOn.withOverrides(record.getTowerCredentialsId(), run).getTowerConnector();
+        this.myTowerConnection = myTowerConnection;
+        this.myJob = new TowerJob(myTowerConnection);
         try {
-            wasSuccessful = this.myJob.wasSuccessful();
+            this.myJob.setTemplateType(record.getTemplateType());
         } catch(AnsibleTowerException e) {
-            logger.println("ERROR: Failed to get job compltion status: "+ e.getMessage());
-            myTowerConnection.releaseToken();
+            logger.println("ERROR: "+ e);
             return false;
         }
+        this.myJob.setJobId(record.getJobId());
+
+        String importTowerLogs = record.getImportTowerLogs();
+        myTowerConnection.setRemoveColor(record.getRemoveColor());
+        myTowerConnection.setGetWorkflowChildLogs(record.getImportWorkflowChildLogs());
+        if (importTowerLogs.matches("full") || importTowerLogs.matches("vars")) { myTowerConnection.setGetFullLogs(true); }
+        myTowerConnection.setEventFilter(TowerConnector.getEventFilter(importTowerLogs));
+        myTowerConnection.restoreEventCursors(record.getJobEventCursors(), record.getWorkflowEventCursors());
+        myTowerConnection.restoreStdoutCursors(record.getStdoutCursors());
+        myTowerConnection.restoreCounterCursors(record.getCounterCursors());
+        myTowerConnection.addJenkinsExports(record.getExports());
+
+        logger.println("Resuming monitoring of Tower job " + myTowerConnection.getJobURL(record.getJobId(), record.getTemplateType()));
+        this.record = record;
+        this.myJob.setReadExportsWhenDone(readsExportsWhenDone(importTowerLogs, record.getTemplateType()));
+        this.monitor = TowerJobMonitor.register(this.myJob, getJobLogSink(importTowerLogs, record.getTemplateType(), logger));
+        return true;
+    }
+
+    // The job or project sync we launched, null if we were async or the launch failed
+    public TowerJobMonitor.Handle getMonitor() { return this.monitor; }
+
+    // What a pipeline step needs to save to resume monitoring after a restart, null if nothing is being monitored
+    public TowerJobRecord getRecord() { return this.record; }
+    public void setRecordListener(Runnable recordListener) { this.recordListener = recordListener; }
+
+    private void recordUpdated() {
+        Runnable listener = this.recordListener;
+        if (listener != null) { listener.run(); }
+    }
+
+    /*
+        Blocks until the monitor is done with what we launched.
+        Returns null if we couldn't find out how it went (the error has been logged) or were interrupted.
+     */
+    public Boolean waitForMonitor(PrintStream logger) {
+        try {
+            return this.monitor.getResult().get();
+        } catch (InterruptedException ie) {
+            this.cancelMonitored(logger);
+            return null;
+        } catch (ExecutionException ee) {
+            this.monitorFailed(logger, ee.getCause());
+            return null;
+        }
+    }
+
+    // The monitor could not tell us how the job went
+    public void monitorFailed(PrintStream logger, Throwable cause) {
+        logger.println("ERROR: " + cause.getMessage());
+        this.myTowerConnection.releaseToken();
+    }
 
+    // Cancels what we launched in Tower (through the monitor) and lets go of our token
+    public boolean cancelMonitored(PrintStream logger) {
+        boolean canceled = this.cancelMonitored(logger, this.monitor);
+        this.myTowerConnection.releaseToken();
+        return canceled;
+    }
+
+    // Everything that happens once the job has finished in Tower
+    public boolean completeJobTemplate(PrintStream logger, boolean wasSuccessful, boolean verbose, EnvVars envVars,
+                                       FilePath ws, Run<?, ?> run, Properties towerResults) {
+        TowerConnector myTowerConnection = this.myTowerConnection;
         HashMap<String, String> jenkinsVariables;
         try {
             jenkinsVariables = this.myJob.getExports();
@@ -328,36 +388,56 @@ public class AnsibleTowerRunner {
         return wasSuccessful;
     }
 
-    public void getJobLogs(String importTowerLogs, PrintStream logger) throws AnsibleTowerException {
-        if (importTowerLogs.matches("false")) { return; }
+    /*
+        With vars a job template doesn't need its output, only the variables it exports. Those come from its artifacts
+        and from the few events that have JENKINS_EXPORT in them, which are read once the job is done.
+        A workflow's exports are in the output of its jobs so it still reads everything.
+     */
+    private static boolean isExportsOnly(String importTowerLogs, String templateType) {
+        return importTowerLogs.matches("vars") && templateType.equalsIgnoreCase(TowerConnector.JOB_TEMPLATE_TYPE);
+    }
+
+    // The filtered levels only see some of the output so, like vars, a job template reads its exports once it is done.
+    // A workflow does that for each of its jobs as they finish (see TowerConnector.logWorkflowEvents)
+    private static boolean readsExportsWhenDone(String importTowerLogs, String templateType) {
+        if (!templateType.equalsIgnoreCase(TowerConnector.JOB_TEMPLATE_TYPE)) { return false; }
+        return isExportsOnly(importTowerLogs, templateType) || TowerConnector.getEventFilter(importTowerLogs) != null;
+    }
+
+    private TowerLogSink getJobLogSink(final String importTowerLogs, String templateType, final PrintStream logger) {
+        if (importTowerLogs.matches("false") || isExportsOnly(importTowerLogs, templateType)) { return null; }
 
+        final TowerJobRecord record = this.record;
+        final TowerConnector myTowerConnection = this.myTowerConnection;
         // If we are anything but false we have to pull the logs
-        for (String event : this.myJob.getLogs()) {
-            // However, if we are doing this for vars only then we don't need to display the logs
-            if (! importTowerLogs.matches("vars")) {
-                logger.println(event);
+        // However, if we are doing this for vars only then we don't need to display the logs
+        final boolean display = !importTowerLogs.matches("vars");
+        return new TowerPrintStreamSink(logger) {
+            @Override
+            public void onLine(String line) {
+                if (display) { super.onLine(line); }
             }
-        }
-    }
 
-    public boolean cancelJob(PrintStream logger) {
-        logger.println("Attempting to cancel launched Tower job");
-        try {
-            this.myJob.cancelJob();
-            logger.println("Job successfully canceled in Tower");
-        } catch(AnsibleTowerException ae) {
-            logger.println("Failed to cancel tower job: "+ ae);
-        }
-        return false;
+            @Override
+            public void flush() {
+                // This runs on the monitor thread right after the connector read a page, so it is safe to copy
+                record.update(myTowerConnection);
+                super.flush();
+                recordUpdated();
+            }
+        };
     }
 
-    public boolean cancelProjectSync(PrintStream logger, TowerProjectSync projectSync) {
-        logger.println("Attempting to cancel project sync");
+    private boolean cancelMonitored(PrintStream logger, TowerJobMonitor.Handle monitor) {
+        String description = monitor.getTarget().getDescription();
+        logger.println("Attempting to cancel " + description);
         try {
-            projectSync.cancelSync();
-            logger.println("Project sync successfullt canceled in Tower");
-        } catch(AnsibleTowerException ae) {
-            logger.println("Failed to cancel tower project sync: "+ ae);
+            monitor.cancel().get();
+            logger.println("Successfully canceled " + description + " in Tower");
+        } catch(ExecutionException ee) {
+            logger.println("Failed to cancel tower " + description + ": " + ee.getCause());
+        } catch(InterruptedException ie) {
+            logger.println("Interrupted while canceling tower " + description);
         }
         return false;
     }
@@ -365,25 +445,38 @@ public class AnsibleTowerRunner {
     public boolean projectSync(PrintStream logger, String towerServer, String towerCredentialsId, String projectName,
                                boolean verbose, boolean importTowerLogs, boolean removeColor, EnvVars envVars,
                                FilePath ws, Run<?, ?> run, Properties towerResults, boolean async) {
+        if (!this.launchProjectSync(logger, towerServer, towerCredentialsId, projectName, verbose, importTowerLogs,
+                removeColor, envVars, run, towerResults, async)) {
+            return false;
+        }
+        if (async) { return true; }
+
+        Boolean wasSuccessful = this.waitForMonitor(logger);
+        if (wasSuccessful == null) { return false; }
+        return this.completeProjectSync(logger, wasSuccessful, towerResults);
+    }
+
+    /*
+        Requests the project sync and, unless we are async, registers it with the job monitor.
+     */
+    public boolean launchProjectSync(PrintStream logger, String towerServer, String towerCredentialsId, String projectName,
+                                     boolean verbose, boolean importTowerLogs, boolean removeColor, EnvVars envVars,
+                                     Run<?, ?> run, Properties towerResults, boolean async) {
 
         if (verbose) {
             logger.println("Beginning Ansible Tower Project Sync on " + towerServer +" for "+ projectName);
         }
 
         // Get our Tower connector
-        AnsibleTowerGlobalConfig myConfig = new AnsibleTowerGlobalConfig();
-        TowerInstallation towerConfigToRunOn = myConfig.getTowerInstallationByName(towerServer);
+        TowerInstallation towerConfigToRunOn = AnsibleTowerGlobalConfig.get().getTowerInstallationByName(towerServer);
         if (towerConfigToRunOn == null) {
             logger.println("ERROR: Ansible tower server " + towerServer + " does not exist in Ansible Tower configuration");
             return false;
         }
 
         // Apply credential override if provided
-        if(towerCredentialsId != null && !towerCredentialsId.equals("")) {
-            towerConfigToRunOn.setTowerCredentialsId(towerCredentialsId);
-        }
-
-        TowerConnector myTowerConnection = towerConfigToRunOn.getTowerConnector();
+        TowerConnector myTowerConnection = towerConfigToRunOn.withOverrides(towerCredentialsId, run).getTowerConnector();
+        this.myTowerConnection = myTowerConnection;
 
         myTowerConnection.setRemoveColor(removeColor);
 
@@ -446,69 +539,59 @@ public class AnsibleTowerRunner {
         }
 
         // Otherwise we can monitor the project sync
-        boolean syncCompleted = false;
-        while (!syncCompleted) {
-            if(Thread.currentThread().isInterrupted()) {
-                myTowerConnection.releaseToken();
-                return this.cancelProjectSync(logger, projectSync);
-            }
+        this.record = new TowerJobRecord(towerServer, towerCredentialsId, TowerJobRecord.PROJECT_SYNC_TYPE,
+                projectSync.getID(), Boolean.toString(importTowerLogs), removeColor, false);
+        this.monitor = TowerJobMonitor.register(projectSync, getSyncLogSink(projectSync, importTowerLogs, logger));
+        return true;
+    }
 
-            // First log any events if the user wants them
-            if (importTowerLogs) {
-                try {
-                    for (String event : projectSync.getLogs()) {
-                        logger.println(event);
-                    }
-                } catch (AnsibleTowerException e) {
-                    logger.println("ERROR: Failed to get project sync events from tower: " + e.getMessage());
-                    myTowerConnection.releaseToken();
-                    return false;
-                }
-            }
-            try {
-                syncCompleted = projectSync.isComplete();
-            } catch (AnsibleTowerException e) {
-                logger.println("ERROR: Failed to get project sync status from Tower: " + e.getMessage());
-                myTowerConnection.releaseToken();
-                return false;
-            }
-            if (!syncCompleted) {
-                if(Thread.currentThread().isInterrupted()) {
-                    myTowerConnection.releaseToken();
-                    return this.cancelProjectSync(logger, projectSync);
-                } else {
-                    try {
-                        Thread.sleep(3000);
-                    } catch (InterruptedException ie) {
-                        myTowerConnection.releaseToken();
-                        return this.cancelProjectSync(logger, projectSync);
-                    }
-                }
-            }
-        }
-        // One final log of events (if we want them)
-        // Note, that a job can complete long before Tower has finished consuming the logs. This can cause incomplete
-        //    logs within Jenkins.
-        if(importTowerLogs) {
-            try {
-                for (String event : projectSync.getLogs()) {
-                    logger.println(event);
-                }
-            } catch (AnsibleTowerException e) {
-                logger.println("ERROR: Failed to get final project sync events from tower: " + e.getMessage());
-                myTowerConnection.releaseToken();
-                return false;
-            }
+    /*
+        Picks up monitoring a project sync that was requested before Jenkins restarted.
+     */
+    public boolean resumeProjectSync(PrintStream logger, TowerJobRecord record, Run<?, ?> run) {
+        TowerInstallation towerConfigToRunOn = AnsibleTowerGlobalConfig.get().getTowerInstallationByName(record.getTowerServer());
+        if (towerConfigToRunOn == null) {
+            logger.println("ERROR: Ansible tower server " + record.getTowerServer() + " does not exist in Ansible Tower configuration");
+            return false;
         }
 
-        boolean wasSuccessful;
+        TowerConnector myTowerConnection = towerConfigToRunOn.withOverrides(record.getTowerCredentialsId(), run).getTowerConnector();
+        this.myTowerConnection = myTowerConnection;
+        myTowerConnection.setRemoveColor(record.getRemoveColor());
+
+        TowerProjectSync projectSync;
         try {
-            wasSuccessful = projectSync.wasSuccessful();
-        } catch(AnsibleTowerException e) {
-            logger.println("ERROR: Failed to get project sync compltion status: "+ e.getMessage());
+            projectSync = new TowerProjectSync(myTowerConnection, record.getJobId(), record.getSyncEventCursor());
+        } catch (AnsibleTowerException e) {
+            logger.println("ERROR: Unable to load project sync " + record.getJobId() + ": " + e.getMessage());
             myTowerConnection.releaseToken();
             return false;
         }
+
+        logger.println("Resuming monitoring of Tower project sync " + projectSync.getURL());
+        this.record = record;
+        this.monitor = TowerJobMonitor.register(projectSync,
+                getSyncLogSink(projectSync, Boolean.parseBoolean(record.getImportTowerLogs()), logger));
+        return true;
+    }
+
+    private TowerLogSink getSyncLogSink(final TowerProjectSync projectSync, boolean importTowerLogs, PrintStream logger) {
+        if (!importTowerLogs) { return null; }
+
+        final TowerJobRecord record = this.record;
+        return new TowerPrintStreamSink(logger) {
+            @Override
+            public void flush() {
+                record.update(projectSync);
+                super.flush();
+                recordUpdated();
+            }
+        };
+    }
+
+    // Everything that happens once the project sync has finished in Tower
+    public boolean completeProjectSync(PrintStream logger, boolean wasSuccessful, Properties towerResults) {
+        TowerConnector myTowerConnection = this.myTowerConnection;
         towerResults.put("SYNC_RESULT", wasSuccessful ? "SUCCESS" : "FAILED");
 
         // Project sync can not export jenkins variables so we don't need to check for them here
@@ -534,19 +617,14 @@ public class AnsibleTowerRunner {
         }
 
         // Get our Tower connector
-        AnsibleTowerGlobalConfig myConfig = new AnsibleTowerGlobalConfig();
-        TowerInstallation towerConfigToRunOn = myConfig.getTowerInstallationByName(towerServer);
+        TowerInstallation towerConfigToRunOn = AnsibleTowerGlobalConfig.get().getTowerInstallationByName(towerServer);
         if (towerConfigToRunOn == null) {
             logger.println("ERROR: Ansible tower server " + towerServer + " does not exist in Ansible Tower configuration");
             return false;
         }
 
         // Apply credential override if provided
-        if(towerCredentialsId != null && !towerCredentialsId.equals("")) {
-            towerConfigToRunOn.setTowerCredentialsId(towerCredentialsId);
-        }
-
-        TowerConnector myTowerConnection = towerConfigToRunOn.getTowerConnector();
+        TowerConnector myTowerConnection = towerConfigToRunOn.withOverrides(towerCredentialsId, run).getTowerConnector();
 
         // Expand all of the parameters
         String expandedProject = envVars.expand(projectName);
@@ -13,7 +13,6 @@ import hudson.util.ListBoxModel;
 import org.jenkinsci.plugins.ansible_tower.util.GetUserPageCredentials;
 import org.jenkinsci.plugins.ansible_tower.util.TowerInstallation;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
-import org.jenkinsci.plugins.workflow.steps.AbstractSynchronousNonBlockingStepExecution;
 import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
 import org.kohsuke.stapler.AncestorInPath;
@@ -23,6 +22,7 @@ import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.verb.POST;
 
 import javax.annotation.Nonnull;
+import java.io.PrintStream;
 import java.util.Properties;
 
 public class AnsibleTowerStep extends AbstractStepImpl {
@@ -219,6 +219,9 @@ public class AnsibleTowerStep extends AbstractStepImpl {
             items.add("Import Truncated Logs", "true");
             items.add("Import Full Logs", "full");
             items.add("Process Variables Only", "vars");
+            items.add("Failures Only", "failures");
+            items.add("Changed Tasks Only", "changed");
+            items.add("Headers and Failures", "headers");
             return items;
         }
 
@@ -234,7 +237,7 @@ public class AnsibleTowerStep extends AbstractStepImpl {
     }
 
 
-    public static final class AnsibleTowerStepExecution extends AbstractSynchronousNonBlockingStepExecution<Properties> {
+    public static final class AnsibleTowerStepExecution extends AnsibleTowerAsyncStepExecution {
         private static final long serialVersionUID = 1L;
 
         @Inject
@@ -258,14 +261,22 @@ public class AnsibleTowerStep extends AbstractStepImpl {
         @StepContextParameter
         private transient Computer computer;
 
+        // The step isn't around after a restart, so keep what we need to finish up
+        private boolean verbose = false;
+        private boolean throwExceptionWhenFail = true;
+
         @Override
-        protected Properties run() throws AbortException {
+        public boolean start() throws Exception {
             if ((computer == null) || (computer.getNode() == null)) {
                 throw new AbortException("The Ansible Tower build step requires to be launched on a node");
             }
+            verbose = step.getVerbose() != null && step.getVerbose();
+            throwExceptionWhenFail = step.getThrowExceptionWhenFail() == null || step.getThrowExceptionWhenFail();
+            return super.start();
+        }
 
-            AnsibleTowerRunner runner = new AnsibleTowerRunner();
-
+        @Override
+        protected boolean launch(AnsibleTowerRunner runner, PrintStream logger, Properties towerResults) {
             // Doing this will make the options optional in the pipeline step.
             String towerCredentialsId = "";
             if(step.getTowerCredentialsId() != null) { towerCredentialsId = step.getTowerCredentialsId(); }
@@ -285,8 +296,6 @@ public class AnsibleTowerStep extends AbstractStepImpl {
             if(step.getCredential() != null) { credential = step.getCredential(); }
             String scmBranch = "";
             if(step.getScmBranch() != null) { scmBranch = step.getScmBranch(); }
-            boolean verbose = false;
-            if(step.getVerbose() != null) { verbose = step.getVerbose(); }
             String towerLogLevel = "false";
             if(step.getTowerLogLevel() != null) { towerLogLevel = step.getTowerLogLevel(); }
             boolean removeColor = false;
@@ -295,21 +304,31 @@ public class AnsibleTowerStep extends AbstractStepImpl {
             if(step.getTemplateType() != null) { templateType = step.getTemplateType(); }
             boolean importWorkflowChildLogs = false;
             if(step.getImportWorkflowChildLogs() != null) { importWorkflowChildLogs = step.getImportWorkflowChildLogs(); }
-            boolean throwExceptionWhenFail = true;
-            if(step.getThrowExceptionWhenFail() != null) { throwExceptionWhenFail = step.getThrowExceptionWhenFail(); }
-            boolean async = false;
-            if(step.getAsync() != null) { async = step.getAsync(); }
-            Properties map = new Properties();
-            boolean runResult = runner.runJobTemplate(
-                    listener.getLogger(), step.getTowerServer(), towerCredentialsId, step.getJobTemplate(), jobType, extraVars,
+            return runner.launchJobTemplate(
+                    logger, step.getTowerServer(), towerCredentialsId, step.getJobTemplate(), jobType, extraVars,
                     limit, tags, skipTags, inventory, credential, scmBranch, verbose, towerLogLevel, removeColor, envVars,
-                    templateType, importWorkflowChildLogs, ws, run, map, async
+                    templateType, importWorkflowChildLogs, run, towerResults, isAsync()
             );
-            if(!runResult && throwExceptionWhenFail) {
-                throw new AbortException("Ansible Tower build step failed");
-            }
-            return map;
         }
+
+        @Override
+        protected boolean complete(AnsibleTowerRunner runner, PrintStream logger, boolean wasSuccessful, Properties towerResults) throws Exception {
+            // After a restart the context parameters weren't injected, ask the context for them
+            EnvVars envVars = this.envVars != null ? this.envVars : getContext().get(EnvVars.class);
+            FilePath ws = this.ws != null ? this.ws : getContext().get(FilePath.class);
+            Run<?,?> run = this.run != null ? this.run : getContext().get(Run.class);
+            return runner.completeJobTemplate(logger, wasSuccessful, verbose, envVars, ws, run, towerResults);
+        }
+
+        @Override
+        protected boolean isAsync() {
+            return step.getAsync() != null && step.getAsync();
+        }
+
+        @Override
+        protected boolean getThrowExceptionWhenFail() { return throwExceptionWhenFail; }
+
+        @Override
+        protected String getFailureMessage() { return "Ansible Tower build step failed"; }
     }
 }
-
@@ -0,0 +1,91 @@
+package org.jenkinsci.plugins.ansible_tower;
+
+/*
+    This class receives Tower's webhook notifications at <jenkins>/ansible-tower-webhook/
+    Tower can't get a crumb, so instead the request has to carry the webhook token from the global config, either as
+    an "Authorization: Bearer <token>" header (set in the notification's HTTP headers) or as ?token=<token>.
+    When a job we are watching finishes the job monitor checks on it right away rather than at its next poll.
+ */
+
+import hudson.Extension;
+import hudson.model.UnprotectedRootAction;
+import hudson.security.csrf.CrumbExclusion;
+import hudson.util.Secret;
+import org.jenkinsci.plugins.ansible_tower.exceptions.AnsibleTowerException;
+import org.jenkinsci.plugins.ansible_tower.util.TowerJobMonitor;
+import org.jenkinsci.plugins.ansible_tower.util.TowerLogger;
+import org.jenkinsci.plugins.ansible_tower.util.TowerWebhookPayload;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.Reader;
+
+@Extension
+public class AnsibleTowerWebhook implements UnprotectedRootAction {
+    public static final String URL_NAME = "ansible-tower-webhook";
+    // Tower's notification bodies are a few KB, anything much bigger isn't from Tower
+    private static final int MAX_BODY = 64 * 1024;
+
+    public String getIconFileName() { return null; }
+    public String getDisplayName() { return "Ansible Tower Webhook"; }
+    public String getUrlName() { return URL_NAME; }
+
+    @RequirePOST
+    public HttpResponse doIndex(StaplerRequest req) throws IOException {
+        Secret token = AnsibleTowerGlobalConfig.get().getWebhookToken();
+        int tokenStatus = TowerWebhookPayload.checkToken(token == null ? null : token.getPlainText(),
+                req.getHeader("Authorization"), req.getParameter("token"));
+        if(tokenStatus == HttpServletResponse.SC_NOT_FOUND) {
+            return HttpResponses.notFound();
+        } else if(tokenStatus != HttpServletResponse.SC_OK) {
+            return HttpResponses.forbidden();
+        }
+
+        TowerWebhookPayload payload;
+        try {
+            payload = TowerWebhookPayload.parse(readBody(req));
+        } catch(AnsibleTowerException ate) {
+            TowerLogger.writeMessage("Ignoring Tower webhook: "+ ate.getMessage());
+            return HttpResponses.status(HttpServletResponse.SC_BAD_REQUEST);
+        }
+
+        int matched = TowerJobMonitor.pollNow(payload.getId());
+        TowerLogger.writeMessage("Tower webhook for job "+ payload.getId() +" ("+ payload.getStatus() +") matched "+ matched +" monitored job(s)");
+        return HttpResponses.ok();
+    }
+
+    private static String readBody(StaplerRequest req) throws IOException, AnsibleTowerException {
+        StringBuilder body = new StringBuilder();
+        char[] buffer = new char[4096];
+        Reader reader = req.getReader();
+        int read;
+        while((read = reader.read(buffer)) != -1) {
+            body.append(buffer, 0, read);
+            if(body.length() > MAX_BODY) {
+                throw new AnsibleTowerException("The notification was larger than "+ MAX_BODY +" characters");
+            }
+        }
+        return body.toString();
+    }
+
+    // Tower can't send a crumb, the token takes its place
+    @Extension
+    public static class WebhookCrumbExclusion extends CrumbExclusion {
+        @Override
+        public boolean process(HttpServletRequest req, HttpServletResponse resp, FilterChain chain) throws IOException, ServletException {
+            String pathInfo = req.getPathInfo();
+            if(pathInfo != null && (pathInfo.equals("/"+ URL_NAME) || pathInfo.startsWith("/"+ URL_NAME +"/"))) {
+                chain.doFilter(req, resp);
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This class is a cached profile of what a Tower installation can do.
+    It holds the version from the ping page, which token mechanisms the server supports and the feature flags we
+    derive from the version. Profiles are shared by every connector to the same Tower and refreshed once the TTL expires
+    so we are not pinging and probing Tower every time a step starts.
+ */
+
+import org.jenkinsci.plugins.ansible_tower.exceptions.AnsibleTowerException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public class TowerCapabilities {
+    public static final int DEFAULT_TTL = 600;
+
+    private static final ConcurrentHashMap<String, TowerCapabilities> profiles = new ConcurrentHashMap<String, TowerCapabilities>();
+    private static final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+    private static volatile int ttl = DEFAULT_TTL;
+
+    private final TowerVersion version;
+    private final boolean credentialsList;
+    private final long expiresAt;
+    // The auth probes are only needed for username/password logins so they are filled in on demand
+    private volatile Boolean supportsOAuth = null;
+    private volatile Boolean supportsAuthToken = null;
+    // The IDs of the machine (ssh) and vault credential types, -1 if the server doesn't have that kind
+    private volatile int[] credentialTypes = null;
+
+    public TowerCapabilities(TowerVersion version) {
+        this.version = version;
+        // Starting with 3.5.0 credentials can only be passed as a list
+        boolean credentialsList = false;
+        try {
+            credentialsList = version != null && version.is_greater_or_equal("3.5.0");
+        } catch(AnsibleTowerException ate) {
+            // Our own constant always parses
+        }
+        this.credentialsList = credentialsList;
+        this.expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(ttl);
+    }
+
+    public static TowerCapabilities getCached(String towerURL) {
+        TowerCapabilities capabilities = profiles.get(towerURL);
+        if(capabilities != null && capabilities.isExpired()) {
+            profiles.remove(towerURL, capabilities);
+            return null;
+        }
+        return capabilities;
+    }
+
+    public static void cache(String towerURL, TowerCapabilities capabilities) {
+        profiles.put(towerURL, capabilities);
+    }
+
+    public static Object getLock(String towerURL) {
+        Object lock = locks.get(towerURL);
+        if(lock == null) {
+            Object newLock = new Object();
+            lock = locks.putIfAbsent(towerURL, newLock);
+            if(lock == null) { lock = newLock; }
+        }
+        return lock;
+    }
+
+    // Called by the global config whenever it is loaded or saved
+    public static void configure(int newTTL) {
+        ttl = Math.max(newTTL, 0);
+        profiles.clear();
+    }
+
+    public boolean isExpired() { return System.nanoTime() - expiresAt > 0; }
+
+    public TowerVersion getVersion() { return version; }
+    public boolean supportsCredentialsList() { return credentialsList; }
+
+    public Boolean getSupportsOAuth() { return supportsOAuth; }
+    public void setSupportsOAuth(boolean supportsOAuth) { this.supportsOAuth = supportsOAuth; }
+
+    public Boolean getSupportsAuthToken() { return supportsAuthToken; }
+    public void setSupportsAuthToken(boolean supportsAuthToken) { this.supportsAuthToken = supportsAuthToken; }
+
+    public boolean hasCredentialTypes() { return credentialTypes != null; }
+    public int getMachineCredentialType() { return credentialTypes[0]; }
+    public int getVaultCredentialType() { return credentialTypes[1]; }
+    public void setCredentialTypes(int machineCredentialType, int vaultCredentialType) {
+        this.credentialTypes = new int[] { machineCredentialType, vaultCredentialType };
+    }
+}
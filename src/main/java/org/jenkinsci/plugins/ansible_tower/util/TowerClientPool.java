@@ -0,0 +1,172 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This class owns the long lived, pooled http clients we use to talk to Tower.
+    There is one client per Tower installation (and cert trust setting) so that every build talking to the same
+    Tower reuses the same keep-alive connections instead of doing a new TCP and TLS handshake for every call.
+    If the CA file of an installation changes TowerSSLContexts hands out a new socket factory, the pool built with the
+    old one is retired and a new one takes its place.
+ */
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpResponse;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.jenkinsci.plugins.ansible_tower.exceptions.AnsibleTowerException;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+public class TowerClientPool {
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+    public static final int DEFAULT_IDLE_TIMEOUT = 30;
+
+    private static final ConcurrentHashMap<String, TowerClientPool> pools = new ConcurrentHashMap<String, TowerClientPool>();
+    private static volatile int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private static volatile int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private static ScheduledExecutorService evictor = null;
+
+    private final SSLConnectionSocketFactory socketFactory;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+
+    private TowerClientPool(SSLConnectionSocketFactory socketFactory) {
+        this.socketFactory = socketFactory;
+        Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", socketFactory)
+                .build();
+
+        this.connectionManager = new PoolingHttpClientConnectionManager(registry);
+        this.setLimits(maxConnectionsPerRoute);
+
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(this.connectionManager)
+                .setKeepAliveStrategy(new IdleAwareKeepAliveStrategy())
+                .useSystemProperties()
+                .build();
+    }
+
+    public static CloseableHttpClient getHttpClient(String towerURL, boolean trustAllCerts) throws AnsibleTowerException {
+        return getHttpClient(towerURL, trustAllCerts, null);
+    }
+
+    public static CloseableHttpClient getHttpClient(String towerURL, boolean trustAllCerts, String caCertificateFile) throws AnsibleTowerException {
+        String key = TowerSSLContexts.getKey(towerURL, trustAllCerts, caCertificateFile);
+        // Only a CA file can change under us, the system and trusting factories are good for the life of the pool
+        boolean usesCAFile = !trustAllCerts && caCertificateFile != null && !caCertificateFile.isEmpty();
+        SSLConnectionSocketFactory socketFactory = usesCAFile ? TowerSSLContexts.getSocketFactory(towerURL, trustAllCerts, caCertificateFile) : null;
+        TowerClientPool pool = pools.get(key);
+        if(pool == null || (usesCAFile && pool.socketFactory != socketFactory)) {
+            synchronized(pools) {
+                pool = pools.get(key);
+                if(pool == null || (usesCAFile && pool.socketFactory != socketFactory)) {
+                    if(pool != null) { pool.retire(); }
+                    if(socketFactory == null) {
+                        socketFactory = TowerSSLContexts.getSocketFactory(towerURL, trustAllCerts, caCertificateFile);
+                    }
+                    pool = new TowerClientPool(socketFactory);
+                    pools.put(key, pool);
+                    startEvictor();
+                }
+            }
+        }
+        return pool.httpClient;
+    }
+
+    /*
+        Requests already running on a replaced pool finish on it, its idle connections (made with the old certificates)
+        are closed now and the connection manager closes the rest when it is garbage collected.
+     */
+    private void retire() {
+        this.connectionManager.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+    }
+
+    // Called by the global config whenever it is loaded or saved
+    public static void configure(int newMaxConnectionsPerRoute, int newIdleTimeout) {
+        maxConnectionsPerRoute = Math.max(newMaxConnectionsPerRoute, 1);
+        idleTimeout = Math.max(newIdleTimeout, 1);
+        for(TowerClientPool pool : pools.values()) {
+            pool.setLimits(maxConnectionsPerRoute);
+        }
+    }
+
+    // Called when Jenkins is shutting down
+    public static void shutdown() {
+        synchronized(pools) {
+            if(evictor != null) {
+                evictor.shutdownNow();
+                evictor = null;
+            }
+            for(TowerClientPool pool : pools.values()) {
+                try {
+                    pool.httpClient.close();
+                } catch(IOException ioe) {
+                    TowerLogger.writeMessage("Failed to close connection pool: "+ ioe.getMessage());
+                }
+            }
+            pools.clear();
+            TowerSSLContexts.clear();
+        }
+    }
+
+    private void setLimits(int perRoute) {
+        // We only ever talk to one host per pool so the total can match the route
+        this.connectionManager.setDefaultMaxPerRoute(perRoute);
+        this.connectionManager.setMaxTotal(perRoute);
+    }
+
+    private static void startEvictor() {
+        if(evictor != null) { return; }
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Ansible Tower connection evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                for(TowerClientPool pool : pools.values()) {
+                    pool.connectionManager.closeExpiredConnections();
+                    pool.connectionManager.closeIdleConnections(idleTimeout, TimeUnit.SECONDS);
+                }
+            }
+        }, 5, 5, TimeUnit.SECONDS);
+    }
+
+    /*
+        Honor the Keep-Alive header if Tower sends one, otherwise keep the connection until our idle timeout.
+     */
+    private static class IdleAwareKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while(it.hasNext()) {
+                HeaderElement he = it.nextElement();
+                if(he.getValue() != null && he.getName().equalsIgnoreCase("timeout")) {
+                    try {
+                        return Long.parseLong(he.getValue()) * 1000;
+                    } catch(NumberFormatException nfe) {
+                        // Fall through to our own timeout
+                    }
+                }
+            }
+            return idleTimeout * 1000L;
+        }
+    }
+}
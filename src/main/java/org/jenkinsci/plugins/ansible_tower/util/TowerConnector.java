@@ -17,26 +17,20 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
-import java.security.KeyStore;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 
 import net.sf.json.JSONObject;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.HttpVersion;
-import org.apache.http.conn.ClientConnectionManager;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.client.HttpClient;
+import org.apache.http.entity.BufferedHttpEntity;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
 
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.params.HttpProtocolParams;
-import org.apache.http.protocol.HTTP;
 import org.apache.http.util.EntityUtils;
 import org.jenkinsci.plugins.ansible_tower.exceptions.AnsibleTowerItemDoesNotExist;
 
@@ -48,25 +42,64 @@ public class TowerConnector implements Serializable {
     public static final String JOB_TEMPLATE_TYPE = "job";
     public static final String WORKFLOW_TEMPLATE_TYPE = "workflow";
     public static final String SLICE_TEMPLATE_TYPE = "slice";
-    private static final String ARTIFACTS = "artifacts";
+    public static final String REST_LOG_TRANSPORT = "rest";
+    public static final String WEBSOCKET_LOG_TRANSPORT = "websocket";
+    public static final String STDOUT_LOG_TRANSPORT = "stdout";
+    // Lines asked for per read of a job's stdout
+    private static final int STDOUT_LINES_PER_READ = 1000;
+    // The start of what Tower sends instead of stdout that is bigger than its STDOUT_MAX_BYTES_DISPLAY
+    private static final String STDOUT_TOO_LARGE = "Standard Output too large to display";
+    // Log levels that only import some of a job's events, Tower does the filtering
+    public static final String FAILURES_LOG_LEVEL = "failures";
+    public static final String CHANGED_LOG_LEVEL = "changed";
+    public static final String HEADERS_LOG_LEVEL = "headers";
+    private static final String FAILED_EVENTS = "runner_on_failed,runner_item_on_failed,runner_on_async_failed,runner_on_unreachable";
+    private static final int WEBSOCKET_TIMEOUT = 10000;
+    private static final int UNIFIED_JOBS_PAGE_SIZE = 200;
+    // Tower's MAX_PAGE_SIZE, it quietly caps anything bigger
+    public static final int MAX_EVENT_PAGE_SIZE = 200;
     private static String API_VERSION = "v2";
+    // Mixed into the digest of our credentials so it only means something in this JVM
+    private static final String IDENTITY_SALT = UUID.randomUUID().toString();
 
     private String authorizationHeader = null;
     private String oauthToken = null;
-    private String oAuthTokenID = null;
+    // Saved along with us so the reference is still released if we are loaded back in (see readObject)
+    private TowerTokenLeaseManager.Lease tokenLease = null;
+    private String credentialsId = null;
     private String url = null;
     private String username = null;
     private String password = null;
     private TowerVersion towerVersion = null;
     private boolean trustAllCerts = true;
+    private String caCertificateFile = null;
     private boolean importChildWorkflowLogs = false;
     private TowerLogger logger = new TowerLogger();
+    private transient TowerRateLimiter rateLimiter = null;
     private HashMap<Integer, Integer> logIdForWorkflows = new HashMap<Integer, Integer>();
     private HashMap<Integer, Integer> logIdForJobs = new HashMap<Integer, Integer>();
+    // The counters logged for each job that has streamed its events, REST reads skip what the socket logged (see logJobEvents)
+    private HashMap<Integer, TowerLoggedCounters> loggedCountersForJobs = new HashMap<Integer, TowerLoggedCounters>();
+    // Lines of stdout we have logged for each job, -1 once a job has gone back to reading events
+    private HashMap<Integer, Integer> stdoutLineForJobs = new HashMap<Integer, Integer>();
 
     private boolean removeColor = true;
     private boolean getFullLogs = false;
+    private boolean lastEventPageFull = false;
+    // Ceiling in seconds for how far the job monitor backs off polling this Tower, 0 uses the global setting
+    private int maxPollInterval = 0;
+    // Events per page when reading job events, 0 leaves it to Tower
+    private int eventPageSize = 0;
+    // How the events of running jobs are read, see logStreamedJobEvents
+    private String logTransport = REST_LOG_TRANSPORT;
+    // Added to the job_events query to only get some of the events, null for all of them
+    private String eventFilter = null;
+    private transient Map<Integer, TowerEventStream> eventStreams = null;
+    // Jobs whose websocket failed, they stay on REST
+    private transient Set<Integer> restOnlyJobs = null;
     private HashMap<String, String> jenkinsExports = new HashMap<String, String>();
+    // Only used from whoever is reading the logs, it keeps a buffer between lines
+    private transient TowerLineProcessor lineProcessor = null;
 
     public TowerConnector(String url, String username, String password) { this(url, username, password, null, false, false); }
 
@@ -81,18 +114,15 @@ public class TowerConnector implements Serializable {
         this.oauthToken = oauthToken;
         this.trustAllCerts = trustAllCerts;
         this.setDebug(debug);
-        try {
-            this.getVersion();
-            logger.logMessage("Connecting to Tower version: "+ this.towerVersion.getVersion());
-        } catch(AnsibleTowerException ate) {
-            logger.logMessage("Failed to get connection to get version; auth errors may ensue "+ ate);
-        }
+        // The version and auth probes are cached per installation and loaded on first use (see getCapabilities)
         logger.logMessage("Created a connector with "+ username +"@"+ url);
     }
 
     public void setTrustAllCerts(boolean trustAllCerts) {
         this.trustAllCerts = trustAllCerts;
     }
+    public void setCACertificateFile(String caCertificateFile) { this.caCertificateFile = caCertificateFile; }
+    public void setCredentialsId(String credentialsId) { this.credentialsId = credentialsId; }
     public void setDebug(boolean debug) {
         logger.setDebugging(debug);
     }
@@ -100,8 +130,34 @@ public class TowerConnector implements Serializable {
     public void setGetWorkflowChildLogs(boolean importChildWorkflowLogs) { this.importChildWorkflowLogs = importChildWorkflowLogs; }
     public void setGetFullLogs(boolean getFullLogs) { this.getFullLogs = getFullLogs; }
     public HashMap<String, String> getJenkinsExports() { return jenkinsExports; }
+    public void addJenkinsExports(Map<String, String> exports) { jenkinsExports.putAll(exports); }
 
-    private DefaultHttpClient getHttpClient() throws AnsibleTowerException {
+    /*
+        How far we have read the events of each job (and the nodes of each workflow), these are what lets a step pick
+        up the logs where it left off after a restart.
+     */
+    public Map<Integer, Integer> getJobEventCursors() { return new HashMap<Integer, Integer>(logIdForJobs); }
+    public Map<Integer, Integer> getWorkflowEventCursors() { return new HashMap<Integer, Integer>(logIdForWorkflows); }
+    public Map<Integer, Integer> getStdoutCursors() { return new HashMap<Integer, Integer>(stdoutLineForJobs()); }
+    public void restoreStdoutCursors(Map<Integer, Integer> stdoutCursors) { stdoutLineForJobs().putAll(stdoutCursors); }
+    public Map<Integer, Integer> getCounterCursors() {
+        Map<Integer, Integer> counterCursors = new HashMap<Integer, Integer>();
+        for(Map.Entry<Integer, TowerLoggedCounters> entry : loggedCountersForJobs().entrySet()) {
+            counterCursors.put(entry.getKey(), entry.getValue().getThrough());
+        }
+        return counterCursors;
+    }
+    public void restoreCounterCursors(Map<Integer, Integer> counterCursors) {
+        for(Map.Entry<Integer, Integer> entry : counterCursors.entrySet()) {
+            loggedCountersForJobs().put(entry.getKey(), new TowerLoggedCounters(entry.getValue()));
+        }
+    }
+    public void restoreEventCursors(Map<Integer, Integer> jobCursors, Map<Integer, Integer> workflowCursors) {
+        logIdForJobs.putAll(jobCursors);
+        logIdForWorkflows.putAll(workflowCursors);
+    }
+
+    private HttpClient getHttpClient() throws AnsibleTowerException {
         URI myURI = null;
         try {
             myURI = new URI(url);
@@ -109,31 +165,28 @@ public class TowerConnector implements Serializable {
             throw new AnsibleTowerException("Unable to prase base url: "+ urise);
         }
 
-        if(trustAllCerts && myURI.getScheme().equalsIgnoreCase("https")) {
-            logger.logMessage("Forcing cert trust");
-            TrustingSSLSocketFactory sf;
+        boolean forceTrust = trustAllCerts && myURI.getScheme().equalsIgnoreCase("https");
+        if(forceTrust) { logger.logMessage("Forcing cert trust"); }
+        String caFile = myURI.getScheme().equalsIgnoreCase("https") ? caCertificateFile : null;
+        return TowerClientPool.getHttpClient(url, forceTrust, caFile);
+    }
+
+    /*
+        Read the whole body off of the wire so the pooled connection is handed back right away,
+        no matter which path (including exceptions) the caller takes with the response.
+     */
+    private HttpResponse bufferResponse(HttpResponse response) throws AnsibleTowerException {
+        HttpEntity entity = response.getEntity();
+        if(entity != null) {
             try {
-                KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
-                trustStore.load(null, null);
-                sf = new TrustingSSLSocketFactory(trustStore);
-            } catch(Exception e) {
-                throw new AnsibleTowerException("Unable to create trusting SSL socket factory");
+                response.setEntity(new BufferedHttpEntity(entity));
+            } catch(IOException ioe) {
+                throw new AnsibleTowerException("Unable to read tower response: "+ ioe.getMessage());
+            } finally {
+                EntityUtils.consumeQuietly(entity);
             }
-            sf.setHostnameVerifier(SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
-
-            HttpParams params = new BasicHttpParams();
-            HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
-            HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
-
-            SchemeRegistry registry = new SchemeRegistry();
-            registry.register(new Scheme("https", sf, 443));
-
-            ClientConnectionManager ccm = new ThreadSafeClientConnManager(params, registry);
-
-            return new DefaultHttpClient(ccm, params);
-        } else {
-            return new DefaultHttpClient();
         }
+        return response;
     }
 
     private String buildEndpoint(String endpoint) {
@@ -154,6 +207,112 @@ public class TowerConnector implements Serializable {
     }
 
     public HttpResponse makeRequest(int requestType, String endpoint, JSONObject body, boolean noAuth) throws AnsibleTowerException, AnsibleTowerItemDoesNotExist {
+        return makeRequest(requestType, endpoint, body, noAuth, true, true);
+    }
+
+    /*
+        GETs endpoint without reading the body into memory first, for pages we go through once with TowerEventPage.
+        The caller has to read or close the body of a 200 to hand the connection back, any other response has
+        already been read like makeRequest does.
+     */
+    public HttpResponse makeStreamingRequest(String endpoint) throws AnsibleTowerException, AnsibleTowerItemDoesNotExist {
+        return makeRequest(GET, endpoint, null, false, true, false);
+    }
+
+    /*
+        Works out how we authenticate to Tower the first time it is needed.
+        This is synchronized so concurrent lookups from one connector (see TowerLaunchPreparation) don't each go and
+        lease a token.
+     */
+    private synchronized String getAuthorizationHeader() throws AnsibleTowerException {
+        if(this.authorizationHeader == null) {
+            // We dont' have an authorization header yet so we need to construct one
+            logger.logMessage("Determining authorization headers");
+
+            if(this.oauthToken != null) {
+                // First if we have an oauthToken we can just use it
+                logger.logMessage("Adding oauth bearer token from Jenkins");
+                this.authorizationHeader = "Bearer "+ this.oauthToken;
+            } else if(this.username != null && this.password != null) {
+                // Second, if we have a username and a password we can try to go get a token
+
+                // For trying to get a token, we will first attempt to self create an oAuthToken if Tower supports it
+                if (this.supportsOAuth()) {
+                    logger.logMessage("Getting an oAuth token for "+ this.username);
+                    try {
+                        this.authorizationHeader = "Bearer " + this.leaseOAuthToken();
+                    } catch(AnsibleTowerException ate) {
+                        logger.logMessage("Unable to get oAuth Toekn: "+ ate.getMessage());
+                    }
+                }
+
+                // Second, we will try to get a legacy authtoken if Tower supports if
+                if(this.authorizationHeader == null && this.supportsAuthToken()) {
+                    logger.logMessage("Getting a legacy token for " + this.username);
+                    try {
+                        this.authorizationHeader = "Token " + this.getAuthToken();
+                    } catch (AnsibleTowerException ate) {
+                        logger.logMessage("Unable to get legacuy token: " + ate.getMessage());
+                    }
+                }
+
+                // Finally, we will revert to basic auth.
+                // There could be a case where someone allows basic auth to the API and
+                // Refuses oAuth token creation for LDAO based users.
+                // This would allow for that conditio
+                /* To test this scenario I created an AWX devel install and added this line:
+                    ----------------------------------------------------------------
+                    diff --git a/awx/main/models/oauth.py b/awx/main/models/oauth.py
+                    index 51bb9be0e..b2b9d80aa 100644
+                            --- a/awx/main/models/oauth.py
+                            +++ b/awx/main/models/oauth.py
+                    @@ -135,6 +135,7 @@ class OAuth2AccessToken(AbstractAccessToken):
+                    return valid
+
+                    def validate_external_users(self):
+                    +        raise oauth2.AccessDeniedError('OAuth2 Tokens cannot be created')
+                    if self.user and settings.ALLOW_OAUTH2_FOR_EXTERNAL_USERS is False:
+                    external_account = get_external_account(self.user)
+                    if external_account is not None:
+                    ----------------------------------------------------------------
+                    This made it impossible for any user to get an oAuth toekn
+                    simulating what would happen to a user if they were an LDAP source and the option to
+                    disable tokens for LDAP users were turned on.
+                */
+
+                if (this.authorizationHeader == null) {
+                    logger.logMessage("Tower does not support authtoken or oauth, reverting to basic auth");
+                    this.authorizationHeader = this.getBasicAuthString();
+                }
+            } else {
+                throw new AnsibleTowerException("Auth is required for this call but no auth info exists");
+            }
+
+        }
+
+        if(this.authorizationHeader == null) {
+            throw new AnsibleTowerException("We should have gotten an authorization header but did not");
+        }
+        return this.authorizationHeader;
+    }
+
+    // Settle the authorization up front, before anything makes requests from more than one thread
+    public void authenticate() throws AnsibleTowerException {
+        this.getAuthorizationHeader();
+    }
+
+    // A shared token may have been revoked or expired under us, forget it so the next request gets a fresh one
+    private synchronized void resetAuthorization(String rejectedHeader) {
+        if(rejectedHeader == null || !rejectedHeader.equals(this.authorizationHeader)) { return; }
+        if(this.tokenLease != null) {
+            TowerTokenLeaseManager.invalidate(this.tokenLease);
+            TowerTokenLeaseManager.release(this.tokenLease);
+            this.tokenLease = null;
+        }
+        this.authorizationHeader = null;
+    }
+
+    private HttpResponse makeRequest(int requestType, String endpoint, JSONObject body, boolean noAuth, boolean retryUnauthorized, boolean buffer) throws AnsibleTowerException, AnsibleTowerItemDoesNotExist {
         // Parse the URL
         URI myURI;
         try {
@@ -190,93 +349,36 @@ public class TowerConnector implements Serializable {
 
         // If we haven't determined auth yet we need to go get it
         if(!noAuth) {
-            if(this.authorizationHeader == null) {
-                // We dont' have an authorization header yet so we need to construct one
-                logger.logMessage("Determining authorization headers");
-
-                if(this.oauthToken != null) {
-                    // First if we have an oauthToken we can just use it
-                    logger.logMessage("Adding oauth bearer token from Jenkins");
-                    this.authorizationHeader = "Bearer "+ this.oauthToken;
-                } else if(this.username != null && this.password != null) {
-                    // Second, if we have a username and a password we can try to go get a token
-
-                    // For trying to get a token, we will first attempt to self create an oAuthToken if Tower supports it
-                    if (this.towerSupports("/api/o/")) {
-                        logger.logMessage("Getting an oAuth token for "+ this.username);
-                        try {
-                            this.authorizationHeader = "Bearer " + this.getOAuthToken();
-                        } catch(AnsibleTowerException ate) {
-                            logger.logMessage("Unable to get oAuth Toekn: "+ ate.getMessage());
-                        }
-                    }
-
-                    // Second, we will try to get a legacy authtoken if Tower supports if
-                    if(this.authorizationHeader == null && this.towerSupports("/api/v2/authtoken")) {
-                        logger.logMessage("Getting a legacy token for " + this.username);
-                        try {
-                            this.authorizationHeader = "Token " + this.getAuthToken();
-                        } catch (AnsibleTowerException ate) {
-                            logger.logMessage("Unable to get legacuy token: " + ate.getMessage());
-                        }
-                    }
-
-                    // Finally, we will revert to basic auth.
-                    // There could be a case where someone allows basic auth to the API and
-                    // Refuses oAuth token creation for LDAO based users.
-                    // This would allow for that conditio
-                    /* To test this scenario I created an AWX devel install and added this line:
-                        ----------------------------------------------------------------
-                        diff --git a/awx/main/models/oauth.py b/awx/main/models/oauth.py
-                        index 51bb9be0e..b2b9d80aa 100644
-                                --- a/awx/main/models/oauth.py
-                                +++ b/awx/main/models/oauth.py
-                        @@ -135,6 +135,7 @@ class OAuth2AccessToken(AbstractAccessToken):
-                        return valid
-
-                        def validate_external_users(self):
-                        +        raise oauth2.AccessDeniedError('OAuth2 Tokens cannot be created')
-                        if self.user and settings.ALLOW_OAUTH2_FOR_EXTERNAL_USERS is False:
-                        external_account = get_external_account(self.user)
-                        if external_account is not None:
-                        ----------------------------------------------------------------
-                        This made it impossible for any user to get an oAuth toekn
-                        simulating what would happen to a user if they were an LDAP source and the option to
-                        disable tokens for LDAP users were turned on.
-                    */
-
-                    if (this.authorizationHeader == null) {
-                        logger.logMessage("Tower does not support authtoken or oauth, reverting to basic auth");
-                        this.authorizationHeader = this.getBasicAuthString();
-                    }
-                } else {
-                    throw new AnsibleTowerException("Auth is required for this call but no auth info exists");
-                }
-
-            }
-
-            if(this.authorizationHeader == null) {
-                throw new AnsibleTowerException("We should have gotten an authorization header but did not");
-            }
-            request.setHeader(HttpHeaders.AUTHORIZATION, this.authorizationHeader);
+            request.setHeader(HttpHeaders.AUTHORIZATION, this.getAuthorizationHeader());
         }
 
         // Dump the request
         // logger.logMessage(this.dumpRequest(request));
 
-        DefaultHttpClient httpClient = getHttpClient();
+        HttpClient httpClient = getHttpClient();
         HttpResponse response;
+        throttle();
         try {
-            Thread.sleep(5000);
             response = httpClient.execute(request);
+            if(buffer || response.getStatusLine().getStatusCode() != 200) { response = bufferResponse(response); }
+        } catch(AnsibleTowerException ate) {
+            throw ate;
         } catch(Exception e) {
             throw new AnsibleTowerException("Unable to make tower request: "+ e.getMessage());
         }
+        recordThrottling(response);
 
         logger.logMessage("Request completed with ("+ response.getStatusLine().getStatusCode() +")");
         if(response.getStatusLine().getStatusCode() == 404) {
             throw new AnsibleTowerItemDoesNotExist("The item does not exist");
         } else if(response.getStatusLine().getStatusCode() == 401) {
+            // A shared token may have been revoked or expired under us, get a fresh one and try one more time
+            if(!noAuth && retryUnauthorized && this.username != null && this.password != null) {
+                logger.logMessage("Tower rejected our authorization, retrying with new credentials");
+                Header rejectedHeader = request.getFirstHeader(HttpHeaders.AUTHORIZATION);
+                this.resetAuthorization(rejectedHeader == null ? null : rejectedHeader.getValue());
+                return makeRequest(requestType, endpoint, body, noAuth, false, buffer);
+            }
             throw new AnsibleTowerException("Username/password invalid");
         } else if(response.getStatusLine().getStatusCode() == 403) {
             String exceptionText = "Request was forbidden";
@@ -300,6 +402,26 @@ public class TowerConnector implements Serializable {
     }
 
 
+    private void throttle() throws AnsibleTowerException {
+        if(this.rateLimiter == null) { this.rateLimiter = TowerRateLimiter.forInstallation(this.url); }
+        try {
+            this.rateLimiter.acquire();
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new AnsibleTowerException("Interrupted while waiting to make tower request");
+        }
+    }
+
+    private void recordThrottling(HttpResponse response) {
+        int statusCode = response.getStatusLine().getStatusCode();
+        if(statusCode == 429 || statusCode == 503) {
+            logger.logMessage("Tower is throttling us ("+ statusCode +"), slowing down requests");
+            this.rateLimiter.throttled();
+        } else {
+            this.rateLimiter.succeeded();
+        }
+    }
+
     private String dumpRequest(HttpUriRequest theRequest) {
         StringBuilder sb = new StringBuilder();
 
@@ -327,10 +449,13 @@ public class TowerConnector implements Serializable {
 
         logger.logMessage("Checking if Tower can: "+ myURI.toString());
 
-        DefaultHttpClient httpClient = getHttpClient();
+        HttpClient httpClient = getHttpClient();
         HttpResponse response;
+        throttle();
         try {
-            response = httpClient.execute(new HttpHead(myURI));
+            response = bufferResponse(httpClient.execute(new HttpHead(myURI)));
+        } catch(AnsibleTowerException ate) {
+            throw ate;
         } catch(Exception e) {
             throw new AnsibleTowerException("Unable to make Tower HEAD request for "+ end_point +": "+ e.getMessage());
         }
@@ -345,7 +470,64 @@ public class TowerConnector implements Serializable {
         }
     }
 
+    private TowerCapabilities getCapabilities() {
+        TowerCapabilities capabilities = TowerCapabilities.getCached(url);
+        if(capabilities != null) { return capabilities; }
+
+        // Only one connector per installation needs to go probe Tower
+        synchronized(TowerCapabilities.getLock(url)) {
+            capabilities = TowerCapabilities.getCached(url);
+            if(capabilities == null) {
+                try {
+                    this.getVersion();
+                    capabilities = TowerCapabilities.getCached(url);
+                } catch(AnsibleTowerException ate) {
+                    logger.logMessage("Failed to get connection to get version; auth errors may ensue "+ ate);
+                }
+            }
+            if(capabilities == null) {
+                // We don't cache this so the next caller tries again
+                capabilities = new TowerCapabilities(null);
+            }
+        }
+        return capabilities;
+    }
+
+    private boolean supportsOAuth() throws AnsibleTowerException {
+        TowerCapabilities capabilities = getCapabilities();
+        if(capabilities.getSupportsOAuth() == null) { capabilities.setSupportsOAuth(this.towerSupports("/api/o/")); }
+        return capabilities.getSupportsOAuth();
+    }
+
+    private boolean supportsAuthToken() throws AnsibleTowerException {
+        TowerCapabilities capabilities = getCapabilities();
+        if(capabilities.getSupportsAuthToken() == null) { capabilities.setSupportsAuthToken(this.towerSupports("/api/v2/authtoken")); }
+        return capabilities.getSupportsAuthToken();
+    }
+
     public String getURL() { return url; }
+
+    public int getMaxPollInterval() { return maxPollInterval; }
+    public void setMaxPollInterval(int maxPollInterval) { this.maxPollInterval = maxPollInterval; }
+    public int getEventPageSize() { return eventPageSize; }
+    public void setEventPageSize(int eventPageSize) {
+        this.eventPageSize = Math.max(0, Math.min(eventPageSize, MAX_EVENT_PAGE_SIZE));
+    }
+    public void setEventFilter(String eventFilter) { this.eventFilter = eventFilter; }
+    public String getEventFilter() { return eventFilter; }
+    public String getLogTransport() { return logTransport; }
+    public void setLogTransport(String logTransport) {
+        if(WEBSOCKET_LOG_TRANSPORT.equalsIgnoreCase(logTransport)) {
+            this.logTransport = WEBSOCKET_LOG_TRANSPORT;
+        } else if(STDOUT_LOG_TRANSPORT.equalsIgnoreCase(logTransport)) {
+            this.logTransport = STDOUT_LOG_TRANSPORT;
+        } else {
+            this.logTransport = REST_LOG_TRANSPORT;
+        }
+    }
+
+    // True if the last time we pulled job events Tower had more than a page of them for us
+    public boolean getLastEventPageFull() { return lastEventPageFull; }
     public void getVersion() throws AnsibleTowerException {
         // The version is housed on the poing page which is openly accessable
         HttpResponse response = makeRequest(GET, "ping/", null, true);
@@ -366,14 +548,16 @@ public class TowerConnector implements Serializable {
         if (responseObject.containsKey("version")) {
             logger.logMessage("Successfully got version "+ responseObject.getString("version"));
             this.towerVersion = new TowerVersion(responseObject.getString("version"));
+            TowerCapabilities.cache(url, new TowerCapabilities(this.towerVersion));
+            logger.logMessage("Connecting to Tower version: "+ this.towerVersion.getVersion());
         }
     }
 
     public void testConnection() throws AnsibleTowerException {
         if(url == null) { throw new AnsibleTowerException("The URL is undefined"); }
 
-        // We will run an unauthenticated test by the constructor calling the ping page so we can jump
-        // straight into calling an authentication test
+        // We will run an unauthenticated test by calling the ping page, this also refreshes the cached capabilities
+        this.getVersion();
 
         // This will run an authentication test
         logger.logMessage("Testing authentication");
@@ -391,6 +575,52 @@ public class TowerConnector implements Serializable {
     }
 
     public JSONObject rawLookupByString(String idToCheck, String api_endpoint) throws AnsibleTowerException, AnsibleTowerItemDoesNotExist {
+        TowerLookupCache cache = getLookupCache();
+        TowerLookupCache.Entry cached = cache.get(api_endpoint, idToCheck);
+        if(cached != null) {
+            logger.logMessage("Using cached lookup of "+ idToCheck +" in "+ api_endpoint);
+            if(!cached.isMissing()) { return cached.getItem(); }
+            if(cached.getDoesNotExist()) { throw new AnsibleTowerItemDoesNotExist(cached.getMissingMessage()); }
+            throw new AnsibleTowerException(cached.getMissingMessage());
+        }
+
+        JSONObject foundItem;
+        try {
+            foundItem = lookupInTower(idToCheck, api_endpoint);
+        } catch(AnsibleTowerItemDoesNotExist atidne) {
+            cache.putMissing(api_endpoint, idToCheck, atidne.getMessage(), true);
+            throw atidne;
+        } catch(AnsibleTowerLookupFailed atlf) {
+            cache.putMissing(api_endpoint, idToCheck, atlf.getMessage(), false);
+            throw new AnsibleTowerException(atlf.getMessage());
+        }
+        cache.put(api_endpoint, idToCheck, foundItem);
+        cache.put(api_endpoint, foundItem.getString("id"), foundItem);
+        return foundItem;
+    }
+
+    // Tower says an item we may have looked up (and cached) does not exist anymore
+    public void invalidateLookup(String api_endpoint, String id) {
+        getLookupCache().invalidate(api_endpoint, id);
+    }
+
+    private TowerLookupCache getLookupCache() {
+        return TowerLookupCache.forLogin(getIdentityKey());
+    }
+
+    // Connectors with the same key talk to the same Tower as the same user, the job monitor polls them together
+    public String getConnectionKey() {
+        return getIdentityKey();
+    }
+
+    /*
+        A lookup that completed but didn't give us exactly one item, these are cached just like a missing item
+     */
+    private static class AnsibleTowerLookupFailed extends AnsibleTowerException {
+        AnsibleTowerLookupFailed(String message) { super(message); }
+    }
+
+    private JSONObject lookupInTower(String idToCheck, String api_endpoint) throws AnsibleTowerException, AnsibleTowerItemDoesNotExist {
         try {
             Integer.parseInt(idToCheck);
             // We got an ID so lets see if we can load that item
@@ -429,9 +659,9 @@ public class TowerConnector implements Serializable {
             // Loop over the results, if one of the items has the name copy its ID
             // If there are more than one job with the same name, fail
             if(responseObject.getInt("count") == 0) {
-                throw new AnsibleTowerException("Unable to get any results when looking up "+ idToCheck);
+                throw new AnsibleTowerLookupFailed("Unable to get any results when looking up "+ idToCheck);
             } else if(responseObject.getInt("count") > 1) {
-                throw new AnsibleTowerException("The item "+ idToCheck +" is not unique");
+                throw new AnsibleTowerLookupFailed("The item "+ idToCheck +" is not unique");
             } else {
                 JSONObject foundItem = (JSONObject) responseObject.getJSONArray("results").get(0);
                 return foundItem;
@@ -450,68 +680,43 @@ public class TowerConnector implements Serializable {
             apiEndPoint = "/workflow_job_templates/";
         }
 
+        // The lookup already gives us the whole template (by ID or from the ?name= list) so there is no need to load it again
         try {
-            jobTemplate = convertPotentialStringToID(jobTemplate, apiEndPoint);
+            return rawLookupByString(jobTemplate, apiEndPoint);
         } catch(AnsibleTowerItemDoesNotExist atidne) {
             String ucTemplateType = templateType.replaceFirst(templateType.substring(0,1), templateType.substring(0,1).toUpperCase());
             throw new AnsibleTowerException(ucTemplateType +" template does not exist in tower");
         } catch(AnsibleTowerException ate) {
             throw new AnsibleTowerException("Unable to find "+ templateType +" template: "+ ate.getMessage());
         }
-
-        // Now get the job template so we can check the options being passed in
-        HttpResponse response = makeRequest(GET, apiEndPoint + jobTemplate + "/");
-        if (response.getStatusLine().getStatusCode() != 200) {
-            throw new AnsibleTowerException("Unexpected error code returned when getting template (" + response.getStatusLine().getStatusCode() + ")");
-        }
-        String json;
-        try {
-            json = EntityUtils.toString(response.getEntity());
-            return JSONObject.fromObject(json);
-        } catch (IOException ioe) {
-            throw new AnsibleTowerException("Unable to read template response and convert it into json: " + ioe.getMessage());
-        }
     }
 
 
-    private void processCredentials(String credential, JSONObject postBody) throws AnsibleTowerException {
-        // Get the machine or vault credential types
-        HttpResponse response = makeRequest(GET,"/credential_types/?or__kind=ssh&or__kind=vault");
-        if(response.getStatusLine().getStatusCode() != 200) {
-            throw new AnsibleTowerException("Unable to lookup the credential types");
-        }
-        JSONObject responseObject;
-        String json;
+    String resolveInventory(String inventory) throws AnsibleTowerException {
         try {
-            json = EntityUtils.toString(response.getEntity());
-            responseObject = JSONObject.fromObject(json);
-        } catch(IOException ioe) {
-            throw new AnsibleTowerException("Unable to read response and convert it into json: "+ ioe.getMessage());
+            return convertPotentialStringToID(inventory, "/inventories/");
+        } catch(AnsibleTowerItemDoesNotExist atidne) {
+            throw new AnsibleTowerException("Inventory "+ inventory +" does not exist in tower");
+        } catch(AnsibleTowerException ate) {
+            throw new AnsibleTowerException("Unable to find inventory: "+ ate.getMessage());
         }
+    }
 
-        if(responseObject.getInt("count") != 2) {
-            throw new AnsibleTowerException("Unable to find both machine and vault credentials type");
-        }
+    JSONObject resolveCredentials(String credential) throws AnsibleTowerException {
+        JSONObject credentialFields = new JSONObject();
+        processCredentials(credential, credentialFields);
+        return credentialFields;
+    }
 
-        int machine_credential_type = -1;
-        int vault_credential_type = -1;
-        JSONArray credentialTypesArray = responseObject.getJSONArray("results");
-        Iterator<JSONObject> listIterator = credentialTypesArray.iterator();
-        while(listIterator.hasNext()) {
-            JSONObject aCredentialType = listIterator.next();
-            if(aCredentialType.getString("kind").equalsIgnoreCase("ssh")) {
-                machine_credential_type = aCredentialType.getInt("id");
-            } else if(aCredentialType.getString("kind").equalsIgnoreCase("vault")) {
-                vault_credential_type = aCredentialType.getInt("id");
-            }
+    private void processCredentials(String credential, JSONObject postBody) throws AnsibleTowerException {
+        // The machine and vault credential types don't change so we only ask once per installation
+        TowerCapabilities capabilities = this.getCapabilities();
+        if(!capabilities.hasCredentialTypes()) {
+            loadCredentialTypes(capabilities);
         }
+        int machine_credential_type = capabilities.getMachineCredentialType();
+        int vault_credential_type = capabilities.getVaultCredentialType();
 
-        if (vault_credential_type == -1) {
-            logger.logMessage("[ERROR]: Unable to find vault credential type");
-        }
-        if (machine_credential_type == -1) {
-            logger.logMessage("[ERROR]: Unable to find machine credential type");
-        }
         /*
             Credential can be a comma delineated list and in 2.3.x can come in three types:
                 Machine credentials
@@ -519,31 +724,27 @@ public class TowerConnector implements Serializable {
                 Extra credentials
                 We are going:
                     Make a hash of the different types
-                    Split the string on , and loop over each item
-                    Find it in Tower and sort it into its type
+                    Find all of the credentials in Tower with one request
+                    Sort each of them into its type (in the order they were given)
          */
         HashMap<String, Vector<Integer>> credentials = new HashMap<String, Vector<Integer>>();
         credentials.put("vault", new Vector<Integer>());
         credentials.put("machine", new Vector<Integer>());
         credentials.put("extra", new Vector<Integer>());
-        for(String credentialString : credential.split(","))  {
-            try {
-                JSONObject jsonCredential = rawLookupByString(credentialString, "/credentials/");
-                String myCredentialType = null;
-                int credentialTypeId = jsonCredential.getInt("credential_type");
-                if (credentialTypeId == machine_credential_type) {
-                    myCredentialType = "machine";
-                } else if (credentialTypeId == vault_credential_type) {
-                    myCredentialType = "vault";
-                } else {
-                    myCredentialType = "extra";
-                }
-                credentials.get(myCredentialType).add(jsonCredential.getInt("id"));
-            } catch(AnsibleTowerItemDoesNotExist ateide) {
-                throw new AnsibleTowerException("Credential "+ credentialString +" does not exist in tower");
-            } catch(AnsibleTowerException ate) {
-                throw new AnsibleTowerException("Unable to find credential "+ credentialString +": "+ ate.getMessage());
+        String[] credentialStrings = credential.split(",");
+        Map<String, JSONObject> foundCredentials = lookupCredentials(credentialStrings);
+        for(String credentialString : credentialStrings)  {
+            JSONObject jsonCredential = foundCredentials.get(credentialString);
+            String myCredentialType = null;
+            int credentialTypeId = jsonCredential.getInt("credential_type");
+            if (credentialTypeId == machine_credential_type) {
+                myCredentialType = "machine";
+            } else if (credentialTypeId == vault_credential_type) {
+                myCredentialType = "vault";
+            } else {
+                myCredentialType = "extra";
             }
+            credentials.get(myCredentialType).add(jsonCredential.getInt("id"));
         }
 
         /*
@@ -559,7 +760,7 @@ public class TowerConnector implements Serializable {
             We will now check if the version of tower is > 3.5.0 or we have multiple credential types
          */
         if(
-                this.towerVersion.is_greater_or_equal("3.5.0") ||
+                this.getCapabilities().supportsCredentialsList() ||
                 (credentials.get("machine").size() > 1 || credentials.get("vault").size() > 1)
         ) {
             // We need to pass as a new field
@@ -581,10 +782,160 @@ public class TowerConnector implements Serializable {
 
     }
 
+    private void loadCredentialTypes(TowerCapabilities capabilities) throws AnsibleTowerException {
+        // Get the machine or vault credential types
+        HttpResponse response = makeRequest(GET,"/credential_types/?or__kind=ssh&or__kind=vault");
+        if(response.getStatusLine().getStatusCode() != 200) {
+            throw new AnsibleTowerException("Unable to lookup the credential types");
+        }
+        JSONObject responseObject;
+        String json;
+        try {
+            json = EntityUtils.toString(response.getEntity());
+            responseObject = JSONObject.fromObject(json);
+        } catch(IOException ioe) {
+            throw new AnsibleTowerException("Unable to read response and convert it into json: "+ ioe.getMessage());
+        }
+
+        if(responseObject.getInt("count") != 2) {
+            throw new AnsibleTowerException("Unable to find both machine and vault credentials type");
+        }
+
+        int machine_credential_type = -1;
+        int vault_credential_type = -1;
+        JSONArray credentialTypesArray = responseObject.getJSONArray("results");
+        Iterator<JSONObject> listIterator = credentialTypesArray.iterator();
+        while(listIterator.hasNext()) {
+            JSONObject aCredentialType = listIterator.next();
+            if(aCredentialType.getString("kind").equalsIgnoreCase("ssh")) {
+                machine_credential_type = aCredentialType.getInt("id");
+            } else if(aCredentialType.getString("kind").equalsIgnoreCase("vault")) {
+                vault_credential_type = aCredentialType.getInt("id");
+            }
+        }
+
+        if (vault_credential_type == -1) {
+            logger.logMessage("[ERROR]: Unable to find vault credential type");
+        }
+        if (machine_credential_type == -1) {
+            logger.logMessage("[ERROR]: Unable to find machine credential type");
+        }
+        capabilities.setCredentialTypes(machine_credential_type, vault_credential_type);
+    }
+
+    /*
+        Resolves each of the given credential names or IDs.
+        Anything we already know about comes out of the lookup cache, everything else is found with a single
+        /credentials/ query filtering on all of the names and IDs at once.
+     */
+    private Map<String, JSONObject> lookupCredentials(String[] credentialStrings) throws AnsibleTowerException {
+        Map<String, JSONObject> found = new HashMap<String, JSONObject>();
+        TowerLookupCache cache = getLookupCache();
+        Set<String> names = new LinkedHashSet<String>();
+        Set<String> ids = new LinkedHashSet<String>();
+        for(String credentialString : credentialStrings) {
+            TowerLookupCache.Entry cached = cache.get("/credentials/", credentialString);
+            if(cached != null && !cached.isMissing()) {
+                found.put(credentialString, cached.getItem());
+            } else if(cached != null) {
+                throw new AnsibleTowerException(credentialLookupError(credentialString, cached.getDoesNotExist(), cached.getMissingMessage()));
+            } else {
+                try {
+                    Integer.parseInt(credentialString);
+                    ids.add(credentialString);
+                } catch(NumberFormatException nfe) {
+                    names.add(credentialString);
+                }
+            }
+        }
+        if(names.isEmpty() && ids.isEmpty()) { return found; }
+
+        StringBuilder query = new StringBuilder("/credentials/?page_size=200");
+        try {
+            if(!names.isEmpty()) { query.append("&or__name__in=").append(URLEncoder.encode(String.join(",", names), "UTF-8")); }
+            if(!ids.isEmpty()) { query.append("&or__id__in=").append(String.join(",", ids)); }
+        } catch(UnsupportedEncodingException e) {
+            throw new AnsibleTowerException("Unable to encode credential names for lookup");
+        }
+
+        Map<String, List<JSONObject>> byName = new HashMap<String, List<JSONObject>>();
+        Map<String, JSONObject> byId = new HashMap<String, JSONObject>();
+        String nextPage = query.toString();
+        while(nextPage != null) {
+            HttpResponse response = makeRequest(GET, nextPage);
+            JSONObject responseObject;
+            try {
+                responseObject = JSONObject.fromObject(EntityUtils.toString(response.getEntity()));
+            } catch (IOException ioe) {
+                throw new AnsibleTowerException("Unable to convert response for credentials into json: " + ioe.getMessage());
+            }
+            if(!responseObject.containsKey("results")) {
+                throw new AnsibleTowerException("Response for credentials does not contain results");
+            }
+            for(Object result : responseObject.getJSONArray("results")) {
+                JSONObject aCredential = (JSONObject) result;
+                byId.put(aCredential.getString("id"), aCredential);
+                if(!byName.containsKey(aCredential.getString("name"))) {
+                    byName.put(aCredential.getString("name"), new ArrayList<JSONObject>());
+                }
+                byName.get(aCredential.getString("name")).add(aCredential);
+            }
+            nextPage = null;
+            if(responseObject.containsKey("next") && !responseObject.getString("next").equalsIgnoreCase("null")) {
+                nextPage = responseObject.getString("next");
+            }
+        }
+
+        for(String id : ids) {
+            JSONObject aCredential = byId.get(id);
+            if(aCredential == null) {
+                cache.putMissing("/credentials/", id, "The item does not exist", true);
+                throw new AnsibleTowerException(credentialLookupError(id, true, null));
+            }
+            cache.put("/credentials/", id, aCredential);
+            found.put(id, aCredential);
+        }
+        for(String name : names) {
+            List<JSONObject> matches = byName.get(name);
+            String error = null;
+            if(matches == null) {
+                error = "Unable to get any results when looking up "+ name;
+            } else if(matches.size() > 1) {
+                error = "The item "+ name +" is not unique";
+            }
+            if(error != null) {
+                cache.putMissing("/credentials/", name, error, false);
+                throw new AnsibleTowerException(credentialLookupError(name, false, error));
+            }
+            JSONObject aCredential = matches.get(0);
+            cache.put("/credentials/", name, aCredential);
+            cache.put("/credentials/", aCredential.getString("id"), aCredential);
+            found.put(name, aCredential);
+        }
+        return found;
+    }
+
+    private String credentialLookupError(String credentialString, boolean doesNotExist, String message) {
+        if(doesNotExist) { return "Credential "+ credentialString +" does not exist in tower"; }
+        return "Unable to find credential "+ credentialString +": "+ message;
+    }
+
 
     public int submitTemplate(int jobTemplate, String extraVars, String limit, String jobTags, String skipJobTags, String jobType, String inventory, String credential, String scmBranch, String templateType) throws AnsibleTowerException {
         checkTemplateType(templateType);
 
+        // The template is already known, this only resolves the inventory and credentials
+        TowerLaunchPreparation preparation = new TowerLaunchPreparation(this, null, templateType, inventory, credential);
+        preparation.resolve();
+        return submitTemplate(jobTemplate, preparation, extraVars, limit, jobTags, skipJobTags, jobType, scmBranch);
+    }
+
+    public int submitTemplate(TowerLaunchPreparation preparation, String extraVars, String limit, String jobTags, String skipJobTags, String jobType, String scmBranch) throws AnsibleTowerException {
+        return submitTemplate(preparation.getTemplate().getInt("id"), preparation, extraVars, limit, jobTags, skipJobTags, jobType, scmBranch);
+    }
+
+    private int submitTemplate(int jobTemplate, TowerLaunchPreparation preparation, String extraVars, String limit, String jobTags, String skipJobTags, String jobType, String scmBranch) throws AnsibleTowerException {
+        String templateType = preparation.getTemplateType();
         String apiEndPoint = "/job_templates/";
         if(templateType.equalsIgnoreCase(WORKFLOW_TEMPLATE_TYPE)) {
             apiEndPoint = "/workflow_job_templates/";
@@ -594,19 +945,10 @@ public class TowerConnector implements Serializable {
         // I decided not to check if these were integers.
         // This way, Tower can throw an error if it needs to
         // And, in the future, if you can reference objects in tower via a tag/name we don't have to undo work here
-        if(inventory != null && !inventory.isEmpty()) {
-            try {
-                inventory = convertPotentialStringToID(inventory, "/inventories/");
-            } catch(AnsibleTowerItemDoesNotExist atidne) {
-                throw new AnsibleTowerException("Inventory "+ inventory +" does not exist in tower");
-            } catch(AnsibleTowerException ate) {
-                throw new AnsibleTowerException("Unable to find inventory: "+ ate.getMessage());
-            }
-            postBody.put("inventory", inventory);
-        }
-        if(credential != null && !credential.isEmpty()) {
-            processCredentials(credential, postBody);
+        if(preparation.getInventoryId() != null) {
+            postBody.put("inventory", preparation.getInventoryId());
         }
+        postBody.putAll(preparation.getCredentialFields());
         if(limit != null && !limit.isEmpty()) {
             postBody.put("limit", limit);
         }
@@ -625,7 +967,14 @@ public class TowerConnector implements Serializable {
         if(scmBranch != null && !scmBranch.isEmpty()) {
             postBody.put("scm_branch", scmBranch);
         }
-        HttpResponse response = makeRequest(POST, apiEndPoint + jobTemplate + "/launch/", postBody);
+        HttpResponse response;
+        try {
+            response = makeRequest(POST, apiEndPoint + jobTemplate + "/launch/", postBody);
+        } catch(AnsibleTowerItemDoesNotExist atidne) {
+            // Our cached lookup pointed at a template that has since been deleted
+            invalidateLookup(apiEndPoint, Integer.toString(jobTemplate));
+            throw new AnsibleTowerException("Template "+ jobTemplate +" does not exist in tower");
+        }
 
         if(response.getStatusLine().getStatusCode() == 201) {
             JSONObject responseObject;
@@ -665,6 +1014,18 @@ public class TowerConnector implements Serializable {
             if(responseObject != null && responseObject.containsKey("extra_vars")) {
                 throw new AnsibleTowerException("Extra vars are bad: "+ responseObject.getString("extra_vars"));
             } else {
+                // An inventory or credential we resolved from the cache may have been deleted
+                if(responseObject != null && responseObject.containsKey("inventory") && postBody.containsKey("inventory")) {
+                    invalidateLookup("/inventories/", postBody.getString("inventory"));
+                }
+                if(json != null && json.contains("does not exist") && postBody.containsKey("credential")) {
+                    invalidateLookup("/credentials/", postBody.getString("credential"));
+                }
+                if(json != null && json.contains("does not exist") && postBody.containsKey("credentials")) {
+                    for(Object credentialId : postBody.getJSONArray("credentials")) {
+                        invalidateLookup("/credentials/", credentialId.toString());
+                    }
+                }
                 throw new AnsibleTowerException("Tower received a bad request (400 response code)\n" + json);
             }
         } else {
@@ -672,6 +1033,21 @@ public class TowerConnector implements Serializable {
         }
     }
 
+    /*
+        The job_events filter for one of the filtered log levels, null for the levels that import everything
+     */
+    public static String getEventFilter(String logLevel) {
+        if(FAILURES_LOG_LEVEL.equalsIgnoreCase(logLevel)) {
+            return "event__in="+ FAILED_EVENTS;
+        } else if(CHANGED_LOG_LEVEL.equalsIgnoreCase(logLevel)) {
+            // Tower marks the task and play of a changed host as changed too, so we get the headers
+            return "changed=true";
+        } else if(HEADERS_LOG_LEVEL.equalsIgnoreCase(logLevel)) {
+            return "event__in=playbook_on_play_start,playbook_on_task_start,playbook_on_stats,"+ FAILED_EVENTS;
+        }
+        return null;
+    }
+
     public void checkTemplateType(String templateType) throws AnsibleTowerException {
         if(templateType.equalsIgnoreCase(JOB_TEMPLATE_TYPE)) { return; }
         if(templateType.equalsIgnoreCase(WORKFLOW_TEMPLATE_TYPE)) { return; }
@@ -679,7 +1055,8 @@ public class TowerConnector implements Serializable {
         throw new AnsibleTowerException("Template type can only be '" + JOB_TEMPLATE_TYPE + "' or '" + WORKFLOW_TEMPLATE_TYPE + "' or '" + SLICE_TEMPLATE_TYPE+"'");
     }
 
-    public boolean isJobCompleted(int jobID, String templateType) throws AnsibleTowerException {
+    // Reads the job once, everything we need to know about it is in the snapshot
+    public TowerJobSnapshot getJobSnapshot(int jobID, String templateType) throws AnsibleTowerException {
         checkTemplateType(templateType);
 
         String apiEndpoint = "/jobs/"+ jobID +"/";
@@ -696,38 +1073,26 @@ public class TowerConnector implements Serializable {
                 throw new AnsibleTowerException("Unable to read response and convert it into json: "+ ioe.getMessage());
             }
 
-            if (responseObject.containsKey("finished")) {
-                String finished = responseObject.getString("finished");
-                if(finished == null || finished.equalsIgnoreCase("null")) {
-                    return false;
-                } else {
-                    // Since we were finished we will now also check for stats
-                    if(responseObject.containsKey(ARTIFACTS)) {
-                        logger.logMessage("Processing artifacts");
-                        JSONObject artifacts = responseObject.getJSONObject(ARTIFACTS);
-                        if(artifacts.containsKey("JENKINS_EXPORT")) {
-                            JSONArray exportVariables = artifacts.getJSONArray("JENKINS_EXPORT");
-                            Iterator<JSONObject> listIterator = exportVariables.iterator();
-                            while(listIterator.hasNext()) {
-                                JSONObject entry = listIterator.next();
-                                Iterator<String> keyIterator = entry.keys();
-                                while(keyIterator.hasNext()) {
-                                    String key = keyIterator.next();
-                                    jenkinsExports.put(key, entry.getString(key));
-                                }
-                            }
-                        }
-                    }
-                    return true;
-                }
+            try {
+                return TowerJobSnapshot.fromJSON(jobID, responseObject);
+            } catch(AnsibleTowerException ate) {
+                logger.logMessage(json);
+                throw new AnsibleTowerException(ate.getMessage() +". Job response can be found in the jenkins.log");
             }
-            logger.logMessage(json);
-            throw new AnsibleTowerException("Did not get a failed status from the request. Job response can be found in the jenkins.log");
         } else {
             throw new AnsibleTowerException("Unexpected error code returned (" + response.getStatusLine().getStatusCode() + ")");
         }
     }
 
+    public boolean isJobCompleted(int jobID, String templateType) throws AnsibleTowerException {
+        TowerJobSnapshot snapshot = getJobSnapshot(jobID, templateType);
+        if(snapshot.isFinished()) {
+            logger.logMessage("Processing artifacts");
+            jenkinsExports.putAll(snapshot.getArtifacts());
+        }
+        return snapshot.isFinished();
+    }
+
     public void cancelJob(int jobID, String templateType) throws AnsibleTowerException {
         checkTemplateType(templateType);
 
@@ -800,23 +1165,49 @@ public class TowerConnector implements Serializable {
     }
 
     public Vector<String> getLogEvents(int jobID, String templateType) throws AnsibleTowerException {
-        Vector<String> events = new Vector<String>();
+        return getLogEvents(jobID, templateType, false);
+    }
+
+    /*
+        finalRead says the job has finished, this is the last time we will be asked for its events
+     */
+    public Vector<String> getLogEvents(int jobID, String templateType, boolean finalRead) throws AnsibleTowerException {
+        TowerLogSink.Collector collector = new TowerLogSink.Collector();
+        streamLogEvents(jobID, templateType, finalRead, collector);
+        return collector.getLines();
+    }
+
+    /*
+        Hands the new output of a job to sink a line at a time as each page of events is read, so the output of a
+        huge job never has to be held in memory.
+     */
+    public void streamLogEvents(int jobID, String templateType, boolean finalRead, TowerLogSink sink) throws AnsibleTowerException {
         checkTemplateType(templateType);
-        if(templateType.equalsIgnoreCase(JOB_TEMPLATE_TYPE)) {
-            events.addAll(logJobEvents(jobID));
-        } else if(templateType.equalsIgnoreCase(WORKFLOW_TEMPLATE_TYPE) || templateType.equalsIgnoreCase(SLICE_TEMPLATE_TYPE)){
-            events.addAll(logWorkflowEvents(jobID, this.importChildWorkflowLogs));
-        } else {
-            throw new AnsibleTowerException("Tower Connector does not know how to log events for a "+ templateType);
+        try {
+            if(templateType.equalsIgnoreCase(JOB_TEMPLATE_TYPE)) {
+                // The websocket sends every event, a filtered read is cheaper over REST
+                if(WEBSOCKET_LOG_TRANSPORT.equals(this.logTransport) && this.eventFilter == null) {
+                    logStreamedJobEvents(jobID, finalRead, sink);
+                } else if(STDOUT_LOG_TRANSPORT.equals(this.logTransport) && this.eventFilter == null && !this.getFullLogs) {
+                    // stdout is rendered like Tower's UI, full logs and filters need the events
+                    logJobStdout(jobID, finalRead, sink);
+                } else {
+                    logJobEvents(jobID, null, sink);
+                }
+            } else if(templateType.equalsIgnoreCase(WORKFLOW_TEMPLATE_TYPE) || templateType.equalsIgnoreCase(SLICE_TEMPLATE_TYPE)){
+                logWorkflowEvents(jobID, this.importChildWorkflowLogs, sink);
+            } else {
+                throw new AnsibleTowerException("Tower Connector does not know how to log events for a "+ templateType);
+            }
+        } finally {
+            sink.flush();
         }
-        return events;
     }
 
     private static String UNIFIED_JOB_TYPE = "unified_job_type";
     private static String UNIFIED_JOB_TEMPLATE = "unified_job_template";
 
-    private Vector<String> logWorkflowEvents(int jobID, boolean importWorkflowChildLogs) throws AnsibleTowerException {
-        Vector<String> events = new Vector<String>();
+    private void logWorkflowEvents(int jobID, boolean importWorkflowChildLogs, TowerLogSink sink) throws AnsibleTowerException {
         if(!this.logIdForWorkflows.containsKey(jobID)) { this.logIdForWorkflows.put(jobID, 0); }
         HttpResponse response = makeRequest(GET, "/workflow_jobs/"+ jobID +"/workflow_nodes/?id__gt="+this.logIdForWorkflows.get(jobID));
 
@@ -858,65 +1249,50 @@ public class TowerConnector implements Serializable {
                         // If Node 2 executes second and completed we will use the ID of node 2 as the next ID.
                         // Node 1 results will be lost because node 2 has already finished.
                         // Returning will prevent this from happening.
-                        return events;
+                        return;
                     }
 
                     if(eventId > this.logIdForWorkflows.get(jobID)) { this.logIdForWorkflows.put(jobID, eventId); }
-                    events.addAll(logLine(job.getString("name") +" => "+ job.getString("status") +" "+ this.getJobURL(job.getInt("id"), JOB_TEMPLATE_TYPE)));
+                    logLine(job.getString("name") +" => "+ job.getString("status") +" "+ this.getJobURL(job.getInt("id"), JOB_TEMPLATE_TYPE), sink);
 
                     if(importWorkflowChildLogs) {
                         if(templateType.getString(UNIFIED_JOB_TYPE).equalsIgnoreCase("job")) {
                             // We only need to call this once because the job is completed at this point
-                            events.addAll(logJobEvents(job.getInt("id")));
+                            logJobEvents(job.getInt("id"), null, sink);
+                            // A filtered read doesn't see most of the JENKINS_EXPORT lines, go and get them
+                            if(this.eventFilter != null) { readExportEvents(job.getInt("id")); }
                         } else if(templateType.getString(UNIFIED_JOB_TYPE).equalsIgnoreCase("project_update")) {
-                            events.addAll(logProjectSync(job.getInt("id")));
+                            logProjectSync(job.getInt("id"), sink);
                         } else if(templateType.getString(UNIFIED_JOB_TYPE).equalsIgnoreCase("inventory_update")) {
-                            events.addAll(logInventorySync(job.getInt("id")));
+                            logInventorySync(job.getInt("id"), sink);
                         } else {
-                            events.addAll(logLine("Unknown job type in workflow: "+ templateType.getString(UNIFIED_JOB_TYPE)));
+                            logLine("Unknown job type in workflow: "+ templateType.getString(UNIFIED_JOB_TYPE), sink);
                         }
                     }
                     // Print two spaces to put some space between this and the next task.
-                    events.addAll(logLine(""));
-                    events.addAll(logLine(""));
+                    logLine("", sink);
+                    logLine("", sink);
                 }
             }
         } else {
             throw new AnsibleTowerException("Unexpected error code returned ("+ response.getStatusLine().getStatusCode() +")");
         }
-        return events;
     }
 
     public Vector<String> logLine(String output) throws AnsibleTowerException {
-        Vector<String> return_lines = new Vector<String>();
-        String[] lines = output.split("\\r\\n");
-        for(String line : lines) {
-            // Even if we don't log, we are going to see if this line contains the string JENKINS_EXPORT VAR=value
-            if(line.matches("^.*JENKINS_EXPORT.*$")) {
-                // The value might have some ansi color on it so we need to force the removal  of it
-                String[] entities = removeColor(line).split("=", 2);
-                if(entities.length == 2) {
-                    entities[0] = entities[0].replaceAll(".*JENKINS_EXPORT ", "");
-                    entities[1] = entities[1].replaceAll("\"$", "");
-                    jenkinsExports.put(entities[0], entities[1]);
-                }
-            }
-            if(removeColor) {
-                // This regex was found on https://stackoverflow.com/questions/14652538/remove-ascii-color-codes
-                line = removeColor(line);
-            }
-            return_lines.add(line);
-        }
-        return return_lines;
+        TowerLogSink.Collector collector = new TowerLogSink.Collector();
+        logLine(output, collector);
+        return collector.getLines();
     }
 
-    private String removeColor(String coloredLine) {
-        return coloredLine.replaceAll("\u001B\\[[;\\d]*m", "");
+    public void logLine(String output, TowerLogSink sink) throws AnsibleTowerException {
+        // Even if we don't log, the processor picks out any JENKINS_EXPORT VAR=value lines
+        if(this.lineProcessor == null) { this.lineProcessor = new TowerLineProcessor(); }
+        this.lineProcessor.process(output, removeColor, jenkinsExports, sink);
     }
 
 
-    private Vector<String> logInventorySync(int syncID) throws AnsibleTowerException {
-        Vector<String> events = new Vector<String>();
+    private void logInventorySync(int syncID, TowerLogSink sink) throws AnsibleTowerException {
         // These are not normal logs, so we don't need to paginate
         String apiURL = "/inventory_updates/"+ syncID +"/";
         HttpResponse response = makeRequest(GET, apiURL);
@@ -933,17 +1309,15 @@ public class TowerConnector implements Serializable {
             logger.logMessage(json);
 
             if(responseObject.containsKey("result_stdout")) {
-                events.addAll(logLine(responseObject.getString("result_stdout")));
+                logLine(responseObject.getString("result_stdout"), sink);
             }
         } else {
             throw new AnsibleTowerException("Unexpected error code returned ("+ response.getStatusLine().getStatusCode() +")");
         }
-        return events;
     }
 
 
-    private Vector<String> logProjectSync(int syncID) throws AnsibleTowerException {
-        Vector<String> events = new Vector<String>();
+    private void logProjectSync(int syncID, TowerLogSink sink) throws AnsibleTowerException {
         // These are not normal logs, so we don't need to paginate
         String apiURL = "/project_updates/"+ syncID +"/";
         HttpResponse response = makeRequest(GET, apiURL);
@@ -960,87 +1334,319 @@ public class TowerConnector implements Serializable {
             logger.logMessage(json);
 
             if(responseObject.containsKey("result_stdout")) {
-                events.addAll(logLine(responseObject.getString("result_stdout")));
+                logLine(responseObject.getString("result_stdout"), sink);
             }
         } else {
             throw new AnsibleTowerException("Unexpected error code returned ("+ response.getStatusLine().getStatusCode() +")");
         }
-        return events;
     }
 
-    private Vector<String> logJobEvents(int jobID) throws AnsibleTowerException {
-        Vector<String> events = new Vector<String>();
+    /*
+        Tails the job's rendered stdout by line number instead of paging through job_events. Tower sends only the text
+        of the lines, not an event document for each one, so there is far less to download and parse per line.
+        Tower refuses to render stdout over its display limit (STDOUT_MAX_BYTES_DISPLAY), if a job gets that big we
+        carry on with the events after the lines we already have.
+     */
+    private void logJobStdout(int jobID, boolean finalRead, TowerLogSink sink) throws AnsibleTowerException {
+        Map<Integer, Integer> stdoutLines = stdoutLineForJobs();
+        if(!stdoutLines.containsKey(jobID)) { stdoutLines.put(jobID, 0); }
+        if(stdoutLines.get(jobID) == -1) {
+            logJobEvents(jobID, null, sink);
+            return;
+        }
+        this.lastEventPageFull = false;
+        boolean keepReading = true;
+        while(keepReading) {
+            int startLine = stdoutLines.get(jobID);
+            HttpResponse response = makeRequest(GET, "/jobs/"+ jobID +"/stdout/?format=json&start_line="+ startLine +
+                    "&end_line="+ (startLine + STDOUT_LINES_PER_READ));
+            if(response.getStatusLine().getStatusCode() != 200) {
+                throw new AnsibleTowerException("Unexpected error code returned when getting stdout ("+ response.getStatusLine().getStatusCode() +")");
+            }
+            JSONObject responseObject;
+            try {
+                responseObject = JSONObject.fromObject(EntityUtils.toString(response.getEntity(), "UTF-8"));
+            } catch(IOException ioe) {
+                throw new AnsibleTowerException("Unable to read response and convert it into json: "+ ioe.getMessage());
+            }
+            String content = responseObject.optString("content", "");
+            JSONObject range = responseObject.optJSONObject("range");
+            if(range == null) { throw new AnsibleTowerException("Tower did not send the range of the stdout it returned"); }
+            if(content.startsWith(STDOUT_TOO_LARGE)) {
+                logger.logMessage("Stdout of job "+ jobID +" is too big for Tower to render, reading events after line "+ startLine);
+                this.logIdForJobs.put(jobID, findLastEventBeforeLine(jobID, startLine));
+                stdoutLines.put(jobID, -1);
+                logJobEvents(jobID, null, sink);
+                return;
+            }
+
+            // Each line ends in \n (with the \r of the event output in front of it), anything after the last \n is
+            // not a whole line yet and is read again next time, unless the job is done and it is the last line
+            int lineStart = 0;
+            int linesRead = 0;
+            int newline;
+            while((newline = content.indexOf('\n', lineStart)) != -1) {
+                int lineEnd = newline > lineStart && content.charAt(newline - 1) == '\r' ? newline - 1 : newline;
+                logLine(content.substring(lineStart, lineEnd), sink);
+                lineStart = newline + 1;
+                linesRead++;
+            }
+            int absoluteEnd = range.optInt("absolute_end", 0);
+            if(finalRead && lineStart < content.length() && startLine + linesRead + 1 == absoluteEnd) {
+                logLine(content.substring(lineStart), sink);
+                linesRead++;
+            }
+            stdoutLines.put(jobID, startLine + linesRead);
+            keepReading = linesRead > 0 && startLine + linesRead < absoluteEnd;
+            if(keepReading) { this.lastEventPageFull = true; }
+            sink.flush();
+        }
+    }
+
+    // The ID of the last event whose lines all come before line of the job's stdout, 0 if there isn't one
+    private int findLastEventBeforeLine(int jobID, int line) throws AnsibleTowerException {
+        if(line == 0) { return 0; }
+        HttpResponse response = makeRequest(GET, "/jobs/"+ jobID +"/job_events/?end_line__lte="+ line +"&order_by=-counter&page_size=1");
+        if(response.getStatusLine().getStatusCode() != 200) {
+            throw new AnsibleTowerException("Unexpected error code returned when getting job events ("+ response.getStatusLine().getStatusCode() +")");
+        }
+        try {
+            JSONArray results = JSONObject.fromObject(EntityUtils.toString(response.getEntity(), "UTF-8")).optJSONArray("results");
+            if(results == null || results.isEmpty()) { return 0; }
+            return results.getJSONObject(0).getInt("id");
+        } catch(IOException ioe) {
+            throw new AnsibleTowerException("Unable to read response and convert it into json: "+ ioe.getMessage());
+        }
+    }
+
+    // Connectors saved before the stdout transport existed don't have this
+    private Map<Integer, Integer> stdoutLineForJobs() {
+        if(this.stdoutLineForJobs == null) { this.stdoutLineForJobs = new HashMap<Integer, Integer>(); }
+        return this.stdoutLineForJobs;
+    }
+
+    /*
+        Reads the events of a job from Tower's websocket instead of paging through job_events on every poll.
+        Events are logged in counter order. A gap that doesn't fill itself, a dropped socket and the end of the job
+        are all caught up with a REST read, which goes by event ID like any other and skips the counters the socket
+        already logged. Only REST reads move the ID cursor: an event the socket has can have a lower ID than one it is
+        still missing, moving the cursor past it would lose the missing one. If the socket can't be opened the job
+        uses plain REST reads, if it drops the job goes on with REST reads that still skip what the socket logged.
+     */
+    private void logStreamedJobEvents(int jobID, boolean finalRead, TowerLogSink sink) throws AnsibleTowerException {
+        TowerEventStream stream = getEventStream(jobID);
+        if(stream == null) {
+            logJobEvents(jobID, null, sink);
+            return;
+        }
+        for(JSONObject event : stream.takeReady()) {
+            logStreamedEvent(jobID, event, sink);
+        }
+        boolean dropped = !stream.isOpen();
+        if(finalRead || dropped || stream.hasStaleGap()) {
+            logJobEvents(jobID, stream, sink);
+            // Whatever the REST read didn't cover is all there is
+            for(JSONObject event : (finalRead || dropped) ? stream.takeAll() : stream.takeReady()) {
+                logStreamedEvent(jobID, event, sink);
+            }
+        }
+        if(dropped && !finalRead) {
+            logger.logMessage("Websocket for job "+ jobID +" went away ("+ stream.getCloseReason() +"), reading events over REST");
+            restOnlyJobs.add(jobID);
+        }
+        if(finalRead || dropped) { closeEventStream(jobID); }
+        // The socket tells the monitor when there is more, it doesn't need to hurry back
+        this.lastEventPageFull = false;
+    }
+
+    // The stream has already counted the event as logged
+    private void logStreamedEvent(int jobID, JSONObject event, TowerLogSink sink) throws AnsibleTowerException {
+        logLine(getEventStdout(event), sink);
+    }
+
+    // Connectors saved before counter cursors existed don't have this
+    private Map<Integer, TowerLoggedCounters> loggedCountersForJobs() {
+        if(this.loggedCountersForJobs == null) { this.loggedCountersForJobs = new HashMap<Integer, TowerLoggedCounters>(); }
+        return this.loggedCountersForJobs;
+    }
+
+    // Returns the open event stream of the job, opening it if needed, or null if the job has to use REST
+    private synchronized TowerEventStream getEventStream(final int jobID) {
+        if(this.eventStreams == null) { this.eventStreams = new HashMap<Integer, TowerEventStream>(); }
+        if(this.restOnlyJobs == null) { this.restOnlyJobs = new HashSet<Integer>(); }
         if(!this.logIdForJobs.containsKey(jobID)) { this.logIdForJobs.put(jobID, 0); }
-        boolean keepChecking = true;
-        while(keepChecking) {
-            String apiURL = "/jobs/" + jobID + "/job_events/?id__gt="+ this.logIdForJobs.get(jobID);
-            HttpResponse response = makeRequest(GET, apiURL);
-
-            if (response.getStatusLine().getStatusCode() == 200) {
-                JSONObject responseObject;
-                String json;
-                try {
-                    json = EntityUtils.toString(response.getEntity());
-                    responseObject = JSONObject.fromObject(json);
-                } catch (IOException ioe) {
-                    throw new AnsibleTowerException("Unable to read response and convert it into json: " + ioe.getMessage());
-                }
+        if(this.restOnlyJobs.contains(jobID)) { return null; }
+        TowerEventStream stream = this.eventStreams.get(jobID);
+        if(stream != null) { return stream; }
+
+        TowerLoggedCounters logged = loggedCountersForJobs().get(jobID);
+        if(logged == null) {
+            if(this.logIdForJobs.get(jobID) > 0) {
+                // REST has logged some of the job (i.e. before a restart) and we don't know which counters, only
+                // their IDs. The socket can't tell what is missing before its first event so the job stays on REST.
+                this.restOnlyJobs.add(jobID);
+                return null;
+            }
+            logged = new TowerLoggedCounters(0);
+        }
+        final String connectionKey = this.getConnectionKey();
+        stream = new TowerEventStream(jobID, logged, new Runnable() {
+            public void run() { TowerJobMonitor.pollLogs(connectionKey, jobID); }
+        });
+        try {
+            Map<String, String> headers = new HashMap<String, String>();
+            headers.put(HttpHeaders.AUTHORIZATION, this.getAuthorizationHeader());
+            boolean secure = url.toLowerCase().startsWith("https");
+            TowerWebSocket socket = TowerWebSocket.connect(url, "/websocket/", headers,
+                    secure ? TowerSSLContexts.getSocketFactory(url, trustAllCerts, caCertificateFile) : null,
+                    WEBSOCKET_TIMEOUT, stream);
+            stream.setSocket(socket);
+            JSONObject groups = new JSONObject();
+            JSONArray jobs = new JSONArray();
+            jobs.add(Integer.toString(jobID));
+            groups.put("job_events", jobs);
+            JSONObject subscription = new JSONObject();
+            subscription.put("groups", groups);
+            // Tower checks this against the CSRF cookie it set during the upgrade
+            String xrfToken = socket.getCookie("csrftoken");
+            if(xrfToken != null) { subscription.put("xrftoken", xrfToken); }
+            socket.send(subscription.toString());
+        } catch(AnsibleTowerException ate) {
+            logger.logMessage("Unable to stream events for job "+ jobID +", reading them over REST: "+ ate.getMessage());
+            this.restOnlyJobs.add(jobID);
+            return null;
+        }
+        loggedCountersForJobs().put(jobID, logged);
+        this.eventStreams.put(jobID, stream);
+        return stream;
+    }
 
-                logger.logMessage(json);
+    private synchronized void closeEventStream(int jobID) {
+        if(this.eventStreams == null) { return; }
+        TowerEventStream stream = this.eventStreams.remove(jobID);
+        if(stream != null) { stream.close(); }
+    }
 
-                if(responseObject.containsKey("next") && responseObject.getString("next") == null || responseObject.getString("next").equalsIgnoreCase("null")) {
-                    keepChecking = false;
-                }
-                if (responseObject.containsKey("results")) {
-                    for (Object anEvent : responseObject.getJSONArray("results")) {
-                        JSONObject eventObject = (JSONObject) anEvent;
-                        Integer eventId = eventObject.getInt("id");
-                        String stdOut = eventObject.getString("stdout");
-                        if(this.getFullLogs) {
-                            try {
-                                stdOut = eventObject.getJSONObject("event_data").getJSONObject("res").getString("msg");
-                            } catch (Exception e) {
-                                // If we don't have this its ok, not all messages will have the res
-                            }
+    private String getEventStdout(JSONObject eventObject) {
+        String stdOut = eventObject.getString("stdout");
+        if(this.getFullLogs) {
+            try {
+                stdOut = eventObject.getJSONObject("event_data").getJSONObject("res").getString("msg");
+            } catch (Exception e) {
+                // If we don't have this its ok, not all messages will have the res
+            }
+        }
+        return stdOut;
+    }
+
+    /*
+        stream is only set when the websocket has been giving us events. For a job that has streamed, anything the
+        socket already logged is skipped by counter and Tower only sends the events after the last counter we have
+        everything up to. The pages always go by event ID, see TowerEventPager.
+     */
+    private void logJobEvents(int jobID, TowerEventStream stream, TowerLogSink sink) throws AnsibleTowerException {
+        if(!this.logIdForJobs.containsKey(jobID)) { this.logIdForJobs.put(jobID, 0); }
+        this.lastEventPageFull = false;
+        TowerLoggedCounters logged = loggedCountersForJobs().get(jobID);
+        String filter = this.eventFilter;
+        if(logged != null) {
+            String counterFilter = "counter__gt="+ logged.getThrough();
+            filter = filter == null ? counterFilter : filter +"&"+ counterFilter;
+        }
+        TowerEventPager pager = new TowerEventPager(this, "/jobs/"+ jobID +"/job_events/", this.logIdForJobs.get(jobID),
+                this.getFullLogs, "job events", filter);
+        try {
+            List<TowerEventPager.Event> events;
+            while((events = pager.nextPage()) != null) {
+                for(TowerEventPager.Event event : events) {
+                    Integer eventId = event.getId();
+                    int counter = event.getCounter();
+                    if (eventId > this.logIdForJobs.get(jobID)) {
+                        this.logIdForJobs.put(jobID, eventId);
+                    }
+                    if(logged != null && counter != -1) {
+                        if(logged.contains(counter)) {
+                            // The socket already gave us this one
+                            continue;
                         }
-                        events.addAll(logLine(stdOut));
-                        if (eventId > this.logIdForJobs.get(jobID)) {
-                            this.logIdForJobs.put(jobID, eventId);
+                        if(stream != null) {
+                            stream.delivered(counter);
+                        } else {
+                            logged.add(counter);
                         }
                     }
+                    logLine(event.getStdout(), sink);
                 }
-            } else {
-                throw new AnsibleTowerException("Unexpected error code returned (" + response.getStatusLine().getStatusCode() + ")");
+                logger.logMessage("Read "+ events.size() +" events for job "+ jobID);
+                // Let the page out before reading the next one
+                sink.flush();
             }
+        } finally {
+            pager.close();
         }
-        return events;
+        this.lastEventPageFull = pager.lastPageWasFull();
     }
 
-    public boolean isJobFailed(int jobID, String templateType) throws AnsibleTowerException {
-        checkTemplateType(templateType);
-
-        String apiEndPoint = "/jobs/"+ jobID +"/";
-        if(templateType.equalsIgnoreCase(WORKFLOW_TEMPLATE_TYPE) || templateType.equalsIgnoreCase(SLICE_TEMPLATE_TYPE)) { apiEndPoint = "/workflow_jobs/"+ jobID +"/"; }
-        HttpResponse response = makeRequest(GET, apiEndPoint);
+    /*
+        Picks the JENKINS_EXPORT variables out of the output of a job without reading all of it. Tower filters the
+        events down to the ones that mention JENKINS_EXPORT, their lines go nowhere.
+     */
+    public void readExportEvents(int jobID) throws AnsibleTowerException {
+        TowerEventPager pager = new TowerEventPager(this, "/jobs/"+ jobID +"/job_events/", 0, this.getFullLogs,
+                "job events", "stdout__icontains=JENKINS_EXPORT");
+        TowerLogSink discard = new TowerLogSink() {
+            public void onLine(String line) { }
+            public void flush() { }
+        };
+        try {
+            List<TowerEventPager.Event> events;
+            while((events = pager.nextPage()) != null) {
+                for(TowerEventPager.Event event : events) {
+                    logLine(event.getStdout(), discard);
+                }
+            }
+        } finally {
+            pager.close();
+        }
+    }
 
-        if(response.getStatusLine().getStatusCode() == 200) {
+    /*
+        Gets the status of many jobs (of any type) with a single request.
+        The result is keyed by the unified job ID, jobs Tower didn't return are left out.
+     */
+    public Map<Integer, JSONObject> getUnifiedJobStatuses(Collection<Integer> jobIDs) throws AnsibleTowerException {
+        Map<Integer, JSONObject> statuses = new HashMap<Integer, JSONObject>();
+        List<Integer> ids = new ArrayList<Integer>(jobIDs);
+        for(int start = 0; start < ids.size(); start += UNIFIED_JOBS_PAGE_SIZE) {
+            List<Integer> chunk = ids.subList(start, Math.min(start + UNIFIED_JOBS_PAGE_SIZE, ids.size()));
+            StringBuilder idList = new StringBuilder();
+            for(Integer id : chunk) {
+                if(idList.length() > 0) { idList.append(","); }
+                idList.append(id);
+            }
+            HttpResponse response = makeRequest(GET, "/unified_jobs/?page_size="+ UNIFIED_JOBS_PAGE_SIZE +"&id__in="+ idList);
+            if(response.getStatusLine().getStatusCode() != 200) {
+                throw new AnsibleTowerException("Unexpected error code returned when getting job statuses (" + response.getStatusLine().getStatusCode() + ")");
+            }
             JSONObject responseObject;
-            String json;
             try {
-                json = EntityUtils.toString(response.getEntity());
-                responseObject = JSONObject.fromObject(json);
+                responseObject = JSONObject.fromObject(EntityUtils.toString(response.getEntity()));
             } catch(IOException ioe) {
                 throw new AnsibleTowerException("Unable to read response and convert it into json: "+ ioe.getMessage());
             }
-
-            if (responseObject.containsKey("failed")) {
-                return responseObject.getBoolean("failed");
+            if(!responseObject.containsKey("results")) {
+                throw new AnsibleTowerException("Response for job statuses does not contain results");
+            }
+            for(Object result : responseObject.getJSONArray("results")) {
+                JSONObject aJob = (JSONObject) result;
+                statuses.put(aJob.getInt("id"), aJob);
             }
-            logger.logMessage(json);
-            throw new AnsibleTowerException("Did not get a failed status from the request. Job response can be found in the jenkins.log");
-        } else {
-            throw new AnsibleTowerException("Unexpected error code returned (" + response.getStatusLine().getStatusCode() + ")");
         }
+        return statuses;
+    }
+
+    public boolean isJobFailed(int jobID, String templateType) throws AnsibleTowerException {
+        return getJobSnapshot(jobID, templateType).isFailed();
     }
 
     public String getJobURL(int myJobID, String templateType) {
@@ -1060,7 +1666,44 @@ public class TowerConnector implements Serializable {
         return "Basic " + new String(encodedAuth, Charset.forName("UTF-8"));
     }
 
-    private String getOAuthToken() throws AnsibleTowerException {
+    private String leaseOAuthToken() throws AnsibleTowerException {
+        this.tokenLease = TowerTokenLeaseManager.acquire(getIdentityKey(), newTokenIssuer());
+        logger.logMessage("Leased oAuth token "+ this.tokenLease.getTokenId() +" for "+ this.username);
+        return this.tokenLease.getToken();
+    }
+
+    private TowerTokenLeaseManager.TokenIssuer newTokenIssuer() {
+        final TowerConnector issuingConnector = this;
+        return new TowerTokenLeaseManager.TokenIssuer() {
+            public TowerTokenLeaseManager.Lease createToken() throws AnsibleTowerException {
+                return issuingConnector.createOAuthToken();
+            }
+
+            public void revokeToken(TowerTokenLeaseManager.Lease lease) {
+                issuingConnector.revokeOAuthToken(lease.getTokenId());
+            }
+        };
+    }
+
+    /*
+        Who we are to Tower. A credentialsId is only unique within its store (a folder, a user) so two jobs with the
+        same credentialsId and username can still be two different logins, the secret is what tells them apart.
+        Anything shared between connectors (tokens, lookups) has to be keyed by this.
+     */
+    private String getIdentityKey() {
+        String secret = IDENTITY_SALT +"|"+ this.username +"|"+ this.password +"|"+ this.oauthToken;
+        return this.url +"|"+ this.username +"|"+ DigestUtils.sha256Hex(secret);
+    }
+
+    // A lease saved with us (i.e. in a TowerJob a pipeline kept) is still ours to release once we are loaded back in
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if(this.tokenLease != null) {
+            this.tokenLease = TowerTokenLeaseManager.adopt(this.tokenLease, getIdentityKey(), newTokenIssuer());
+        }
+    }
+
+    private TowerTokenLeaseManager.Lease createOAuthToken() throws AnsibleTowerException {
         String tokenURI = url + this.buildEndpoint("/tokens/");
         HttpPost oauthTokenRequest = new HttpPost(tokenURI);
         oauthTokenRequest.setHeader(HttpHeaders.AUTHORIZATION, this.getBasicAuthString());
@@ -1077,11 +1720,14 @@ public class TowerConnector implements Serializable {
 
         oauthTokenRequest.setHeader("Content-Type", "application/json");
 
-        DefaultHttpClient httpClient = getHttpClient();
+        HttpClient httpClient = getHttpClient();
         HttpResponse response;
+        throttle();
         try {
             logger.logMessage("Calling for oauth token at "+ tokenURI);
-            response = httpClient.execute(oauthTokenRequest);
+            response = bufferResponse(httpClient.execute(oauthTokenRequest));
+        } catch(AnsibleTowerException ate) {
+            throw ate;
         } catch(Exception e) {
             throw new AnsibleTowerException("Unable to make request for an oauth token: "+ e.getMessage());
         }
@@ -1105,13 +1751,23 @@ public class TowerConnector implements Serializable {
             throw new AnsibleTowerException("Unable to read oatuh response and convert it into json: " + ioe.getMessage());
         }
 
+        String tokenID = null;
         if (responseObject.containsKey("id")) {
-            this.oAuthTokenID = responseObject.getString("id");
+            tokenID = responseObject.getString("id");
+        }
+
+        long expiresAt = 0;
+        if (responseObject.containsKey("expires")) {
+            try {
+                expiresAt = OffsetDateTime.parse(responseObject.getString("expires")).toInstant().toEpochMilli();
+            } catch(DateTimeParseException dtpe) {
+                logger.logMessage("Unable to parse token expiration "+ responseObject.getString("expires"));
+            }
         }
 
         if (responseObject.containsKey("token")) {
-            logger.logMessage("AuthToken acquired ("+ this.oAuthTokenID +")");
-            return responseObject.getString("token");
+            logger.logMessage("AuthToken acquired ("+ tokenID +")");
+            return new TowerTokenLeaseManager.Lease(responseObject.getString("token"), tokenID, expiresAt);
         }
         logger.logMessage(json);
         throw new AnsibleTowerException("Did not get an oauth token from the request. Template response can be found in the jenkins.log");
@@ -1135,11 +1791,14 @@ public class TowerConnector implements Serializable {
 
         tokenRequest.setHeader("Content-Type", "application/json");
 
-        DefaultHttpClient httpClient = getHttpClient();
+        HttpClient httpClient = getHttpClient();
         HttpResponse response;
+        throttle();
         try {
             logger.logMessage("Calling for token at "+ tokenURI);
-            response = httpClient.execute(tokenRequest);
+            response = bufferResponse(httpClient.execute(tokenRequest));
+        } catch(AnsibleTowerException ate) {
+            throw ate;
         } catch(Exception e) {
             throw new AnsibleTowerException("Unable to make request for an authtoken: "+ e.getMessage());
         }
@@ -1169,30 +1828,41 @@ public class TowerConnector implements Serializable {
         throw new AnsibleTowerException("Did not get a token from the request. Template response can be found in the jenkins.log");
     }
 
-    public void releaseToken() {
-        if(this.oAuthTokenID != null) {
-            logger.logMessage("Deleting oAuth token "+ this.oAuthTokenID +" for " + this.username);
-            try {
-                String tokenURI = url + this.buildEndpoint("/tokens/" + this.oAuthTokenID + "/");
-                HttpDelete tokenRequest = new HttpDelete(tokenURI);
-                tokenRequest.setHeader(HttpHeaders.AUTHORIZATION, this.getBasicAuthString());
-
-                DefaultHttpClient httpClient = getHttpClient();
-                logger.logMessage("Calling for oAuth token delete at " + tokenURI);
-                HttpResponse response = httpClient.execute(tokenRequest);
-                if(response.getStatusLine().getStatusCode() == 400) {
-                    logger.logMessage("Unable to delete oAuthToken: Invalid Authorization");
-                } else if(response.getStatusLine().getStatusCode() != 204) {
-                    logger.logMessage("Unable to delete oauth token, server responded with ("+ response.getStatusLine().getStatusCode() +")");
-                }
-                logger.logMessage("oAuth Token deleted");
+    public synchronized void releaseToken() {
+        // We are done watching, any event streams go with the token they were opened with
+        if(this.eventStreams != null) {
+            for(TowerEventStream stream : this.eventStreams.values()) { stream.close(); }
+            this.eventStreams.clear();
+        }
+        // The token itself stays alive for other builds, the lease manager revokes it once it goes idle
+        if(this.tokenLease != null) {
+            logger.logMessage("Releasing oAuth token "+ this.tokenLease.getTokenId() +" for " + this.username);
+            TowerTokenLeaseManager.release(this.tokenLease);
+            this.tokenLease = null;
+            this.authorizationHeader = null;
+        }
+    }
 
-                this.oAuthTokenID = null;
-                this.authorizationHeader = null;
-            } catch(Exception e) {
-                logger.logMessage("Failed to delete token: "+ e.getMessage());
+    private void revokeOAuthToken(String tokenID) {
+        if(tokenID == null) { return; }
+        logger.logMessage("Deleting oAuth token "+ tokenID +" for " + this.username);
+        try {
+            String tokenURI = url + this.buildEndpoint("/tokens/" + tokenID + "/");
+            HttpDelete tokenRequest = new HttpDelete(tokenURI);
+            tokenRequest.setHeader(HttpHeaders.AUTHORIZATION, this.getBasicAuthString());
+
+            HttpClient httpClient = getHttpClient();
+            throttle();
+            logger.logMessage("Calling for oAuth token delete at " + tokenURI);
+            HttpResponse response = bufferResponse(httpClient.execute(tokenRequest));
+            if(response.getStatusLine().getStatusCode() == 400) {
+                logger.logMessage("Unable to delete oAuthToken: Invalid Authorization");
+            } else if(response.getStatusLine().getStatusCode() != 204) {
+                logger.logMessage("Unable to delete oauth token, server responded with ("+ response.getStatusLine().getStatusCode() +")");
             }
-
+            logger.logMessage("oAuth Token deleted");
+        } catch(Exception e) {
+            logger.logMessage("Failed to delete token: "+ e.getMessage());
         }
     }
 
@@ -0,0 +1,143 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This class resolves Tower credential IDs into the Jenkins credentials they point to.
+    A build's credential is looked up by its ID in the scope of the build's job, as the authentication the build runs
+    as, and the answer is kept indexed by the job, that authentication and the ID so builds launched over and over
+    don't go back to the providers every time. A build that runs as someone else never gets an answer that was
+    meant for another user. IDs that name a credentials parameter (${...}) depend on who started the build and are
+    never cached. Every build using a cached credential is still recorded as using it (CredentialsProvider.track).
+    Anything saving a credentials store drops the cache, entries also expire on their own in case the credentials
+    come from a provider that never saves anything, and only the most recently used are kept.
+ */
+
+import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.ItemGroup;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.User;
+import hudson.model.listeners.SaveableListener;
+import org.acegisecurity.Authentication;
+import org.jenkinsci.plugins.plaincredentials.StringCredentials;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class TowerCredentialsCache {
+    public static final int DEFAULT_TTL = 300;
+    public static final int DEFAULT_MAX_SIZE = 500;
+
+    private static volatile int ttl = DEFAULT_TTL;
+    private static volatile int maxSize = DEFAULT_MAX_SIZE;
+    // Guarded by itself
+    private static final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    private static class Entry {
+        // null when the ID did not resolve, so we don't go looking again for a missing credential
+        private final StandardCredentials credentials;
+        private final long expiresAt;
+
+        Entry(StandardCredentials credentials, int entryTTL) {
+            this.credentials = credentials;
+            this.expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(entryTTL);
+        }
+    }
+
+    public static StandardCredentials lookup(String credentialsId, Run run) {
+        String scope = "";
+        if(run != null) {
+            try {
+                Authentication authentication = CredentialsProvider.getDefaultAuthenticationOf(run.getParent());
+                scope = run.getParent().getFullName() +"|"+ (authentication == null ? "" : authentication.getName());
+            } catch(NullPointerException e) {
+                run = null;
+            }
+        }
+
+        if(ttl == 0 || isParameter(credentialsId)) {
+            return resolve(credentialsId, run);
+        }
+
+        String key = scope +"|"+ credentialsId;
+        Entry entry;
+        synchronized(cache) {
+            entry = cache.get(key);
+        }
+        if(entry == null || System.nanoTime() - entry.expiresAt > 0) {
+            // Resolved outside the lock, a slow provider shouldn't hold up every other build
+            entry = new Entry(resolve(credentialsId, run), ttl);
+            synchronized(cache) {
+                cache.put(key, entry);
+            }
+        } else if(run != null && entry.credentials != null) {
+            // findCredentialById records the build as a user of the credential, a cached answer has to do it too
+            CredentialsProvider.track(run, entry.credentials);
+        }
+        return entry.credentials;
+    }
+
+    // Called by the global config whenever it is loaded or saved; a TTL of 0 turns caching off
+    public static void configure(int newTTL, int newMaxSize) {
+        ttl = Math.max(newTTL, 0);
+        maxSize = Math.max(newMaxSize, 1);
+        invalidate();
+    }
+
+    public static void invalidate() {
+        synchronized(cache) {
+            cache.clear();
+        }
+    }
+
+    // findCredentialById resolves ${NAME} through the build's credentials parameters, as the user who started it
+    private static boolean isParameter(String credentialsId) {
+        return credentialsId.startsWith("${") && credentialsId.endsWith("}");
+    }
+
+    private static StandardCredentials resolve(String credentialsId, Run run) {
+        StandardCredentials found;
+        if (run != null) {
+            // Goes straight to the credential with that ID in the stores the build can see
+            found = CredentialsProvider.findCredentialById(credentialsId, StandardCredentials.class, run,
+                    Collections.<DomainRequirement>emptyList());
+        } else {
+            // Without a build there is nothing to look up by ID in, only the global credentials are ours to use
+            found = CredentialsMatchers.firstOrNull(CredentialsProvider.lookupCredentials(StandardCredentials.class),
+                    CredentialsMatchers.withId(credentialsId));
+        }
+
+        // Both the username/password and the oAuth token credentials can log in to Tower
+        if (found instanceof StandardUsernamePasswordCredentials || found instanceof StringCredentials) {
+            return found;
+        }
+        return null;
+    }
+
+    /*
+        System credentials are saved by SystemCredentialsProvider, folder credentials with their folder and
+        user credentials with the user.
+     */
+    @Extension
+    public static class CredentialsChangeListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if(o instanceof SystemCredentialsProvider || o instanceof ItemGroup || o instanceof User) {
+                invalidate();
+            }
+        }
+    }
+}
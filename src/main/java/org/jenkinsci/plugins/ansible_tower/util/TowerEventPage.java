@@ -0,0 +1,376 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This class reads a page of events (job_events, project_updates/{id}/events, ...) straight off of the response
+    stream. A verbose job sends pages of several MB, almost all of it event_data we never look at, so instead of
+    building the whole page as a String and then as json-lib objects we pull one event at a time and only keep its
+    id, counter, stdout and (if asked for) event_data.res.msg. Everything else is skipped without being decoded.
+
+        TowerEventPage page = new TowerEventPage(response.getEntity().getContent(), fullLogs);
+        try {
+            while(page.nextEvent()) { ... page.getId() ... page.getStdout() ... }
+            more = page.hasNextPage();
+        } finally {
+            page.close();
+        }
+
+    hasNextPage() is only known once nextEvent() has returned false, Tower may send "next" after "results".
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+public class TowerEventPage implements Closeable {
+    private final Reader reader;
+    private final boolean withResultMessages;
+    private final char[] buffer = new char[8192];
+    private int position = 0;
+    private int limit = 0;
+    // Reused for every string we do decode
+    private final StringBuilder text = new StringBuilder(256);
+
+    private boolean started = false;
+    private boolean finished = false;
+    private boolean nextPage = false;
+    private int eventCount = 0;
+
+    private int id;
+    private int counter;
+    private String stdout;
+    private String resultMessage;
+
+    /*
+        withResultMessages also picks out event_data.res.msg of each event (see getResultMessage)
+     */
+    public TowerEventPage(InputStream in, boolean withResultMessages) {
+        this(new InputStreamReader(in, StandardCharsets.UTF_8), withResultMessages);
+    }
+
+    public TowerEventPage(Reader reader, boolean withResultMessages) {
+        this.reader = reader;
+        this.withResultMessages = withResultMessages;
+    }
+
+    /*
+        Moves to the next event of the page, false once there are no more
+     */
+    public boolean nextEvent() throws IOException {
+        if(finished) { return false; }
+        if(!started) {
+            started = true;
+            expect('{');
+            if(!readMembers(true)) {
+                finished = true;
+                return false;
+            }
+            if(peek() == ']') {
+                position++;
+                endResults();
+                return false;
+            }
+        } else {
+            int c = read();
+            if(c == ']') {
+                endResults();
+                return false;
+            }
+            if(c != ',') { throw syntaxError("expected , or ] after an event"); }
+        }
+        readEvent();
+        eventCount++;
+        return true;
+    }
+
+    public int getId() { return id; }
+    // The event's counter, -1 if it doesn't have one
+    public int getCounter() { return counter; }
+    public String getStdout() { return stdout; }
+    // event_data.res.msg, null if the event doesn't have one or we weren't asked for it
+    public String getResultMessage() { return resultMessage; }
+    public boolean hasNextPage() { return nextPage; }
+    public int getEventCount() { return eventCount; }
+
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void endResults() throws IOException {
+        readMembers(false);
+        finished = true;
+    }
+
+    /*
+        Reads the members of the page object, looking at "next" on the way. If stopAtResults we stop just inside the
+        results array and return true, otherwise (or if there are no results) we read to the end of the page.
+     */
+    private boolean readMembers(boolean stopAtResults) throws IOException {
+        while(true) {
+            int c = peek();
+            if(c == '}') {
+                position++;
+                return false;
+            }
+            if(c == ',') {
+                position++;
+                continue;
+            }
+            String key = readString();
+            expect(':');
+            if(key.equals("next")) {
+                nextPage = peek() == '"';
+                skipValue(null);
+            } else if(stopAtResults && key.equals("results") && peek() == '[') {
+                position++;
+                return true;
+            } else {
+                skipValue(null);
+            }
+        }
+    }
+
+    private void readEvent() throws IOException {
+        boolean hasId = false;
+        id = 0;
+        counter = -1;
+        stdout = null;
+        resultMessage = null;
+
+        expect('{');
+        while(true) {
+            int c = peek();
+            if(c == '}') {
+                position++;
+                break;
+            }
+            if(c == ',') {
+                position++;
+                continue;
+            }
+            String key = readString();
+            expect(':');
+            if(key.equals("id")) {
+                id = readInt();
+                hasId = true;
+            } else if(key.equals("counter")) {
+                counter = readInt();
+            } else if(key.equals("stdout")) {
+                stdout = readText();
+            } else if(withResultMessages && key.equals("event_data") && peek() == '{') {
+                readEventData();
+            } else {
+                skipValue(null);
+            }
+        }
+        if(!hasId) { throw new IOException("Tower sent an event without an id"); }
+        if(stdout == null) { stdout = ""; }
+    }
+
+    private void readEventData() throws IOException {
+        expect('{');
+        while(true) {
+            int c = peek();
+            if(c == '}') {
+                position++;
+                return;
+            }
+            if(c == ',') {
+                position++;
+                continue;
+            }
+            String key = readString();
+            expect(':');
+            if(key.equals("res") && peek() == '{') {
+                readResult();
+            } else {
+                skipValue(null);
+            }
+        }
+    }
+
+    private void readResult() throws IOException {
+        expect('{');
+        while(true) {
+            int c = peek();
+            if(c == '}') {
+                position++;
+                return;
+            }
+            if(c == ',') {
+                position++;
+                continue;
+            }
+            String key = readString();
+            expect(':');
+            if(key.equals("msg")) {
+                resultMessage = readText();
+            } else {
+                skipValue(null);
+            }
+        }
+    }
+
+    /*
+        A string value as a string, anything else (null, a list of messages, ...) as its JSON text the way json-lib's
+        getString() would have given it to us
+     */
+    private String readText() throws IOException {
+        if(peek() == '"') { return readString(); }
+        StringBuilder raw = new StringBuilder();
+        skipValue(raw);
+        return raw.toString();
+    }
+
+    private int readInt() throws IOException {
+        String number = peek() == '"' ? readString() : readText();
+        try {
+            return Integer.parseInt(number);
+        } catch(NumberFormatException nfe) {
+            try {
+                return (int) Double.parseDouble(number);
+            } catch(NumberFormatException nfe2) {
+                throw syntaxError("expected a number but got "+ number);
+            }
+        }
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        text.setLength(0);
+        while(true) {
+            if(position == limit && !fill()) { throw syntaxError("unterminated string"); }
+            // Copy everything up to the next quote or escape in one go
+            int start = position;
+            while(position < limit && buffer[position] != '"' && buffer[position] != '\\') { position++; }
+            text.append(buffer, start, position - start);
+            if(position == limit) { continue; }
+            char c = buffer[position++];
+            if(c == '"') { return text.toString(); }
+            text.append(readEscape());
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = readRaw();
+        switch(c) {
+            case '"': return '"';
+            case '\\': return '\\';
+            case '/': return '/';
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'u':
+                int value = 0;
+                for(int i = 0; i < 4; i++) {
+                    int digit = Character.digit(readRaw(), 16);
+                    if(digit == -1) { throw syntaxError("bad unicode escape"); }
+                    value = (value << 4) + digit;
+                }
+                return (char) value;
+            default:
+                throw syntaxError("bad escape");
+        }
+    }
+
+    /*
+        Skips over the next value without decoding it, if raw is set the JSON text of the value is put in it
+     */
+    private void skipValue(StringBuilder raw) throws IOException {
+        int c = peek();
+        if(c == '"') {
+            skipString(raw);
+        } else if(c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                c = peek();
+                if(c == -1) { throw syntaxError("unexpected end of page"); }
+                if(c == '"') {
+                    skipString(raw);
+                    continue;
+                }
+                position++;
+                if(raw != null) { raw.append((char) c); }
+                if(c == '{' || c == '[') {
+                    depth++;
+                } else if(c == '}' || c == ']') {
+                    depth--;
+                }
+            } while(depth > 0);
+        } else if(c == -1) {
+            throw syntaxError("unexpected end of page");
+        } else {
+            // A number, true, false or null
+            while(true) {
+                if(position == limit && !fill()) { return; }
+                c = buffer[position];
+                if(c == ',' || c == '}' || c == ']' || isWhitespace(c)) { return; }
+                if(raw != null) { raw.append((char) c); }
+                position++;
+            }
+        }
+    }
+
+    private void skipString(StringBuilder raw) throws IOException {
+        expect('"');
+        if(raw != null) { raw.append('"'); }
+        while(true) {
+            if(position == limit && !fill()) { throw syntaxError("unterminated string"); }
+            int start = position;
+            while(position < limit && buffer[position] != '"' && buffer[position] != '\\') { position++; }
+            if(raw != null) { raw.append(buffer, start, position - start); }
+            if(position == limit) { continue; }
+            char c = buffer[position++];
+            if(raw != null) { raw.append(c); }
+            if(c == '"') { return; }
+            // Whatever is escaped can't end the string
+            int escaped = readRaw();
+            if(raw != null) { raw.append((char) escaped); }
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        if(read() != expected) { throw syntaxError("expected "+ expected); }
+    }
+
+    // The next character that isn't whitespace, without consuming it
+    private int peek() throws IOException {
+        while(true) {
+            if(position == limit && !fill()) { return -1; }
+            if(!isWhitespace(buffer[position])) { return buffer[position]; }
+            position++;
+        }
+    }
+
+    // Consumes the next character that isn't whitespace
+    private int read() throws IOException {
+        int c = peek();
+        if(c != -1) { position++; }
+        return c;
+    }
+
+    private int readRaw() throws IOException {
+        if(position == limit && !fill()) { throw syntaxError("unexpected end of page"); }
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+        int count = reader.read(buffer, 0, buffer.length);
+        if(count <= 0) { return false; }
+        position = 0;
+        limit = count;
+        return true;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Unable to parse the events from Tower, "+ message +" (event "+ (eventCount + 1) +")");
+    }
+}
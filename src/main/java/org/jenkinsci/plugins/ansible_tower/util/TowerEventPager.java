@@ -0,0 +1,234 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This class pages through the events of a job (or project sync) that come after a given event ID.
+    The first page is read right away. If Tower says there is more, the following pages are read by a small executor
+    shared by all builds while the caller is still logging the page it has, so catching up on a long job is a series of
+    overlapping requests instead of request, log, request, log. At most PREFETCH_PAGES pages wait for the caller, the
+    reader blocks once that many are queued.
+
+    The pages are addressed as page=N of id__gt=afterId ordered by id. Tower hands out IDs as it saves the events, so
+    events that show up while we are paging land after the ones we are reading and the pages don't shift under us.
+    Counters don't work for this, Tower can save a job's events out of counter order.
+ */
+
+import org.apache.http.HttpResponse;
+import org.jenkinsci.plugins.ansible_tower.exceptions.AnsibleTowerException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class TowerEventPager {
+    private static final int THREADS = 8;
+    private static final int PREFETCH_PAGES = 2;
+    // Tower's PAGE_SIZE, what a page holds when we don't ask for a size
+    private static final int DEFAULT_PAGE_SIZE = 25;
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Ansible Tower event reader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static class Event {
+        private final int id;
+        private final int counter;
+        private final String stdout;
+
+        private Event(int id, int counter, String stdout) {
+            this.id = id;
+            this.counter = counter;
+            this.stdout = stdout;
+        }
+
+        public int getId() { return id; }
+        // -1 if the event doesn't have a counter
+        public int getCounter() { return counter; }
+        public String getStdout() { return stdout; }
+    }
+
+    private static class Page {
+        private final List<Event> events;
+        private final boolean hasNext;
+        private final AnsibleTowerException error;
+
+        private Page(List<Event> events, boolean hasNext, AnsibleTowerException error) {
+            this.events = events;
+            this.hasNext = hasNext;
+            this.error = error;
+        }
+    }
+
+    private final TowerConnector connector;
+    private final String endpoint;
+    private final int afterId;
+    private final int pageSize;
+    private final boolean withResultMessages;
+    private final String description;
+    private final String filter;
+    private final BlockingQueue<Page> prefetched = new ArrayBlockingQueue<Page>(PREFETCH_PAGES);
+    private volatile boolean closed = false;
+    private Future<?> reader = null;
+    private boolean done = false;
+    private int pagesRead = 0;
+    private int lastPageSize = 0;
+
+    /*
+        endpoint is the events list of the job (without a query), withResultMessages uses event_data.res.msg as the
+        output of the events that have one, description names the events in error messages (i.e. "job events")
+     */
+    public TowerEventPager(TowerConnector connector, String endpoint, int afterId, boolean withResultMessages, String description) {
+        this(connector, endpoint, afterId, withResultMessages, description, null);
+    }
+
+    /*
+        filter is added to the query so Tower only sends some of the events (i.e. stdout__icontains=...)
+     */
+    public TowerEventPager(TowerConnector connector, String endpoint, int afterId, boolean withResultMessages, String description, String filter) {
+        this.connector = connector;
+        this.endpoint = endpoint;
+        this.afterId = afterId;
+        this.pageSize = connector.getEventPageSize();
+        this.withResultMessages = withResultMessages;
+        this.description = description;
+        this.filter = filter;
+    }
+
+    /*
+        The events of the next page, null once there are no more pages
+     */
+    public List<Event> nextPage() throws AnsibleTowerException {
+        if(done) { return null; }
+        Page page;
+        if(pagesRead == 0) {
+            page = readPage(1);
+            if(page.hasNext) { startReader(); }
+        } else {
+            page = takePrefetched();
+        }
+        if(page.error != null) {
+            close();
+            throw page.error;
+        }
+        pagesRead++;
+        lastPageSize = page.events.size();
+        if(!page.hasNext) { done = true; }
+        return page.events;
+    }
+
+    /*
+        True if the last page we read was a full one. Tower had no more when we got there but the job is writing
+        events about as fast as we read them, so there is probably more already.
+     */
+    public boolean lastPageWasFull() {
+        return lastPageSize >= (pageSize > 0 ? pageSize : DEFAULT_PAGE_SIZE);
+    }
+
+    // Waits for the reader's next page, the reader always hands us one unless it is gone
+    private Page takePrefetched() throws AnsibleTowerException {
+        try {
+            while(true) {
+                Page page = prefetched.poll(1, TimeUnit.SECONDS);
+                if(page != null) { return page; }
+                if(reader.isDone()) {
+                    // It may have handed over its last page on the way out
+                    page = prefetched.poll();
+                    if(page != null) { return page; }
+                    close();
+                    throw new AnsibleTowerException("Stopped reading "+ description +" before the last page");
+                }
+            }
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new AnsibleTowerException("Interrupted while reading "+ description);
+        }
+    }
+
+    /*
+        Stops reading ahead, needed if the caller stops before the last page
+     */
+    public void close() {
+        done = true;
+        closed = true;
+        if(reader != null) { reader.cancel(true); }
+        prefetched.clear();
+    }
+
+    private void startReader() throws AnsibleTowerException {
+        // Settle the auth here so the reader doesn't go and get its own token
+        connector.authenticate();
+        reader = executor.submit(new Runnable() {
+            public void run() {
+                int pageNumber = 2;
+                while(!closed) {
+                    Page page;
+                    try {
+                        page = readPage(pageNumber++);
+                    } catch(Throwable t) {
+                        // The caller is waiting on us, whatever went wrong has to reach it as a page
+                        page = new Page(Collections.<Event>emptyList(), false,
+                                new AnsibleTowerException("Unable to read "+ description +": "+ t));
+                    }
+                    try {
+                        // Wait for the caller to catch up, but not for a caller that has gone away
+                        while(!prefetched.offer(page, 1, TimeUnit.SECONDS)) {
+                            if(closed) { return; }
+                        }
+                    } catch(InterruptedException ie) {
+                        return;
+                    }
+                    if(!page.hasNext || page.error != null) { return; }
+                }
+            }
+        });
+    }
+
+    private Page readPage(int pageNumber) {
+        String url = endpoint +"?id__gt="+ afterId +"&order_by=id&page="+ pageNumber;
+        if(pageSize > 0) { url += "&page_size="+ pageSize; }
+        if(filter != null) { url += "&"+ filter; }
+        TowerEventPage page = null;
+        try {
+            HttpResponse response = connector.makeStreamingRequest(url);
+            if(response.getStatusLine().getStatusCode() != 200) {
+                throw new AnsibleTowerException("Unexpected error code returned when getting "+ description +" ("+ response.getStatusLine().getStatusCode() +")");
+            }
+            page = new TowerEventPage(response.getEntity().getContent(), withResultMessages);
+            List<Event> events = new ArrayList<Event>();
+            while(page.nextEvent()) {
+                String stdout = page.getStdout();
+                if(withResultMessages && page.getResultMessage() != null) { stdout = page.getResultMessage(); }
+                events.add(new Event(page.getId(), page.getCounter(), stdout));
+            }
+            return new Page(events, page.hasNextPage(), null);
+        } catch(AnsibleTowerException ate) {
+            return new Page(Collections.<Event>emptyList(), false, ate);
+        } catch(IOException ioe) {
+            return new Page(Collections.<Event>emptyList(), false,
+                    new AnsibleTowerException("Unable to read "+ description +" and convert them from json: "+ ioe.getMessage()));
+        } finally {
+            if(page != null) {
+                try {
+                    page.close();
+                } catch(IOException ioe) {
+                    // The connection is thrown away instead of going back to the pool, nothing else to do
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This class is the events of one job as they come in over Tower's websocket (the job_events-{id} group).
+    Tower doesn't promise the events arrive in order, so they are held until every event before them (by counter) is
+    here. If one goes missing for a while, or the socket drops, the connector fills the gap with a REST read and tells
+    us which counters it logged so we don't log them twice. What has been logged, from either side, is kept in the
+    job's TowerLoggedCounters.
+ */
+
+import net.sf.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class TowerEventStream implements TowerWebSocket.Listener {
+    // How long an event can be missing before we go and get it ourselves
+    private static final long GAP_TIMEOUT = 2000;
+
+    private final int jobId;
+    private final Runnable onActivity;
+    // Filled by the socket's reader thread
+    private final ConcurrentLinkedQueue<JSONObject> received = new ConcurrentLinkedQueue<JSONObject>();
+    // Everything below is only touched by whoever is reading the logs (the monitor, under the handle's lock)
+    private final TreeMap<Integer, JSONObject> pending = new TreeMap<Integer, JSONObject>();
+    private final TowerLoggedCounters logged;
+    private long gapSince = 0;
+    private TowerWebSocket socket = null;
+    private volatile boolean closed = false;
+    private volatile String closeReason = null;
+
+    /*
+        logged is what has already been logged for the job (and is updated as we log more), onActivity is run (on the
+        socket's thread) whenever events arrive or the socket closes
+     */
+    public TowerEventStream(int jobId, TowerLoggedCounters logged, Runnable onActivity) {
+        this.jobId = jobId;
+        this.logged = logged;
+        this.onActivity = onActivity;
+    }
+
+    public void setSocket(TowerWebSocket socket) { this.socket = socket; }
+
+    public void onMessage(String message) {
+        JSONObject event;
+        try {
+            event = JSONObject.fromObject(message);
+        } catch(RuntimeException re) {
+            // Not something we understand, Tower sends a few control messages we don't care about
+            return;
+        }
+        if(event.containsKey("accept") && !event.optBoolean("accept", true)) {
+            onClose("Tower did not accept the websocket");
+            close();
+            return;
+        }
+        if(!"job_events".equals(event.optString("group_name", null))) { return; }
+        if(event.optInt("job", -1) != jobId || !event.containsKey("counter")) { return; }
+        received.add(event);
+        onActivity.run();
+    }
+
+    public void onClose(String reason) {
+        if(closed) { return; }
+        closeReason = reason;
+        closed = true;
+        onActivity.run();
+    }
+
+    public boolean isOpen() { return !closed; }
+    public String getCloseReason() { return closeReason; }
+
+    public void close() {
+        closed = true;
+        if(socket != null) { socket.close(); }
+    }
+
+    // The events that are ready to log, in counter order with nothing missing before them
+    public List<JSONObject> takeReady() {
+        drain();
+        List<JSONObject> ready = new ArrayList<JSONObject>();
+        while(!pending.isEmpty()) {
+            int next = pending.firstKey();
+            if(logged.contains(next)) {
+                // A REST read got to it first
+                pending.pollFirstEntry();
+                continue;
+            }
+            if(next != logged.getThrough() + 1) { break; }
+            ready.add(pending.pollFirstEntry().getValue());
+            logged.add(next);
+        }
+        if(pending.isEmpty()) {
+            gapSince = 0;
+        } else if(gapSince == 0) {
+            gapSince = System.currentTimeMillis();
+        }
+        return ready;
+    }
+
+    // Everything we are still holding on to, gaps or not. Used once the job is done and nothing else is coming.
+    public List<JSONObject> takeAll() {
+        drain();
+        List<JSONObject> all = new ArrayList<JSONObject>(pending.values());
+        for(Integer counter : pending.keySet()) { logged.add(counter); }
+        pending.clear();
+        gapSince = 0;
+        return all;
+    }
+
+    // True if an event has been missing for too long
+    public boolean hasStaleGap() {
+        return gapSince != 0 && System.currentTimeMillis() - gapSince > GAP_TIMEOUT;
+    }
+
+    // Every event up to this counter has been logged
+    public int getLastCounter() { return logged.getThrough(); }
+
+    public boolean isLogged(int counter) { return logged.contains(counter); }
+
+    /*
+        An event was logged from somewhere else (a REST read), don't log it again when the socket has it. Events
+        before it that neither side has seen yet are still logged when they show up.
+     */
+    public void delivered(int counter) {
+        logged.add(counter);
+        pending.remove(counter);
+        if(pending.isEmpty()) { gapSince = 0; }
+    }
+
+    private void drain() {
+        JSONObject event;
+        while((event = received.poll()) != null) {
+            int counter = event.getInt("counter");
+            if(!logged.contains(counter)) { pending.put(counter, event); }
+        }
+    }
+}
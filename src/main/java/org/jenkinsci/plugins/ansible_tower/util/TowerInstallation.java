@@ -6,11 +6,10 @@ package org.jenkinsci.plugins.ansible_tower.util;
 
 import static com.cloudbees.plugins.credentials.CredentialsMatchers.instanceOf;
 
-import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
 import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
-import com.cloudbees.plugins.credentials.domains.DomainRequirement;
 import hudson.model.Run;
 import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.plaincredentials.StringCredentials;
@@ -23,13 +22,12 @@ import hudson.util.ListBoxModel;
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
 import org.kohsuke.stapler.verb.POST;
 
-import java.util.List;
-
 public class TowerInstallation extends AbstractDescribableImpl<TowerInstallation> {
     private static final long getSerialVersionUID = 1L;
 
@@ -38,6 +36,13 @@ public class TowerInstallation extends AbstractDescribableImpl<TowerInstallation
     private String towerCredentialsId;
     private final boolean towerTrustCert;
     private final boolean enableDebugging;
+    private String towerCACertificateFile = null;
+    // Seconds, 0 means use the global max poll interval
+    private int maxPollInterval = 0;
+    // How running jobs' output is read, rest, websocket or stdout
+    private String logTransport = TowerConnector.REST_LOG_TRANSPORT;
+    // Events per page when importing output, 0 means Tower's default
+    private int eventPageSize = 0;
     private Run run;
 
     @DataBoundConstructor
@@ -54,58 +59,92 @@ public class TowerInstallation extends AbstractDescribableImpl<TowerInstallation
     public String getTowerCredentialsId() { return this.towerCredentialsId; }
     public boolean getTowerTrustCert() { return this.towerTrustCert; }
     public boolean getEnableDebugging() { return this.enableDebugging; }
+    public String getTowerCACertificateFile() { return this.towerCACertificateFile; }
+    public int getMaxPollInterval() { return this.maxPollInterval; }
+    public String getLogTransport() { return this.logTransport == null ? TowerConnector.REST_LOG_TRANSPORT : this.logTransport; }
+    public int getEventPageSize() { return this.eventPageSize; }
+
+    @DataBoundSetter
+    public void setTowerCACertificateFile(String towerCACertificateFile) { this.towerCACertificateFile = towerCACertificateFile; }
+
+    @DataBoundSetter
+    public void setMaxPollInterval(int maxPollInterval) { this.maxPollInterval = maxPollInterval; }
 
+    @DataBoundSetter
+    public void setLogTransport(String logTransport) { this.logTransport = logTransport; }
+
+    @DataBoundSetter
+    public void setEventPageSize(int eventPageSize) { this.eventPageSize = eventPageSize; }
+
+    /**
+     * @deprecated
+     * Installations are shared by all builds, use withOverrides
+     */
+    @Deprecated
     public void setTowerCredentialsId(String towerCredentialsId) { this.towerCredentialsId = towerCredentialsId; }
+    /**
+     * @deprecated
+     * Installations are shared by all builds, use withOverrides
+     */
+    @Deprecated
     public void setRun(Run run) { this.run = run; }
 
+    public TowerInstallationView withOverrides(String towerCredentialsId, Run run) {
+        return new TowerInstallationView(this, towerCredentialsId, run);
+    }
+
     public TowerConnector getTowerConnector() {
-        return TowerInstallation.getTowerConnectorStatic(this.towerURL, this.towerCredentialsId, this.towerTrustCert,
-                this.enableDebugging, this.run);
+        TowerConnector connector = TowerInstallation.getTowerConnectorStatic(this.towerURL, this.towerCredentialsId, this.towerTrustCert,
+                this.towerCACertificateFile, this.enableDebugging, this.run);
+        connector.setMaxPollInterval(this.maxPollInterval);
+        connector.setLogTransport(this.getLogTransport());
+        connector.setEventPageSize(this.eventPageSize);
+        return connector;
     }
 
     public static TowerConnector getTowerConnectorStatic(String towerURL, String towerCredentialsId, boolean trustCert,
                                                          boolean enableDebugging, Run run) {
+        return getTowerConnectorStatic(towerURL, towerCredentialsId, trustCert, null, enableDebugging, run);
+    }
+
+    public static TowerConnector getTowerConnectorStatic(String towerURL, String towerCredentialsId, boolean trustCert,
+                                                         String caCertificateFile, boolean enableDebugging, Run run) {
         String username = null;
         String password = null;
         String oauth_token = null;
         if (StringUtils.isNotBlank(towerCredentialsId)) {
-            List<StandardUsernamePasswordCredentials> credsList = getCredsList(StandardUsernamePasswordCredentials.class, run);
-            for (StandardUsernamePasswordCredentials creds : credsList) {
-                if (creds.getId().equals(towerCredentialsId)) {
-                    username = creds.getUsername();
-                    password = creds.getPassword().getPlainText();
-                }
-            }
-            List<StringCredentials> secretList = getCredsList(StringCredentials.class, run);
-            for (StringCredentials secret : secretList) {
-                if (secret.getId().equals(towerCredentialsId)) {
-                    oauth_token = secret.getSecret().getPlainText();
-                }
+            StandardCredentials creds = TowerCredentialsCache.lookup(towerCredentialsId, run);
+            if (creds instanceof StandardUsernamePasswordCredentials) {
+                username = ((StandardUsernamePasswordCredentials) creds).getUsername();
+                password = ((StandardUsernamePasswordCredentials) creds).getPassword().getPlainText();
+            } else if (creds instanceof StringCredentials) {
+                oauth_token = ((StringCredentials) creds).getSecret().getPlainText();
             }
         }
         TowerConnector testConnector = new TowerConnector(towerURL, username, password, oauth_token, trustCert, enableDebugging);
+        testConnector.setCACertificateFile(caCertificateFile);
+        testConnector.setCredentialsId(towerCredentialsId);
         return testConnector;
     }
 
-    private static <C extends Credentials> List<C> getCredsList(Class<C> type, Run run) {
-        List<C> credsList;
+    @Extension
+    public static class TowerInstallationDescriptor extends Descriptor<TowerInstallation> {
 
-        if (run != null) {
-            try {
-                credsList = CredentialsProvider.lookupCredentials(type,
-                        run.getParent(), null, new DomainRequirement());
-            } catch (NullPointerException e) {
-                credsList = CredentialsProvider.lookupCredentials(type);
-            }
-        } else {
-            credsList = CredentialsProvider.lookupCredentials(type);
+        public ListBoxModel doFillLogTransportItems() {
+            ListBoxModel items = new ListBoxModel();
+            items.add(TowerConnector.REST_LOG_TRANSPORT);
+            items.add(TowerConnector.WEBSOCKET_LOG_TRANSPORT);
+            items.add(TowerConnector.STDOUT_LOG_TRANSPORT);
+            return items;
         }
 
-        return credsList;
-    }
-
-    @Extension
-    public static class TowerInstallationDescriptor extends Descriptor<TowerInstallation> {
+        public FormValidation doCheckEventPageSize(@QueryParameter int value) {
+            if(value < 0) { return FormValidation.error("The page size can't be negative"); }
+            if(value > TowerConnector.MAX_EVENT_PAGE_SIZE) {
+                return FormValidation.warning("Tower won't return more than "+ TowerConnector.MAX_EVENT_PAGE_SIZE +" events per page");
+            }
+            return FormValidation.ok();
+        }
 
         // This requires a POST method to protect from CSFR
         @POST
@@ -113,12 +152,13 @@ public class TowerInstallation extends AbstractDescribableImpl<TowerInstallation
                 @QueryParameter("towerURL") final String towerURL,
                 @QueryParameter("towerCredentialsId") final String towerCredentialsId,
                 @QueryParameter("towerTrustCert") final boolean towerTrustCert,
+                @QueryParameter("towerCACertificateFile") final String towerCACertificateFile,
                 @QueryParameter("enableDebugging") final boolean enableDebugging
         ) {
             // Also, validate that we are an Administrator
             Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
             TowerLogger.writeMessage("Starting to test connection with (" + towerURL + ") and (" + towerCredentialsId + ") and (" + towerTrustCert + ") with debugging (" + enableDebugging + ")");
-            TowerConnector testConnector = TowerInstallation.getTowerConnectorStatic(towerURL, towerCredentialsId, towerTrustCert, enableDebugging, null);
+            TowerConnector testConnector = TowerInstallation.getTowerConnectorStatic(towerURL, towerCredentialsId, towerTrustCert, towerCACertificateFile, enableDebugging, null);
             try {
                 testConnector.testConnection();
                 return FormValidation.ok("Success");
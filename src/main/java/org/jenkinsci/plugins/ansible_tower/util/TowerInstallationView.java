@@ -0,0 +1,39 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This class is a per step view of a configured Tower installation.
+    The installations from the global config are shared by every build so instead of changing them we wrap
+    them with the credential override and the run a step is using.
+ */
+
+import hudson.model.Run;
+
+public class TowerInstallationView {
+    private final TowerInstallation installation;
+    private final String towerCredentialsId;
+    private final Run run;
+
+    public TowerInstallationView(TowerInstallation installation, String towerCredentialsId, Run run) {
+        this.installation = installation;
+        if(towerCredentialsId != null && !towerCredentialsId.equals("")) {
+            this.towerCredentialsId = towerCredentialsId;
+        } else {
+            this.towerCredentialsId = installation.getTowerCredentialsId();
+        }
+        this.run = run;
+    }
+
+    public TowerInstallation getInstallation() { return this.installation; }
+    public String getTowerCredentialsId() { return this.towerCredentialsId; }
+    public Run getRun() { return this.run; }
+
+    public TowerConnector getTowerConnector() {
+        TowerConnector connector = TowerInstallation.getTowerConnectorStatic(installation.getTowerURL(), this.towerCredentialsId,
+                installation.getTowerTrustCert(), installation.getTowerCACertificateFile(),
+                installation.getEnableDebugging(), this.run);
+        connector.setMaxPollInterval(installation.getMaxPollInterval());
+        connector.setLogTransport(installation.getLogTransport());
+        connector.setEventPageSize(installation.getEventPageSize());
+        return connector;
+    }
+}
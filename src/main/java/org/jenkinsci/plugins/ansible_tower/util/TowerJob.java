@@ -1,15 +1,22 @@
 package org.jenkinsci.plugins.ansible_tower.util;
 
+import net.sf.json.JSONObject;
 import org.jenkinsci.plugins.ansible_tower.exceptions.AnsibleTowerException;
 
 import java.util.HashMap;
 import java.util.Vector;
 import java.io.Serializable;
 
-public class TowerJob  implements Serializable {
+public class TowerJob  implements Serializable, TowerMonitorTarget {
     private int jobId = -1;
     private TowerConnector connection;
     private String templateType = null;
+    // The last status the job monitor got for us, only good for one isComplete()
+    private transient volatile JSONObject polledStatus = null;
+    // The latest full read of the job, all of the questions below are answered from it
+    private volatile TowerJobSnapshot snapshot = null;
+    // The output we follow (if any) doesn't have all of the exports, they are read from the events that have them once we are done
+    private boolean readExportsWhenDone = false;
     private static final long serialVersionUID = -323790358606407805L;
 
     public TowerJob(TowerConnector connection) {
@@ -23,31 +30,73 @@ public class TowerJob  implements Serializable {
         this.templateType = templateType;
     }
     public void setJobId(Integer jobId) { this.jobId = jobId; }
+    public void setReadExportsWhenDone(boolean readExportsWhenDone) { this.readExportsWhenDone = readExportsWhenDone; }
     public Integer getJobID() { return this.jobId; }
 
     @SuppressWarnings("unused")
     public boolean isComplete() throws AnsibleTowerException {
         if(this.jobId == -1) { throw new AnsibleTowerException("Job ID was not set"); }
-        return connection.isJobCompleted(this.jobId, this.templateType);
+        JSONObject status = this.polledStatus;
+        this.polledStatus = null;
+        if(status != null && !TowerJobMonitor.isFinished(status)) { return false; }
+        // Either we have nothing polled or we are done, in which case this final read picks up the artifacts
+        return this.refresh().isFinished();
     }
 
     @SuppressWarnings("unused")
     public boolean wasSuccessful() throws AnsibleTowerException {
         if(this.jobId == -1) { throw new AnsibleTowerException("Job ID was not set"); }
-        return !connection.isJobFailed(this.jobId, this.templateType);
+        TowerJobSnapshot current = this.snapshot;
+        // A finished job doesn't change anymore so there is no need to ask Tower again
+        if(current == null || !current.isFinished()) { current = this.refresh(); }
+        return !current.isFailed();
+    }
+
+    // The state of the job as of the last time we read it, null if we haven't yet
+    public TowerJobSnapshot getSnapshot() { return this.snapshot; }
+
+    private TowerJobSnapshot refresh() throws AnsibleTowerException {
+        this.snapshot = connection.getJobSnapshot(this.jobId, this.templateType);
+        return this.snapshot;
     }
 
     @SuppressWarnings("unused")
     public Vector<String> getLogs() throws AnsibleTowerException {
+        TowerLogSink.Collector collector = new TowerLogSink.Collector();
+        this.streamLogs(collector);
+        return collector.getLines();
+    }
+
+    public void streamLogs(TowerLogSink sink) throws AnsibleTowerException {
         if(this.jobId == -1) { throw new AnsibleTowerException("Job ID was not set"); }
-        return this.connection.getLogEvents(this.jobId, this.templateType);
+        // Once we have seen the job finish this is the last read, the connector can wrap up anything it was streaming
+        TowerJobSnapshot current = this.snapshot;
+        this.connection.streamLogEvents(this.jobId, this.templateType, current != null && current.isFinished(), sink);
     }
 
+    public boolean lastLogPageWasFull() { return this.connection.getLastEventPageFull(); }
+
     public HashMap<String, String> getExports() throws AnsibleTowerException {
         if(this.jobId == -1) { throw new AnsibleTowerException("Job ID was not set"); }
-        return this.connection.getJenkinsExports();
+        // Variables exported in the logs win over the artifacts, they are read after the job finished
+        HashMap<String, String> exports = new HashMap<String, String>();
+        TowerJobSnapshot current = this.snapshot;
+        if(current != null) { exports.putAll(current.getArtifacts()); }
+        if(this.readExportsWhenDone && current != null && current.isFinished()) {
+            this.connection.readExportEvents(this.jobId);
+        }
+        exports.putAll(this.connection.getJenkinsExports());
+        return exports;
     }
 
+    public String getDescription() { return "job"; }
+
+    public void cancel() throws AnsibleTowerException { this.cancelJob(); }
+
+    public TowerConnector getConnector() { return this.connection; }
+    public int getUnifiedJobId() { return this.jobId; }
+    public void setPolledStatus(JSONObject unifiedJob) { this.polledStatus = unifiedJob; }
+
     public void cancelJob() throws AnsibleTowerException {
         if(this.jobId == -1) { throw new AnsibleTowerException("Job ID was not set"); }
         this.connection.cancelJob(this.jobId, this.templateType);
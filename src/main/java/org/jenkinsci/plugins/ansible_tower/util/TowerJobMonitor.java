@@ -0,0 +1,406 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This class watches every job and project sync that a build is waiting on.
+    Instead of each build sleeping in its own polling loop, builds register what they launched and get back a future
+    that completes with the result. A small scheduled pool shared by the whole plugin does the polling, hands new log
+    lines to the build and carries out cancellations, so the number of threads doesn't grow with the number of builds.
+
+    Everything running on the same Tower (as the same user) is checked together: once per tick we get the status of
+    all of them that are due with one /unified_jobs/?id__in= request and then only the jobs that need it do their own
+    reads (logs, and the final read of a finished job which picks up its artifacts).
+
+    Jobs are polled quickly right after launch and then less and less often (doubling up to a ceiling) so a short job
+    is noticed right away and a five hour deploy doesn't cost thousands of requests. A job that just gave us a full
+    page of events is busy so it is polled again on the next tick.
+
+    If Tower is set up to send webhook notifications to Jenkins (see AnsibleTowerWebhook) a finished job is polled
+    as soon as the notification comes in, so its status checks are only a safety net for lost notifications and back
+    off to the (much longer) webhook status interval instead. Reading the logs isn't something a webhook tells us
+    about, so a job that is logging keeps being polled for its events on the normal schedule.
+ */
+
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.ansible_tower.exceptions.AnsibleTowerException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class TowerJobMonitor {
+    private static final int THREADS = 4;
+    public static final int DEFAULT_INITIAL_POLL_INTERVAL = 1;
+    public static final int DEFAULT_MAX_POLL_INTERVAL = 30;
+    public static final int DEFAULT_WEBHOOK_STATUS_INTERVAL = 300;
+    // How often we look for jobs that are due, this is as fast as any job can be polled
+    private static final long TICK = 500;
+
+    private static volatile long initialPollInterval = TimeUnit.SECONDS.toMillis(DEFAULT_INITIAL_POLL_INTERVAL);
+    private static volatile long maxPollInterval = TimeUnit.SECONDS.toMillis(DEFAULT_MAX_POLL_INTERVAL);
+    // The status ceiling while webhooks are on, 0 when they are off and status is checked with every poll
+    private static volatile long webhookStatusInterval = 0;
+
+    private static final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(THREADS, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Ansible Tower job monitor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private static final Map<String, Group> groups = new ConcurrentHashMap<String, Group>();
+
+    public interface LogListener {
+        // Called from a monitor thread with each new batch of log lines
+        void onLogs(Vector<String> lines);
+    }
+
+    // Hands a LogListener the lines one page at a time, for builds that haven't moved to a TowerLogSink
+    private static class ListenerSink implements TowerLogSink {
+        private final LogListener listener;
+        private Vector<String> lines = new Vector<String>();
+
+        ListenerSink(LogListener listener) { this.listener = listener; }
+
+        public void onLine(String line) { lines.add(line); }
+
+        public void flush() {
+            if(lines.isEmpty()) { return; }
+            Vector<String> batch = lines;
+            lines = new Vector<String>();
+            listener.onLogs(batch);
+        }
+    }
+
+    public static class Handle {
+        private final TowerMonitorTarget target;
+        private final TowerLogSink sink;
+        private final CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+        private final Object pollLock = new Object();
+        // Keeps a slow poll from piling up more polls behind it
+        private final AtomicBoolean queued = new AtomicBoolean(false);
+        private final AtomicBoolean logsQueued = new AtomicBoolean(false);
+        private volatile CompletableFuture<Void> cancellation = null;
+        // Only touched while holding the pollLock
+        private long interval;
+        private long statusInterval;
+        private volatile long nextPollAt;
+        private volatile long nextStatusAt;
+
+        private Handle(TowerMonitorTarget target, TowerLogSink sink) {
+            this.target = target;
+            this.sink = sink;
+            this.interval = initialPollInterval;
+            this.statusInterval = initialPollInterval;
+            this.nextPollAt = System.currentTimeMillis();
+            this.nextStatusAt = this.nextPollAt;
+        }
+
+        private boolean isStatusDue(long now) {
+            return webhookStatusInterval == 0 || nextStatusAt <= now;
+        }
+
+        public TowerMonitorTarget getTarget() { return target; }
+
+        // Completes with whether the job succeeded, or exceptionally with an AnsibleTowerException
+        public CompletableFuture<Boolean> getResult() { return result; }
+
+        // Asks the monitor to cancel the job in Tower, the returned future completes once Tower has been told
+        public synchronized CompletableFuture<Void> cancel() {
+            if(cancellation == null) {
+                cancellation = new CompletableFuture<Void>();
+                scheduler.execute(new Runnable() {
+                    public void run() { poll(Handle.this); }
+                });
+            }
+            return cancellation;
+        }
+    }
+
+    // All of the handles being watched on one Tower as one user
+    private static class Group {
+        private final String key;
+        private final Set<Handle> handles = ConcurrentHashMap.newKeySet();
+        private ScheduledFuture<?> tick = null;
+
+        Group(String key) { this.key = key; }
+    }
+
+    /*
+        listener can be null if the build doesn't want any logs
+     */
+    public static Handle register(TowerMonitorTarget target, LogListener listener) {
+        return register(target, listener == null ? null : new ListenerSink(listener));
+    }
+
+    /*
+        The lines are pushed into sink (from a monitor thread) as each page of events is read.
+        sink can be null if the build doesn't want any logs
+     */
+    public static Handle register(TowerMonitorTarget target, TowerLogSink sink) {
+        final Handle handle = new Handle(target, sink);
+        String key = target.getConnector().getConnectionKey();
+        synchronized(groups) {
+            Group group = groups.get(key);
+            if(group == null) {
+                final Group newGroup = new Group(key);
+                newGroup.tick = scheduler.scheduleWithFixedDelay(new Runnable() {
+                    public void run() {
+                        // Anything thrown out of here would quietly end the schedule and every job in the group with it
+                        try {
+                            tick(newGroup);
+                        } catch(Throwable t) {
+                            TowerLogger.writeMessage("Failed to check on running Tower jobs: "+ t);
+                        }
+                    }
+                }, TICK, TICK, TimeUnit.MILLISECONDS);
+                groups.put(key, newGroup);
+                group = newGroup;
+            }
+            group.handles.add(handle);
+        }
+        // Look at it right away, a job can finish before the first tick
+        queuePoll(handle);
+        return handle;
+    }
+
+    /*
+        Called by the global config whenever it is loaded or saved.
+        webhooks is whether Tower has been set up to notify us (there is a webhook token), only then are status checks
+        stretched out to newWebhookStatusInterval
+     */
+    public static void configure(int newInitialPollInterval, int newMaxPollInterval, boolean webhooks, int newWebhookStatusInterval) {
+        initialPollInterval = TimeUnit.SECONDS.toMillis(Math.max(newInitialPollInterval, 1));
+        maxPollInterval = Math.max(TimeUnit.SECONDS.toMillis(newMaxPollInterval), initialPollInterval);
+        webhookStatusInterval = webhooks ? Math.max(TimeUnit.SECONDS.toMillis(newWebhookStatusInterval), initialPollInterval) : 0;
+    }
+
+    /*
+        Tower told us something happened to this job (i.e. through a webhook), check on it now instead of waiting for
+        its next poll. We don't take the notification's word for the result, the poll reads it from Tower.
+        Returns how many watched jobs matched, ids are only unique within one Tower so this can be more than one.
+     */
+    public static int pollNow(int unifiedJobId) {
+        int matched = 0;
+        for(Group group : groups.values()) {
+            for(Handle handle : group.handles) {
+                if(handle.result.isDone() || handle.target.getUnifiedJobId() != unifiedJobId) { continue; }
+                handle.nextStatusAt = System.currentTimeMillis();
+                handle.nextPollAt = handle.nextStatusAt;
+                queuePoll(handle);
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    /*
+        New log events are waiting for this job (i.e. on a websocket), hand them to the build now. This only reads the
+        logs, the job's status is still checked on its normal schedule.
+     */
+    public static void pollLogs(String connectionKey, int unifiedJobId) {
+        Group group = groups.get(connectionKey);
+        if(group == null) { return; }
+        for(final Handle handle : group.handles) {
+            if(handle.result.isDone() || handle.sink == null || handle.target.getUnifiedJobId() != unifiedJobId) { continue; }
+            if(!handle.logsQueued.compareAndSet(false, true)) { continue; }
+            scheduler.execute(new Runnable() {
+                public void run() {
+                    // Cleared first so events that arrive while we read queue another read
+                    handle.logsQueued.set(false);
+                    synchronized(handle.pollLock) {
+                        if(handle.result.isDone() || handle.cancellation != null) { return; }
+                        try {
+                            deliverLogs(handle, "Failed to get "+ handle.target.getDescription() +" events from tower: ");
+                        } catch(AnsibleTowerException ate) {
+                            // The next regular poll reads them again and fails the build if it keeps happening
+                            TowerLogger.writeMessage(ate.getMessage());
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    // True if a job's status (from /unified_jobs/ or the job itself) says it is done
+    public static boolean isFinished(JSONObject status) {
+        if(!status.containsKey("finished")) { return false; }
+        String finished = status.getString("finished");
+        return finished != null && !finished.equalsIgnoreCase("null");
+    }
+
+    private static void tick(Group group) {
+        List<Handle> due = new ArrayList<Handle>();
+        List<Handle> statusDue = new ArrayList<Handle>();
+        long now = System.currentTimeMillis();
+        for(Handle handle : group.handles) {
+            if(handle.result.isDone()) {
+                group.handles.remove(handle);
+            } else if(handle.nextPollAt <= now && !handle.queued.get()) {
+                due.add(handle);
+                if(handle.isStatusDue(now)) { statusDue.add(handle); }
+            }
+        }
+        if(group.handles.isEmpty()) {
+            synchronized(groups) {
+                if(group.handles.isEmpty()) {
+                    group.tick.cancel(false);
+                    groups.remove(group.key);
+                }
+            }
+            return;
+        }
+        if(due.isEmpty()) { return; }
+
+        if(!statusDue.isEmpty()) { fetchStatuses(statusDue); }
+        for(Handle handle : due) {
+            queuePoll(handle);
+        }
+    }
+
+    private static void fetchStatuses(List<Handle> active) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for(Handle handle : active) {
+            ids.add(handle.target.getUnifiedJobId());
+        }
+
+        // Borrow the connector of one of the builds, holding its lock so it can't finish (and let go of its token)
+        // while we are using it
+        Map<Integer, JSONObject> statuses = null;
+        for(Handle lead : active) {
+            synchronized(lead.pollLock) {
+                if(lead.result.isDone()) { continue; }
+                try {
+                    statuses = lead.target.getConnector().getUnifiedJobStatuses(ids);
+                } catch(AnsibleTowerException ate) {
+                    // The polls will fall back to reading each job themselves
+                    TowerLogger.writeMessage("Failed to get job statuses from "+ lead.target.getConnector().getURL() +": "+ ate.getMessage());
+                } catch(RuntimeException re) {
+                    // i.e. a proxy answering with a page that isn't json
+                    TowerLogger.writeMessage("Unable to read job statuses from "+ lead.target.getConnector().getURL() +": "+ re);
+                }
+                break;
+            }
+        }
+        if(statuses == null) { return; }
+
+        for(Handle handle : active) {
+            handle.target.setPolledStatus(statuses.get(handle.target.getUnifiedJobId()));
+        }
+    }
+
+    private static void queuePoll(final Handle handle) {
+        if(!handle.queued.compareAndSet(false, true)) { return; }
+        scheduler.execute(new Runnable() {
+            public void run() {
+                try {
+                    poll(handle);
+                } finally {
+                    handle.queued.set(false);
+                }
+            }
+        });
+    }
+
+    private static void poll(final Handle handle) {
+        // A cancel and a scheduled poll can both land here, only one of them may talk to the connector at a time
+        synchronized(handle.pollLock) {
+            if(handle.cancellation != null && !handle.cancellation.isDone()) {
+                if(handle.result.isDone()) {
+                    // Already finished in Tower, there is nothing left to cancel
+                    handle.cancellation.complete(null);
+                    return;
+                }
+                try {
+                    handle.target.cancel();
+                    handle.cancellation.complete(null);
+                } catch(Exception e) {
+                    handle.cancellation.completeExceptionally(e);
+                }
+                handle.result.cancel(false);
+                return;
+            }
+            if(handle.result.isDone()) { return; }
+
+            String description = handle.target.getDescription();
+            boolean completed;
+            try {
+                deliverLogs(handle, "Failed to get "+ description +" events from tower: ");
+                if(!handle.isStatusDue(System.currentTimeMillis())) {
+                    // Only here for the logs, the webhook (or the safety net) covers the status
+                    scheduleNextPoll(handle, false);
+                    return;
+                }
+                try {
+                    completed = handle.target.isComplete();
+                } catch(AnsibleTowerException ate) {
+                    throw new AnsibleTowerException("Failed to get "+ description +" status from Tower: "+ ate.getMessage());
+                }
+                if(completed) {
+                    // Note, that a job can complete long before Tower has finished consuming the logs. This can cause
+                    //    incomplete logs within Jenkins.
+                    deliverLogs(handle, "Failed to get final "+ description +" events from tower: ");
+                    try {
+                        handle.result.complete(handle.target.wasSuccessful());
+                    } catch(AnsibleTowerException ate) {
+                        throw new AnsibleTowerException("Failed to get "+ description +" compltion status: "+ ate.getMessage());
+                    }
+                    return;
+                }
+            } catch(Throwable t) {
+                // Whatever went wrong the build has to hear about it, a poll that just stops would leave it waiting
+                handle.result.completeExceptionally(t);
+                return;
+            }
+            scheduleNextPoll(handle, true);
+        }
+    }
+
+    // statusChecked is whether this poll asked Tower for the status, only then does the status check back off
+    private static void scheduleNextPoll(Handle handle, boolean statusChecked) {
+        long now = System.currentTimeMillis();
+        long ceiling = maxPollInterval;
+        int installationCeiling = handle.target.getConnector().getMaxPollInterval();
+        if(installationCeiling > 0) {
+            ceiling = Math.max(TimeUnit.SECONDS.toMillis(installationCeiling), initialPollInterval);
+        }
+        long statusCeiling = webhookStatusInterval;
+        if(statusCeiling != 0 && statusChecked) {
+            handle.nextStatusAt = now + handle.statusInterval;
+            handle.statusInterval = Math.min(handle.statusInterval * 2, Math.max(statusCeiling, ceiling));
+        }
+
+        if(handle.sink != null && handle.target.lastLogPageWasFull()) {
+            // It is producing output faster than a page per poll, come right back
+            handle.interval = initialPollInterval;
+            handle.nextPollAt = now;
+            return;
+        }
+        long next = now + handle.interval;
+        handle.interval = Math.min(handle.interval * 2, ceiling);
+        if(statusCeiling != 0) {
+            // The logs keep their schedule, without any logs to read only the status check brings us back
+            next = handle.sink == null ? handle.nextStatusAt : Math.min(next, handle.nextStatusAt);
+        }
+        handle.nextPollAt = next;
+    }
+
+    private static void deliverLogs(Handle handle, String errorPrefix) throws AnsibleTowerException {
+        if(handle.sink == null) { return; }
+        try {
+            handle.target.streamLogs(handle.sink);
+        } catch(AnsibleTowerException ate) {
+            throw new AnsibleTowerException(errorPrefix + ate.getMessage());
+        } finally {
+            handle.sink.flush();
+        }
+    }
+}
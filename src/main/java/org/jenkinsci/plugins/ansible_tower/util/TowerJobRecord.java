@@ -0,0 +1,77 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This class is what a pipeline step needs to remember to pick a running Tower job back up after Jenkins restarts.
+    It is saved with the step: which Tower (and credential) the job runs on, the job itself, how its logs are being
+    imported and how far we got with them, plus any variables the job has exported so far.
+    The cursors and exports are replaced (never changed in place) so the record can be saved while the monitor is
+    still updating it.
+ */
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TowerJobRecord implements Serializable {
+    private static final long serialVersionUID = 1L;
+    // Used as the template type of a project sync
+    public static final String PROJECT_SYNC_TYPE = "project_sync";
+
+    private final String towerServer;
+    private final String towerCredentialsId;
+    private final String templateType;
+    private final int jobId;
+    private final String importTowerLogs;
+    private final boolean removeColor;
+    private final boolean importWorkflowChildLogs;
+
+    private volatile HashMap<Integer, Integer> jobEventCursors = new HashMap<Integer, Integer>();
+    private volatile HashMap<Integer, Integer> workflowEventCursors = new HashMap<Integer, Integer>();
+    private volatile HashMap<Integer, Integer> stdoutCursors = new HashMap<Integer, Integer>();
+    // For streamed jobs, the counter everything up to has been logged (see TowerLoggedCounters)
+    private volatile HashMap<Integer, Integer> counterCursors = new HashMap<Integer, Integer>();
+    private volatile int syncEventCursor = 0;
+    private volatile HashMap<String, String> exports = new HashMap<String, String>();
+
+    public TowerJobRecord(String towerServer, String towerCredentialsId, String templateType, int jobId,
+                          String importTowerLogs, boolean removeColor, boolean importWorkflowChildLogs) {
+        this.towerServer = towerServer;
+        this.towerCredentialsId = towerCredentialsId;
+        this.templateType = templateType;
+        this.jobId = jobId;
+        this.importTowerLogs = importTowerLogs;
+        this.removeColor = removeColor;
+        this.importWorkflowChildLogs = importWorkflowChildLogs;
+    }
+
+    public String getTowerServer() { return towerServer; }
+    public String getTowerCredentialsId() { return towerCredentialsId; }
+    public String getTemplateType() { return templateType; }
+    public boolean isProjectSync() { return PROJECT_SYNC_TYPE.equals(templateType); }
+    public int getJobId() { return jobId; }
+    public String getImportTowerLogs() { return importTowerLogs; }
+    public boolean getRemoveColor() { return removeColor; }
+    public boolean getImportWorkflowChildLogs() { return importWorkflowChildLogs; }
+
+    public Map<Integer, Integer> getJobEventCursors() { return jobEventCursors; }
+    public Map<Integer, Integer> getWorkflowEventCursors() { return workflowEventCursors; }
+    // Records saved before the stdout transport don't have these
+    public Map<Integer, Integer> getStdoutCursors() { return stdoutCursors == null ? new HashMap<Integer, Integer>() : stdoutCursors; }
+    // Nor do records saved before streamed jobs kept their counters
+    public Map<Integer, Integer> getCounterCursors() { return counterCursors == null ? new HashMap<Integer, Integer>() : counterCursors; }
+    public int getSyncEventCursor() { return syncEventCursor; }
+    public Map<String, String> getExports() { return exports; }
+
+    // Remember how far the connector has read the logs of a job (and its workflow nodes)
+    public void update(TowerConnector connector) {
+        this.jobEventCursors = new HashMap<Integer, Integer>(connector.getJobEventCursors());
+        this.workflowEventCursors = new HashMap<Integer, Integer>(connector.getWorkflowEventCursors());
+        this.stdoutCursors = new HashMap<Integer, Integer>(connector.getStdoutCursors());
+        this.counterCursors = new HashMap<Integer, Integer>(connector.getCounterCursors());
+        this.exports = new HashMap<String, String>(connector.getJenkinsExports());
+    }
+
+    public void update(TowerProjectSync projectSync) {
+        this.syncEventCursor = projectSync.getLastLogId();
+    }
+}
@@ -0,0 +1,87 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This class is the state of a job in Tower as of one read of /jobs/{id}/ (or /workflow_jobs/{id}/).
+    Everything we want to know about a job (is it done, did it fail, what did it export) comes out of the same
+    response so we read it once and answer every question from that.
+ */
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.ansible_tower.exceptions.AnsibleTowerException;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+public class TowerJobSnapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final String ARTIFACTS = "artifacts";
+
+    private final int id;
+    private final String status;
+    private final boolean finished;
+    // null if Tower didn't tell us
+    private final Boolean failed;
+    private final double elapsed;
+    private final HashMap<String, String> artifacts;
+
+    public TowerJobSnapshot(int id, String status, boolean finished, Boolean failed, double elapsed, Map<String, String> artifacts) {
+        this.id = id;
+        this.status = status;
+        this.finished = finished;
+        this.failed = failed;
+        this.elapsed = elapsed;
+        this.artifacts = new HashMap<String, String>(artifacts);
+    }
+
+    public static TowerJobSnapshot fromJSON(int id, JSONObject job) throws AnsibleTowerException {
+        if(!job.containsKey("finished")) {
+            throw new AnsibleTowerException("Did not get a finished status from the request");
+        }
+        String finished = job.getString("finished");
+        boolean isFinished = finished != null && !finished.equalsIgnoreCase("null");
+
+        Boolean failed = null;
+        if(job.containsKey("failed")) { failed = job.getBoolean("failed"); }
+
+        double elapsed = 0;
+        if(job.containsKey("elapsed")) { elapsed = job.optDouble("elapsed", 0); }
+
+        // Artifacts are only complete once the job is, until then we don't bother with them
+        HashMap<String, String> artifacts = new HashMap<String, String>();
+        if(isFinished && job.containsKey(ARTIFACTS) && job.get(ARTIFACTS) instanceof JSONObject) {
+            JSONObject jobArtifacts = job.getJSONObject(ARTIFACTS);
+            if(jobArtifacts.containsKey("JENKINS_EXPORT")) {
+                JSONArray exportVariables = jobArtifacts.getJSONArray("JENKINS_EXPORT");
+                Iterator<JSONObject> listIterator = exportVariables.iterator();
+                while(listIterator.hasNext()) {
+                    JSONObject entry = listIterator.next();
+                    Iterator<String> keyIterator = entry.keys();
+                    while(keyIterator.hasNext()) {
+                        String key = keyIterator.next();
+                        artifacts.put(key, entry.getString(key));
+                    }
+                }
+            }
+        }
+
+        return new TowerJobSnapshot(id, job.optString("status", null), isFinished, failed, elapsed, artifacts);
+    }
+
+    public int getId() { return id; }
+    public String getStatus() { return status; }
+    public boolean isFinished() { return finished; }
+    public double getElapsed() { return elapsed; }
+    // The JENKINS_EXPORT variables from the job artifacts
+    public Map<String, String> getArtifacts() { return Collections.unmodifiableMap(artifacts); }
+
+    public boolean isFailed() throws AnsibleTowerException {
+        if(failed == null) {
+            throw new AnsibleTowerException("Did not get a failed status from the request");
+        }
+        return failed;
+    }
+}
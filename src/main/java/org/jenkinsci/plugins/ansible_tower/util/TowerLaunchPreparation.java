@@ -0,0 +1,141 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This class resolves everything a launch needs before we POST to /launch/.
+    The template, inventory and credentials are independent lookups so instead of doing them one after another they
+    run at the same time on a small executor shared by all builds. Every lookup is allowed to finish so the user gets
+    all of the problems (a missing inventory and a bad credential) in one report.
+ */
+
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.ansible_tower.exceptions.AnsibleTowerException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class TowerLaunchPreparation {
+    private static final int THREADS = 8;
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Ansible Tower launch preparation");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private final TowerConnector connector;
+    private final String jobTemplate;
+    private final String templateType;
+    private final String inventory;
+    private final String credential;
+
+    private volatile JSONObject template = null;
+    private volatile String inventoryId = null;
+    private volatile JSONObject credentialFields = new JSONObject();
+
+    // jobTemplate can be null when the caller already has the template and only needs the inventory and credentials
+    public TowerLaunchPreparation(TowerConnector connector, String jobTemplate, String templateType, String inventory, String credential) {
+        this.connector = connector;
+        this.jobTemplate = jobTemplate;
+        this.templateType = templateType;
+        this.inventory = inventory;
+        this.credential = credential;
+    }
+
+    public JSONObject getTemplate() { return template; }
+    public String getTemplateType() { return templateType; }
+    public String getInventoryId() { return inventoryId; }
+    public JSONObject getCredentialFields() { return credentialFields; }
+
+    public void resolve() throws AnsibleTowerException {
+        List<String> names = new ArrayList<String>();
+        List<Callable<Void>> lookups = new ArrayList<Callable<Void>>();
+        if(jobTemplate != null) {
+            names.add("template");
+            lookups.add(new Callable<Void>() {
+                public Void call() throws AnsibleTowerException {
+                    template = connector.getJobTemplate(jobTemplate, templateType);
+                    return null;
+                }
+            });
+        }
+        if(inventory != null && !inventory.isEmpty()) {
+            names.add("inventory");
+            lookups.add(new Callable<Void>() {
+                public Void call() throws AnsibleTowerException {
+                    inventoryId = connector.resolveInventory(inventory);
+                    return null;
+                }
+            });
+        }
+        if(credential != null && !credential.isEmpty()) {
+            names.add("credentials");
+            lookups.add(new Callable<Void>() {
+                public Void call() throws AnsibleTowerException {
+                    credentialFields = connector.resolveCredentials(credential);
+                    return null;
+                }
+            });
+        }
+        if(lookups.isEmpty()) { return; }
+
+        if(lookups.size() == 1) {
+            // Nothing to overlap, don't bother handing it to another thread
+            try {
+                lookups.get(0).call();
+            } catch(AnsibleTowerException ate) {
+                throw ate;
+            } catch(Exception e) {
+                throw new AnsibleTowerException("Unable to resolve "+ names.get(0) +": "+ e.getMessage());
+            }
+            return;
+        }
+
+        // Work out the auth first, otherwise every lookup would race to get its own token
+        connector.authenticate();
+
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for(Callable<Void> lookup : lookups) {
+            futures.add(executor.submit(lookup));
+        }
+
+        List<String> errors = new ArrayList<String>();
+        for(int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch(ExecutionException ee) {
+                Throwable cause = ee.getCause();
+                if(cause instanceof AnsibleTowerException) {
+                    errors.add(cause.getMessage());
+                } else {
+                    errors.add("Unable to resolve "+ names.get(i) +": "+ cause);
+                }
+            } catch(InterruptedException ie) {
+                for(Future<Void> future : futures) { future.cancel(true); }
+                Thread.currentThread().interrupt();
+                throw new AnsibleTowerException("Interrupted while preparing the launch");
+            }
+        }
+
+        if(errors.size() == 1) {
+            throw new AnsibleTowerException(errors.get(0));
+        } else if(errors.size() > 1) {
+            StringBuilder report = new StringBuilder("Found "+ errors.size() +" problems preparing the launch:");
+            for(String error : errors) {
+                report.append("\n    ").append(error);
+            }
+            throw new AnsibleTowerException(report.toString());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This class turns the stdout of a Tower event into the lines we log, and picks the JENKINS_EXPORT variables out of it.
+    It runs on every line we import so it does everything in one pass without regular expressions. It gives exactly
+    the same result as the old regex based version:
+        output.split("\\r\\n"), line.matches("^.*JENKINS_EXPORT.*$"),
+        coloredLine.replaceAll("\u001B\\[[;\\d]*m", ""), and for exports removeColor(line).split("=", 2) with
+        ".*JENKINS_EXPORT " cut from the name and one trailing quote cut from the value.
+    An instance keeps its buffer between calls so it must not be shared between threads.
+ */
+
+import java.util.Map;
+
+public class TowerLineProcessor {
+    private static final String EXPORT_MARKER = "JENKINS_EXPORT";
+    private static final String EXPORT_PREFIX = "JENKINS_EXPORT ";
+    private static final char ESCAPE = '\u001B';
+
+    private final StringBuilder buffer = new StringBuilder(256);
+
+    /*
+        Splits output into lines, records any exports in exports and hands each line (without color if removeColor)
+        to sink.
+     */
+    public void process(String output, boolean removeColor, Map<String, String> exports, TowerLogSink sink) {
+        int length = output.length();
+        if(length == 0) {
+            // split() gives us a single empty line for empty output
+            sink.onLine("");
+            return;
+        }
+        // split() drops trailing empty lines, so output that is nothing but line breaks has no lines at all
+        int end = length;
+        while(end >= 2 && output.charAt(end - 2) == '\r' && output.charAt(end - 1) == '\n') { end -= 2; }
+        if(end == 0) { return; }
+
+        int start = 0;
+        while(true) {
+            int lineEnd = output.indexOf("\r\n", start);
+            if(lineEnd == -1 || lineEnd >= end) {
+                processLine(output, start, end, removeColor, exports, sink);
+                return;
+            }
+            processLine(output, start, lineEnd, removeColor, exports, sink);
+            start = lineEnd + 2;
+        }
+    }
+
+    private void processLine(String output, int start, int end, boolean removeColor, Map<String, String> exports, TowerLogSink sink) {
+        String line = output.substring(start, end);
+        boolean hasColor = line.indexOf(ESCAPE) != -1;
+        String plain = null;
+
+        // Even if we don't log, we are going to see if this line contains the string JENKINS_EXPORT VAR=value
+        if(line.contains(EXPORT_MARKER) && !hasLineTerminator(line)) {
+            // The value might have some ansi color on it so we need to force the removal of it
+            plain = hasColor ? removeColor(line) : line;
+            int equals = plain.indexOf('=');
+            if(equals != -1) {
+                String name = plain.substring(0, equals);
+                int prefix = name.lastIndexOf(EXPORT_PREFIX);
+                if(prefix != -1) { name = name.substring(prefix + EXPORT_PREFIX.length()); }
+                String value = plain.substring(equals + 1);
+                if(value.endsWith("\"")) { value = value.substring(0, value.length() - 1); }
+                exports.put(name, value);
+            }
+        }
+
+        if(removeColor && hasColor) {
+            if(plain == null) { plain = removeColor(line); }
+            line = plain;
+        }
+        sink.onLine(line);
+    }
+
+    /*
+        Removes ansi color codes (ESC [ then any digits and ;s then m), anything else is left alone
+     */
+    public String removeColor(String coloredLine) {
+        int length = coloredLine.length();
+        int escape = coloredLine.indexOf(ESCAPE);
+        if(escape == -1) { return coloredLine; }
+
+        buffer.setLength(0);
+        buffer.append(coloredLine, 0, escape);
+        int i = escape;
+        while(i < length) {
+            char c = coloredLine.charAt(i);
+            if(c == ESCAPE && i + 1 < length && coloredLine.charAt(i + 1) == '[') {
+                int j = i + 2;
+                while(j < length && isColorParameter(coloredLine.charAt(j))) { j++; }
+                if(j < length && coloredLine.charAt(j) == 'm') {
+                    i = j + 1;
+                    continue;
+                }
+            }
+            buffer.append(c);
+            i++;
+        }
+        return buffer.toString();
+    }
+
+    private static boolean isColorParameter(char c) {
+        return c == ';' || (c >= '0' && c <= '9');
+    }
+
+    // "." in the old pattern doesn't match these, so a line with one of them never counted as an export
+    private static boolean hasLineTerminator(String line) {
+        for(int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if(c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') { return true; }
+        }
+        return false;
+    }
+}
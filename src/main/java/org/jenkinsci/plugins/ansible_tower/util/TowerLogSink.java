@@ -0,0 +1,23 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This is where the lines of a job's output go as they are read from Tower.
+    Lines are pushed one at a time while each page of events is parsed so nothing has to hold a whole job's output.
+    flush() is called after every page and at the end of every read.
+ */
+
+import java.util.Vector;
+
+public interface TowerLogSink {
+    void onLine(String line);
+    void flush();
+
+    // Gathers the lines up, for the callers that still want them all at once
+    class Collector implements TowerLogSink {
+        private final Vector<String> lines = new Vector<String>();
+
+        public void onLine(String line) { lines.add(line); }
+        public void flush() { }
+        public Vector<String> getLines() { return lines; }
+    }
+}
@@ -0,0 +1,40 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This class is the counters of the events of one job we have logged, so an event we get from both the websocket and
+    a REST read is only logged once.
+    Tower saves the events of a job out of counter order, so having logged counter N doesn't mean everything before N
+    has been logged. What is kept is the highest counter with everything up to it logged, plus the counters above
+    that we logged ahead of the ones still missing. Those fold back into the first number as the gaps fill.
+ */
+
+import java.io.Serializable;
+import java.util.TreeSet;
+
+public class TowerLoggedCounters implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int through;
+    private final TreeSet<Integer> above = new TreeSet<Integer>();
+
+    // through is the counter everything up to has been logged, 0 for none
+    public TowerLoggedCounters(int through) {
+        this.through = through;
+    }
+
+    public synchronized boolean contains(int counter) {
+        return counter <= through || above.contains(counter);
+    }
+
+    public synchronized void add(int counter) {
+        if(counter <= through) { return; }
+        above.add(counter);
+        while(!above.isEmpty() && above.first() == through + 1) {
+            above.pollFirst();
+            through++;
+        }
+    }
+
+    // Every counter up to (and including) this one has been logged
+    public synchronized int getThrough() { return through; }
+}
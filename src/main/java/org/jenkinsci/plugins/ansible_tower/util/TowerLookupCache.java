@@ -0,0 +1,119 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This class remembers what a name (or ID) resolved to in Tower.
+    Builds that launch the same templates over and over would otherwise do a ?name= lookup for the template,
+    inventory and credentials every single time. Entries are kept per Tower login (different users can see different
+    objects, see TowerConnector.getConnectionKey), expire after a TTL and the least recently used ones are dropped once the cache is full.
+    Lookups that found nothing are remembered too, but for a shorter time.
+ */
+
+import net.sf.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public class TowerLookupCache {
+    public static final int DEFAULT_TTL = 300;
+    public static final int DEFAULT_MAX_SIZE = 1000;
+    private static final int MAX_NEGATIVE_TTL = 60;
+
+    private static final ConcurrentHashMap<String, TowerLookupCache> caches = new ConcurrentHashMap<String, TowerLookupCache>();
+    private static volatile int ttl = DEFAULT_TTL;
+    private static volatile int maxSize = DEFAULT_MAX_SIZE;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    public static class Entry {
+        private final JSONObject item;
+        private final String missingMessage;
+        private final boolean doesNotExist;
+        private final long expiresAt;
+
+        private Entry(JSONObject item, String missingMessage, boolean doesNotExist, int entryTTL) {
+            this.item = item;
+            this.missingMessage = missingMessage;
+            this.doesNotExist = doesNotExist;
+            this.expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(entryTTL);
+        }
+
+        public boolean isMissing() { return item == null; }
+        public JSONObject getItem() { return item; }
+        public String getMissingMessage() { return missingMessage; }
+        // True if Tower said the item does not exist, false if the lookup came back empty or ambiguous
+        public boolean getDoesNotExist() { return doesNotExist; }
+    }
+
+    /*
+        loginKey has to tell apart everyone who logs in to Tower, a credentialsId alone doesn't (it is only unique
+        within its folder) so two folders could end up seeing each other's lookups
+     */
+    public static TowerLookupCache forLogin(String loginKey) {
+        TowerLookupCache cache = caches.get(loginKey);
+        if(cache == null) {
+            TowerLookupCache newCache = new TowerLookupCache();
+            cache = caches.putIfAbsent(loginKey, newCache);
+            if(cache == null) { cache = newCache; }
+        }
+        return cache;
+    }
+
+    // Called by the global config whenever it is loaded or saved; a TTL of 0 turns caching off
+    public static void configure(int newTTL, int newMaxSize) {
+        ttl = Math.max(newTTL, 0);
+        maxSize = Math.max(newMaxSize, 1);
+        caches.clear();
+    }
+
+    public synchronized Entry get(String endpoint, String idOrName) {
+        if(ttl == 0) { return null; }
+        String key = getKey(endpoint, idOrName);
+        Entry entry = entries.get(key);
+        if(entry != null && System.nanoTime() - entry.expiresAt > 0) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    public synchronized void put(String endpoint, String idOrName, JSONObject item) {
+        if(ttl == 0) { return; }
+        entries.put(getKey(endpoint, idOrName), new Entry(item, null, false, ttl));
+    }
+
+    public synchronized void putMissing(String endpoint, String idOrName, String message, boolean doesNotExist) {
+        if(ttl == 0) { return; }
+        entries.put(getKey(endpoint, idOrName), new Entry(null, message, doesNotExist, Math.min(ttl, MAX_NEGATIVE_TTL)));
+    }
+
+    // Tower told us an item we may have cached is gone, drop every name or ID that points at it
+    public synchronized void invalidate(String endpoint, String id) {
+        String prefix = normalize(endpoint) +"|";
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<String, Entry> mapEntry = iterator.next();
+            if(!mapEntry.getKey().startsWith(prefix)) { continue; }
+            Entry entry = mapEntry.getValue();
+            if(mapEntry.getKey().equals(prefix + id) || (entry.item != null && id.equals(entry.item.getString("id")))) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static String getKey(String endpoint, String idOrName) {
+        return normalize(endpoint) +"|"+ idOrName;
+    }
+
+    // "/job_templates/" and "job_templates/" are the same thing to buildEndpoint
+    private static String normalize(String endpoint) {
+        return endpoint.startsWith("/") ? endpoint : "/"+ endpoint;
+    }
+}
@@ -0,0 +1,31 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This is anything running in Tower that the TowerJobMonitor can watch (jobs and project syncs).
+ */
+
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.ansible_tower.exceptions.AnsibleTowerException;
+
+import java.util.Vector;
+
+public interface TowerMonitorTarget {
+    // Used in error messages, i.e. "job" or "project sync"
+    String getDescription();
+    boolean isComplete() throws AnsibleTowerException;
+    boolean wasSuccessful() throws AnsibleTowerException;
+    Vector<String> getLogs() throws AnsibleTowerException;
+    // Same as getLogs() but hands the lines to sink as they are read
+    void streamLogs(TowerLogSink sink) throws AnsibleTowerException;
+    // True if the last getLogs() got a full page of events, the job is busy and probably has more for us already
+    boolean lastLogPageWasFull();
+    void cancel() throws AnsibleTowerException;
+
+    /*
+        These let the monitor check the status of everything running on one Tower with a single /unified_jobs/
+        request. The status it got is handed to the target so the next isComplete() doesn't have to ask Tower again.
+     */
+    TowerConnector getConnector();
+    int getUnifiedJobId();
+    void setPolledStatus(JSONObject unifiedJob);
+}
@@ -0,0 +1,36 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This class writes a job's output to the build console.
+    Lines are gathered up and written in chunks instead of a println (and a lock on the console) per line.
+ */
+
+import java.io.PrintStream;
+
+public class TowerPrintStreamSink implements TowerLogSink {
+    // Write out once we have this many characters waiting
+    private static final int BUFFER_SIZE = 8192;
+
+    private final PrintStream logger;
+    private final StringBuilder buffer = new StringBuilder(BUFFER_SIZE + 256);
+
+    public TowerPrintStreamSink(PrintStream logger) {
+        this.logger = logger;
+    }
+
+    public void onLine(String line) {
+        buffer.append(line).append(System.lineSeparator());
+        if(buffer.length() >= BUFFER_SIZE) { write(); }
+    }
+
+    public void flush() {
+        write();
+        logger.flush();
+    }
+
+    private void write() {
+        if(buffer.length() == 0) { return; }
+        logger.print(buffer);
+        buffer.setLength(0);
+    }
+}
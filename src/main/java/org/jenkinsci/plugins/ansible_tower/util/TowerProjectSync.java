@@ -8,13 +8,17 @@ import org.jenkinsci.plugins.ansible_tower.exceptions.AnsibleTowerException;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Vector;
 
-public class TowerProjectSync implements Serializable {
+public class TowerProjectSync implements Serializable, TowerMonitorTarget {
     private TowerConnector connection = null;
     private TowerProject projectReference = null;
     private JSONObject syncData = null;
     private int lastLogId = 0;
+    private boolean lastLogPageFull = false;
+    // The last status the job monitor got for us, only good for one isComplete()
+    private transient volatile JSONObject polledStatus = null;
 
     public TowerProjectSync(TowerConnector connection, TowerProject projectReference) throws AnsibleTowerException {
         this.connection = connection;
@@ -32,6 +36,17 @@ public class TowerProjectSync implements Serializable {
         }
     }
 
+    /*
+        Picks up a project sync that is already running, the events continue after lastLogId
+     */
+    public TowerProjectSync(TowerConnector connection, int syncId, int lastLogId) throws AnsibleTowerException {
+        this.connection = connection;
+        this.lastLogId = lastLogId;
+        this.syncData = new JSONObject();
+        this.syncData.put("url", "/project_updates/"+ syncId +"/");
+        loadSync(connection.GET);
+    }
+
     private void loadSync(int method)  throws AnsibleTowerException {
         HttpResponse response = this.connection.makeRequest(method, syncData.getString("url"), null, false);
         if (response.getStatusLine().getStatusCode() != 200) {
@@ -45,22 +60,17 @@ public class TowerProjectSync implements Serializable {
         }
     }
 
-    @SuppressWarnings("unused")
     public boolean isComplete() throws AnsibleTowerException {
+        JSONObject status = this.polledStatus;
+        this.polledStatus = null;
+        if(status != null && !TowerJobMonitor.isFinished(status)) { return false; }
         loadSync(connection.GET);
-        if(
-                !syncData.containsKey("finished") ||
-                syncData.getString("finished") == null || syncData.getString("finished").equalsIgnoreCase("null")
-        ) {
-            return false;
-        } else {
-            return true;
-        }
+        return TowerJobMonitor.isFinished(syncData);
     }
 
-    @SuppressWarnings("unused")
     public boolean wasSuccessful() throws AnsibleTowerException {
-        loadSync(connection.GET);
+        // A finished sync doesn't change anymore, the read isComplete() did has the result
+        if(!TowerJobMonitor.isFinished(syncData)) { loadSync(connection.GET); }
         if(syncData.containsKey("failed")) {
             return !syncData.getBoolean("failed");
         }
@@ -69,40 +79,42 @@ public class TowerProjectSync implements Serializable {
 
     @SuppressWarnings("unused")
     public Vector<String> getLogs() throws AnsibleTowerException {
-        Vector<String> events = new Vector<String>();
-        boolean keepChecking = true;
-        while(keepChecking) {
-            String apiURL = syncData.getJSONObject("related").getString("events") +"?id__gt="+ this.lastLogId;
-            HttpResponse response = connection.makeRequest(connection.GET, apiURL, null, false);
-
-            if (response.getStatusLine().getStatusCode() == 200) {
-                JSONObject responseObject;
-                String json;
-                try {
-                    json = EntityUtils.toString(response.getEntity());
-                    responseObject = JSONObject.fromObject(json);
-                } catch (IOException ioe) {
-                    throw new AnsibleTowerException("Unable to read project sync event response and convert it into json: " + ioe.getMessage());
-                }
+        TowerLogSink.Collector collector = new TowerLogSink.Collector();
+        this.streamLogs(collector);
+        return collector.getLines();
+    }
 
-                if(responseObject.containsKey("next") && responseObject.getString("next") == null || responseObject.getString("next").equalsIgnoreCase("null")) {
-                    keepChecking = false;
-                }
-                if (responseObject.containsKey("results")) {
-                    for (Object anEvent : responseObject.getJSONArray("results")) {
-                        Integer eventId = ((JSONObject) anEvent).getInt("id");
-                        String stdOut = ((JSONObject) anEvent).getString("stdout");
-                        events.addAll(connection.logLine(stdOut));
-                        if (eventId > this.lastLogId) { this.lastLogId = eventId; }
-                    }
+    public void streamLogs(TowerLogSink sink) throws AnsibleTowerException {
+        this.lastLogPageFull = false;
+        TowerEventPager pager = new TowerEventPager(connection, syncData.getJSONObject("related").getString("events"),
+                this.lastLogId, false, "project sync events");
+        try {
+            List<TowerEventPager.Event> events;
+            while((events = pager.nextPage()) != null) {
+                for(TowerEventPager.Event event : events) {
+                    connection.logLine(event.getStdout(), sink);
+                    if (event.getId() > this.lastLogId) { this.lastLogId = event.getId(); }
                 }
-            } else {
-                throw new AnsibleTowerException("Unexpected error code returned when getting project sync events (" + response.getStatusLine().getStatusCode() + ")");
+                sink.flush();
             }
+        } finally {
+            pager.close();
         }
-        return events;
+        this.lastLogPageFull = pager.lastPageWasFull();
     }
 
+    public String getDescription() { return "project sync"; }
+
+    public boolean lastLogPageWasFull() { return this.lastLogPageFull; }
+
+    public int getLastLogId() { return this.lastLogId; }
+
+    public void cancel() throws AnsibleTowerException { this.cancelSync(); }
+
+    public TowerConnector getConnector() { return this.connection; }
+    public int getUnifiedJobId() { return syncData.getInt("id"); }
+    public void setPolledStatus(JSONObject unifiedJob) { this.polledStatus = unifiedJob; }
+
     public void cancelSync() throws AnsibleTowerException {
         HttpResponse response = this.connection.makeRequest(connection.POST, syncData.getJSONObject("related").getString("cancel"), null, false);
         this.connection.releaseToken();
@@ -0,0 +1,92 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This class throttles the api calls we make to a Tower installation.
+    It is a token bucket shared by every build talking to the same Tower. When Tower starts answering
+    with 429/503 the refill rate is halved and it then creeps back up to the configured rate on success.
+ */
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public class TowerRateLimiter {
+    public static final int DEFAULT_REQUESTS_PER_SECOND = 10;
+    public static final int DEFAULT_BURST = 20;
+
+    private static final ConcurrentHashMap<String, TowerRateLimiter> limiters = new ConcurrentHashMap<String, TowerRateLimiter>();
+    private static volatile int requestsPerSecond = DEFAULT_REQUESTS_PER_SECOND;
+    private static volatile int burst = DEFAULT_BURST;
+
+    private volatile double rate;
+    private volatile double currentRate;
+    private double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    private TowerRateLimiter(int requestsPerSecond, int burst) {
+        this.lastRefill = System.nanoTime();
+        this.reconfigure(requestsPerSecond, burst);
+        this.tokens = this.capacity;
+    }
+
+    public static TowerRateLimiter forInstallation(String towerURL) {
+        TowerRateLimiter limiter = limiters.get(towerURL);
+        if(limiter == null) {
+            TowerRateLimiter newLimiter = new TowerRateLimiter(requestsPerSecond, burst);
+            limiter = limiters.putIfAbsent(towerURL, newLimiter);
+            if(limiter == null) { limiter = newLimiter; }
+        }
+        return limiter;
+    }
+
+    // Called by the global config whenever it is loaded or saved; a rate of 0 turns throttling off
+    public static void configure(int newRequestsPerSecond, int newBurst) {
+        requestsPerSecond = newRequestsPerSecond;
+        burst = newBurst;
+        for(TowerRateLimiter limiter : limiters.values()) {
+            limiter.reconfigure(newRequestsPerSecond, newBurst);
+        }
+    }
+
+    private synchronized void reconfigure(int newRequestsPerSecond, int newBurst) {
+        this.rate = Math.max(newRequestsPerSecond, 0);
+        this.currentRate = this.rate;
+        this.capacity = Math.max(newBurst, 1);
+        if(this.tokens > this.capacity) { this.tokens = this.capacity; }
+    }
+
+    public void acquire() throws InterruptedException {
+        // Unlimited, don't even take the lock
+        if(rate <= 0) { return; }
+
+        long waitNanos;
+        synchronized(this) {
+            refill();
+            // Take the token now even if we have to go into debt for it, this queues callers fairly
+            tokens -= 1;
+            if(tokens >= 0) { return; }
+            waitNanos = (long) ((-tokens / currentRate) * TimeUnit.SECONDS.toNanos(1));
+        }
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    public synchronized void throttled() {
+        if(rate <= 0) { return; }
+        refill();
+        currentRate = Math.max(currentRate / 2, rate / 20);
+    }
+
+    public void succeeded() {
+        if(rate <= 0 || currentRate >= rate) { return; }
+        synchronized(this) {
+            refill();
+            currentRate = Math.min(rate, currentRate + (rate / 10));
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + ((now - lastRefill) * currentRate / TimeUnit.SECONDS.toNanos(1)));
+        lastRefill = now;
+    }
+}
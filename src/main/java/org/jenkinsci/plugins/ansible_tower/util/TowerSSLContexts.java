@@ -0,0 +1,137 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This class builds and caches the SSL socket factories used to talk to Tower.
+    Building an SSLContext is expensive and, more importantly, TLS sessions are cached inside of the context.
+    Keeping one context per installation lets repeat connections resume their session (abbreviated handshake).
+    A custom CA file is read again when its modification time or size changes, so a rotated CA is picked up without
+    restarting Jenkins. Callers that hold on to a factory (TowerClientPool) compare it with what we return to notice.
+ */
+
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.jenkinsci.plugins.ansible_tower.exceptions.AnsibleTowerException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class TowerSSLContexts {
+    public static final int DEFAULT_SESSION_TIMEOUT = 3600;
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 100;
+
+    private static final ConcurrentHashMap<String, SSLConnectionSocketFactory> factories = new ConcurrentHashMap<String, SSLConnectionSocketFactory>();
+    private static final ConcurrentHashMap<String, SSLContext> contexts = new ConcurrentHashMap<String, SSLContext>();
+    // The modification time and size of the CA file each factory was built from
+    private static final ConcurrentHashMap<String, String> caFileVersions = new ConcurrentHashMap<String, String>();
+    private static volatile int sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+
+    public static SSLConnectionSocketFactory getSocketFactory(String towerURL, boolean trustAllCerts, String caCertificateFile) throws AnsibleTowerException {
+        // Force trust wins over a custom CA, just like it wins over the JVM trust store
+        if(!trustAllCerts && (caCertificateFile == null || caCertificateFile.isEmpty())) {
+            return SSLConnectionSocketFactory.getSystemSocketFactory();
+        }
+
+        String key = getKey(towerURL, trustAllCerts, caCertificateFile);
+        String caFileVersion = trustAllCerts ? null : getFileVersion(caCertificateFile);
+        SSLConnectionSocketFactory factory = factories.get(key);
+        if(factory == null || isStale(key, caCertificateFile, caFileVersion)) {
+            synchronized(factories) {
+                factory = factories.get(key);
+                if(factory == null || isStale(key, caCertificateFile, caFileVersion)) {
+                    SSLContext context;
+                    if(trustAllCerts) {
+                        context = TrustingSSLSocketFactory.createTrustingContext();
+                        factory = new SSLConnectionSocketFactory(context, NoopHostnameVerifier.INSTANCE);
+                    } else {
+                        context = createCAContext(caCertificateFile);
+                        factory = new SSLConnectionSocketFactory(context, SSLConnectionSocketFactory.getDefaultHostnameVerifier());
+                        caFileVersions.put(key, caFileVersion);
+                    }
+                    configureSessions(context);
+                    contexts.put(key, context);
+                    factories.put(key, factory);
+                }
+            }
+        }
+        return factory;
+    }
+
+    // Called by the global config whenever it is loaded or saved
+    public static void configure(int newSessionTimeout) {
+        sessionTimeout = Math.max(newSessionTimeout, 0);
+        for(SSLContext context : contexts.values()) {
+            configureSessions(context);
+        }
+    }
+
+    public static void clear() {
+        factories.clear();
+        contexts.clear();
+        caFileVersions.clear();
+    }
+
+    public static String getKey(String towerURL, boolean trustAllCerts, String caCertificateFile) {
+        return towerURL +"|"+ trustAllCerts +"|"+ (caCertificateFile == null ? "" : caCertificateFile);
+    }
+
+    /*
+        A CA file that has gone missing keeps the certificates we already have, it is most likely being replaced
+        right now and the next call will see the new one.
+     */
+    private static boolean isStale(String key, String caCertificateFile, String caFileVersion) {
+        if(caFileVersion == null) { return false; }
+        String builtFrom = caFileVersions.get(key);
+        return builtFrom != null && !builtFrom.equals(caFileVersion) && new File(caCertificateFile).exists();
+    }
+
+    private static String getFileVersion(String fileName) {
+        File file = new File(fileName);
+        return file.lastModified() +":"+ file.length();
+    }
+
+    private static void configureSessions(SSLContext context) {
+        SSLSessionContext sessionContext = context.getClientSessionContext();
+        if(sessionContext != null) {
+            sessionContext.setSessionTimeout(sessionTimeout);
+            sessionContext.setSessionCacheSize(DEFAULT_SESSION_CACHE_SIZE);
+        }
+    }
+
+    private static SSLContext createCAContext(String caCertificateFile) throws AnsibleTowerException {
+        try {
+            KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            trustStore.load(null, null);
+            InputStream certStream = new FileInputStream(caCertificateFile);
+            try {
+                int index = 0;
+                for(Certificate certificate : CertificateFactory.getInstance("X.509").generateCertificates(certStream)) {
+                    trustStore.setCertificateEntry("tower-ca-"+ index, certificate);
+                    index++;
+                }
+                if(index == 0) {
+                    throw new AnsibleTowerException("No certificates found in "+ caCertificateFile);
+                }
+            } finally {
+                certStream.close();
+            }
+
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init(trustStore);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, tmf.getTrustManagers(), null);
+            return context;
+        } catch(AnsibleTowerException ate) {
+            throw ate;
+        } catch(Exception e) {
+            throw new AnsibleTowerException("Unable to load CA certificate "+ caCertificateFile +": "+ e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This class shares oAuth tokens between builds.
+    Instead of every step creating a token and deleting it again we keep one token per Tower installation and
+    credential. Connectors lease it (reference counted), a token that is about to expire is replaced by a new one and
+    tokens nobody has used for a while, or that are left over when Jenkins shuts down, are revoked.
+    A token is minted outside of the lock, builds that want the same key while it is being minted wait for that one
+    instead of making their own, builds on other keys (or other Towers) don't wait at all.
+ */
+
+import org.jenkinsci.plugins.ansible_tower.exceptions.AnsibleTowerException;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+public class TowerTokenLeaseManager {
+    public static final int DEFAULT_IDLE_TIMEOUT = 300;
+    // Don't hand out a token that will expire before a typical step is done with it
+    private static final long REFRESH_MARGIN = TimeUnit.MINUTES.toMillis(5);
+
+    private static final Map<String, Lease> leases = new HashMap<String, Lease>();
+    // Tokens being created right now, guarded by leases
+    private static final Map<String, FutureTask<Lease>> minting = new HashMap<String, FutureTask<Lease>>();
+    private static volatile int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private static ScheduledExecutorService reaper = null;
+
+    public interface TokenIssuer {
+        Lease createToken() throws AnsibleTowerException;
+        void revokeToken(Lease lease);
+    }
+
+    /*
+        A lease goes along when its connector is saved with a pipeline, the connector hands it back to us with adopt()
+        when it is loaded so the reference it holds is still released (and the token revoked) in the end.
+     */
+    public static class Lease implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String token;
+        private final String tokenId;
+        private final long expiresAt;
+        private transient TokenIssuer issuer = null;
+        private transient String key = null;
+        private transient int references = 0;
+        private transient long idleSince = 0;
+        private transient boolean invalid = false;
+
+        public Lease(String token, String tokenId, long expiresAt) {
+            this.token = token;
+            this.tokenId = tokenId;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getToken() { return token; }
+        public String getTokenId() { return tokenId; }
+
+        private boolean isUsable() {
+            return !invalid && (expiresAt <= 0 || expiresAt - System.currentTimeMillis() > REFRESH_MARGIN);
+        }
+    }
+
+    public static Lease acquire(final String key, final TokenIssuer issuer) throws AnsibleTowerException {
+        while(true) {
+            FutureTask<Lease> mint;
+            boolean minter = false;
+            synchronized(leases) {
+                Lease lease = leases.get(key);
+                if(lease != null && lease.isUsable()) {
+                    lease.references++;
+                    return lease;
+                }
+                mint = minting.get(key);
+                if(mint == null) {
+                    mint = new FutureTask<Lease>(new Callable<Lease>() {
+                        public Lease call() throws AnsibleTowerException {
+                            return mint(key, issuer);
+                        }
+                    });
+                    minting.put(key, mint);
+                    minter = true;
+                }
+            }
+            if(minter) { mint.run(); }
+
+            Lease minted;
+            try {
+                minted = mint.get();
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new AnsibleTowerException("Interrupted while waiting for an oAuth token");
+            } catch(ExecutionException ee) {
+                if(ee.getCause() instanceof AnsibleTowerException) { throw (AnsibleTowerException) ee.getCause(); }
+                throw new AnsibleTowerException("Unable to get an oAuth token: "+ ee.getCause());
+            }
+            // The minter's reference was taken in mint(), everyone who waited takes theirs here
+            if(minter) { return minted; }
+            synchronized(leases) {
+                if(leases.get(key) == minted && minted.isUsable()) {
+                    minted.references++;
+                    return minted;
+                }
+            }
+            // Invalidated before we got to it, go around and get another
+        }
+    }
+
+    private static Lease mint(String key, TokenIssuer issuer) throws AnsibleTowerException {
+        Lease lease = null;
+        Lease retired;
+        try {
+            lease = issuer.createToken();
+        } finally {
+            if(lease == null) {
+                synchronized(leases) { minting.remove(key); }
+            }
+        }
+        synchronized(leases) {
+            minting.remove(key);
+            lease.issuer = issuer;
+            lease.key = key;
+            lease.references = 1;
+            retired = leases.put(key, lease);
+            if(retired != null && retired.references > 0) {
+                // Still in use by someone, it gets revoked when they let go of it
+                retired = null;
+            }
+            startReaper();
+        }
+        if(retired != null) { retired.issuer.revokeToken(retired); }
+        return lease;
+    }
+
+    /*
+        Takes back a lease that was saved with its connector and has just been loaded again.
+        If we still have it (same JVM) the loaded copy is one more reference to it. If not (Jenkins restarted) it is
+        tracked again so releasing it revokes the token, and it is shared again if nobody has a newer token for the key.
+     */
+    public static Lease adopt(Lease saved, String key, TokenIssuer issuer) {
+        synchronized(leases) {
+            Lease current = leases.get(key);
+            if(current != null && current.tokenId != null && current.tokenId.equals(saved.tokenId)) {
+                current.references++;
+                return current;
+            }
+            saved.issuer = issuer;
+            saved.key = key;
+            saved.references = 1;
+            if(current == null && saved.isUsable() && !minting.containsKey(key)) { leases.put(key, saved); }
+            startReaper();
+            return saved;
+        }
+    }
+
+    public static void release(Lease lease) {
+        boolean revoke = false;
+        synchronized(leases) {
+            if(lease.references > 0) { lease.references--; }
+            if(lease.references == 0) {
+                if(leases.get(lease.key) == lease) {
+                    lease.idleSince = System.currentTimeMillis();
+                } else {
+                    revoke = true;
+                }
+            }
+        }
+        if(revoke) { lease.issuer.revokeToken(lease); }
+    }
+
+    // Tower told us the token is no good (401), make sure nobody else gets handed it
+    public static void invalidate(Lease lease) {
+        synchronized(leases) {
+            lease.invalid = true;
+            if(leases.get(lease.key) == lease) { leases.remove(lease.key); }
+        }
+    }
+
+    // Called by the global config whenever it is loaded or saved
+    public static void configure(int newIdleTimeout) {
+        idleTimeout = Math.max(newIdleTimeout, 0);
+    }
+
+    // Called when Jenkins is shutting down
+    public static void revokeAll() {
+        List<Lease> toRevoke;
+        synchronized(leases) {
+            if(reaper != null) {
+                reaper.shutdownNow();
+                reaper = null;
+            }
+            toRevoke = new ArrayList<Lease>(leases.values());
+            leases.clear();
+        }
+        for(Lease lease : toRevoke) {
+            lease.issuer.revokeToken(lease);
+        }
+    }
+
+    private static void revokeIdle() {
+        List<Lease> toRevoke = new ArrayList<Lease>();
+        long now = System.currentTimeMillis();
+        synchronized(leases) {
+            for(Lease lease : new ArrayList<Lease>(leases.values())) {
+                boolean idle = lease.references == 0 && now - lease.idleSince >= TimeUnit.SECONDS.toMillis(idleTimeout);
+                if(idle || (lease.references == 0 && !lease.isUsable())) {
+                    leases.remove(lease.key);
+                    toRevoke.add(lease);
+                }
+            }
+        }
+        for(Lease lease : toRevoke) {
+            lease.issuer.revokeToken(lease);
+        }
+    }
+
+    private static void startReaper() {
+        if(reaper != null) { return; }
+        reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Ansible Tower token reaper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        reaper.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    revokeIdle();
+                } catch(Exception e) {
+                    TowerLogger.writeMessage("Failed to revoke idle tokens: "+ e.getMessage());
+                }
+            }
+        }, 30, 30, TimeUnit.SECONDS);
+    }
+}
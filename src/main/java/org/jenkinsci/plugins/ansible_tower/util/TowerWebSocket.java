@@ -0,0 +1,317 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This class is a bare bones websocket (RFC 6455) client, just enough to listen to Tower's /websocket/ channel.
+    It only does text messages (no extensions or sub protocols), answers pings and closes. Each socket gets a daemon
+    thread that reads frames and hands complete messages to the listener.
+
+    TLS goes through the same socket factories as the REST calls (see TowerSSLContexts) so the trust settings of the
+    installation apply and the TLS session can be resumed.
+ */
+
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.jenkinsci.plugins.ansible_tower.exceptions.AnsibleTowerException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+public class TowerWebSocket {
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int OP_CONTINUATION = 0x0;
+    private static final int OP_TEXT = 0x1;
+    private static final int OP_BINARY = 0x2;
+    private static final int OP_CLOSE = 0x8;
+    private static final int OP_PING = 0x9;
+    private static final int OP_PONG = 0xA;
+    // Tower's events are a few KB, a message bigger than this means something is wrong
+    private static final int MAX_MESSAGE = 16 * 1024 * 1024;
+    // Send a ping after this much silence, if the ping gets no answer either the connection is gone
+    private static final int IDLE_TIMEOUT = 30000;
+    private static final SecureRandom random = new SecureRandom();
+
+    public interface Listener {
+        // Called from the socket's reader thread with each text message
+        void onMessage(String message);
+        // Called once, from the reader thread, when the socket is closed for any reason
+        void onClose(String reason);
+    }
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final Listener listener;
+    private final List<String> cookies;
+    private volatile boolean open = true;
+
+    private TowerWebSocket(Socket socket, DataInputStream in, List<String> cookies, Listener listener) throws IOException {
+        this.socket = socket;
+        this.in = in;
+        this.out = socket.getOutputStream();
+        this.cookies = cookies;
+        this.listener = listener;
+    }
+
+    /*
+        Opens a websocket to path on the Tower at towerURL.
+        headers are added to the upgrade request (i.e. Authorization), sslFactory is only used for https.
+     */
+    public static TowerWebSocket connect(String towerURL, String path, Map<String, String> headers,
+                                         SSLConnectionSocketFactory sslFactory, int timeout, Listener listener) throws AnsibleTowerException {
+        URI uri;
+        try {
+            uri = new URI(towerURL);
+        } catch(URISyntaxException urise) {
+            throw new AnsibleTowerException("Unable to prase base url: "+ urise);
+        }
+        boolean secure = uri.getScheme().equalsIgnoreCase("https");
+        String host = uri.getHost();
+        int port = uri.getPort();
+        if(port == -1) { port = secure ? 443 : 80; }
+
+        Socket socket = null;
+        try {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(host, port), timeout);
+            if(secure) {
+                socket = sslFactory.createLayeredSocket(socket, host, port, HttpClientContext.create());
+            }
+            socket.setSoTimeout(timeout);
+
+            byte[] keyBytes = new byte[16];
+            random.nextBytes(keyBytes);
+            String key = Base64.getEncoder().encodeToString(keyBytes);
+
+            StringBuilder request = new StringBuilder();
+            request.append("GET ").append(path).append(" HTTP/1.1\r\n");
+            request.append("Host: ").append(host);
+            if(uri.getPort() != -1) { request.append(":").append(port); }
+            request.append("\r\n");
+            request.append("Upgrade: websocket\r\n");
+            request.append("Connection: Upgrade\r\n");
+            request.append("Sec-WebSocket-Key: ").append(key).append("\r\n");
+            request.append("Sec-WebSocket-Version: 13\r\n");
+            request.append("Origin: ").append(uri.getScheme()).append("://").append(uri.getRawAuthority()).append("\r\n");
+            for(Map.Entry<String, String> header : headers.entrySet()) {
+                request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            request.append("\r\n");
+            socket.getOutputStream().write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+            socket.getOutputStream().flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            String statusLine = readHeaderLine(in);
+            if(!statusLine.startsWith("HTTP/1.1 101")) {
+                throw new AnsibleTowerException("Tower refused the websocket upgrade: "+ statusLine);
+            }
+            String accept = null;
+            List<String> cookies = new ArrayList<String>();
+            String line;
+            while(!(line = readHeaderLine(in)).isEmpty()) {
+                int colon = line.indexOf(':');
+                if(colon == -1) { continue; }
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if(name.equalsIgnoreCase("Sec-WebSocket-Accept")) {
+                    accept = value;
+                } else if(name.equalsIgnoreCase("Set-Cookie")) {
+                    cookies.add(value);
+                }
+            }
+            if(accept == null || !accept.equals(expectedAccept(key))) {
+                throw new AnsibleTowerException("Tower answered the websocket upgrade with the wrong accept key");
+            }
+
+            socket.setSoTimeout(IDLE_TIMEOUT);
+            final TowerWebSocket webSocket = new TowerWebSocket(socket, in, cookies, listener);
+            Thread reader = new Thread(new Runnable() {
+                public void run() { webSocket.readLoop(); }
+            }, "Ansible Tower websocket "+ host);
+            reader.setDaemon(true);
+            reader.start();
+            return webSocket;
+        } catch(IOException ioe) {
+            closeQuietly(socket);
+            throw new AnsibleTowerException("Unable to open websocket to "+ towerURL + path +": "+ ioe.getMessage());
+        } catch(AnsibleTowerException ate) {
+            closeQuietly(socket);
+            throw ate;
+        }
+    }
+
+    // The value of a cookie Tower set during the upgrade (i.e. csrftoken), null if it didn't
+    public String getCookie(String name) {
+        for(String cookie : cookies) {
+            String pair = cookie.split(";", 2)[0];
+            int equals = pair.indexOf('=');
+            if(equals != -1 && pair.substring(0, equals).trim().equals(name)) {
+                return pair.substring(equals + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    public boolean isOpen() { return open; }
+
+    public void send(String message) throws AnsibleTowerException {
+        try {
+            writeFrame(OP_TEXT, message.getBytes(StandardCharsets.UTF_8));
+        } catch(IOException ioe) {
+            close();
+            throw new AnsibleTowerException("Unable to send on websocket: "+ ioe.getMessage());
+        }
+    }
+
+    public void close() {
+        if(!open) { return; }
+        open = false;
+        try {
+            // Status 1000, normal closure
+            writeFrame(OP_CLOSE, new byte[]{ (byte) 0x03, (byte) 0xE8 });
+        } catch(IOException ioe) {
+            // We are going away anyway
+        }
+        closeQuietly(socket);
+    }
+
+    private void readLoop() {
+        String reason = "closed";
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        boolean waitingForPong = false;
+        try {
+            while(open) {
+                int first;
+                try {
+                    first = in.readUnsignedByte();
+                } catch(SocketTimeoutException ste) {
+                    if(waitingForPong) {
+                        reason = "no answer from Tower in "+ (2 * IDLE_TIMEOUT / 1000) +" seconds";
+                        break;
+                    }
+                    writeFrame(OP_PING, new byte[0]);
+                    waitingForPong = true;
+                    continue;
+                }
+                waitingForPong = false;
+                boolean fin = (first & 0x80) != 0;
+                int opcode = first & 0x0F;
+                int second = in.readUnsignedByte();
+                boolean masked = (second & 0x80) != 0;
+                long length = second & 0x7F;
+                if(length == 126) {
+                    length = in.readUnsignedShort();
+                } else if(length == 127) {
+                    length = in.readLong();
+                }
+                if(length < 0 || length > MAX_MESSAGE || message.size() + length > MAX_MESSAGE) {
+                    reason = "message too large";
+                    break;
+                }
+                byte[] mask = null;
+                if(masked) {
+                    mask = new byte[4];
+                    in.readFully(mask);
+                }
+                byte[] payload = new byte[(int) length];
+                in.readFully(payload);
+                if(mask != null) {
+                    for(int i = 0; i < payload.length; i++) { payload[i] ^= mask[i % 4]; }
+                }
+
+                if(opcode == OP_PING) {
+                    writeFrame(OP_PONG, payload);
+                } else if(opcode == OP_PONG) {
+                    // Only here to show the connection is alive
+                } else if(opcode == OP_CLOSE) {
+                    reason = "closed by Tower";
+                    break;
+                } else if(opcode == OP_TEXT || opcode == OP_BINARY || opcode == OP_CONTINUATION) {
+                    message.write(payload, 0, payload.length);
+                    if(fin) {
+                        String text = new String(message.toByteArray(), StandardCharsets.UTF_8);
+                        message.reset();
+                        try {
+                            listener.onMessage(text);
+                        } catch(RuntimeException re) {
+                            TowerLogger.writeMessage("Websocket listener failed: "+ re.getMessage());
+                        }
+                    }
+                }
+            }
+        } catch(EOFException eofe) {
+            reason = "connection closed";
+        } catch(IOException ioe) {
+            if(open) { reason = ioe.getMessage(); }
+        }
+        close();
+        listener.onClose(reason);
+    }
+
+    private synchronized void writeFrame(int opcode, byte[] payload) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.length + 14);
+        frame.write(0x80 | opcode);
+        // Everything a client sends has to be masked
+        if(payload.length < 126) {
+            frame.write(0x80 | payload.length);
+        } else if(payload.length <= 0xFFFF) {
+            frame.write(0x80 | 126);
+            frame.write(payload.length >>> 8);
+            frame.write(payload.length);
+        } else {
+            frame.write(0x80 | 127);
+            for(int shift = 56; shift >= 0; shift -= 8) { frame.write((int) ((long) payload.length >>> shift)); }
+        }
+        byte[] mask = new byte[4];
+        random.nextBytes(mask);
+        frame.write(mask, 0, 4);
+        for(int i = 0; i < payload.length; i++) { frame.write(payload[i] ^ mask[i % 4]); }
+        out.write(frame.toByteArray());
+        out.flush();
+    }
+
+    private static String readHeaderLine(DataInputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while((c = in.read()) != -1) {
+            if(c == '\n') { break; }
+            if(c != '\r') { line.append((char) c); }
+            if(line.length() > 8192) { throw new IOException("Header line too long"); }
+        }
+        if(c == -1 && line.length() == 0) { throw new EOFException("Connection closed during the websocket upgrade"); }
+        return line.toString();
+    }
+
+    private static String expectedAccept(String key) throws AnsibleTowerException {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return Base64.getEncoder().encodeToString(sha1.digest((key + ACCEPT_GUID).getBytes(StandardCharsets.ISO_8859_1)));
+        } catch(NoSuchAlgorithmException nsae) {
+            throw new AnsibleTowerException("Unable to verify the websocket upgrade: "+ nsae.getMessage());
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if(socket == null) { return; }
+        try {
+            socket.close();
+        } catch(IOException ioe) {
+            // Nothing else we can do
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    This class is the part of a Tower webhook notification we care about.
+    Tower posts the same body for jobs, workflow jobs and project updates, i.e.:
+        {"id": 38, "name": "Demo Job Template", "url": "https://tower/#/jobs/playbook/38", "status": "successful",
+         "friendly_name": "Job", "started": "...", "finished": "...", ...}
+    The id is the unified job id, which is what the TowerJobMonitor knows every job by.
+    Tower can't get a crumb so a notification has to carry the webhook token instead, checkToken decides whether it does.
+ */
+
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.ansible_tower.exceptions.AnsibleTowerException;
+
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+public class TowerWebhookPayload {
+    private final int id;
+    private final String status;
+    private final String url;
+
+    public TowerWebhookPayload(int id, String status, String url) {
+        this.id = id;
+        this.status = status;
+        this.url = url;
+    }
+
+    public static TowerWebhookPayload parse(String body) throws AnsibleTowerException {
+        if(body == null || body.trim().length() == 0) {
+            throw new AnsibleTowerException("The notification had no body");
+        }
+        JSONObject notification;
+        try {
+            notification = JSONObject.fromObject(body);
+        } catch(JSONException jse) {
+            throw new AnsibleTowerException("Unable to parse the notification as json: "+ jse.getMessage());
+        }
+        if(!notification.containsKey("id")) {
+            throw new AnsibleTowerException("The notification did not contain a job id");
+        }
+        int id;
+        try {
+            id = Integer.parseInt(notification.getString("id"));
+        } catch(NumberFormatException nfe) {
+            throw new AnsibleTowerException("The notification job id "+ notification.getString("id") +" is not a number");
+        }
+        return new TowerWebhookPayload(id, notification.optString("status", null), notification.optString("url", null));
+    }
+
+    /*
+        The HTTP status to answer a notification with before its body is looked at, HTTP_OK if it may go on.
+        expectedToken is the webhook token from the global config (null or empty if webhooks are off), the request's
+        token is the "Authorization: Bearer <token>" header if it has one and the token parameter otherwise.
+     */
+    public static int checkToken(String expectedToken, String authorizationHeader, String tokenParameter) {
+        if(expectedToken == null || expectedToken.isEmpty()) {
+            // Not turned on
+            return HttpURLConnection.HTTP_NOT_FOUND;
+        }
+        String given = tokenParameter;
+        if(authorizationHeader != null && authorizationHeader.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            given = authorizationHeader.substring(7).trim();
+        }
+        // Constant time so the token can't be guessed a character at a time
+        if(given == null || !MessageDigest.isEqual(expectedToken.getBytes(StandardCharsets.UTF_8), given.getBytes(StandardCharsets.UTF_8))) {
+            return HttpURLConnection.HTTP_FORBIDDEN;
+        }
+        return HttpURLConnection.HTTP_OK;
+    }
+
+    public int getId() { return id; }
+    public String getStatus() { return status; }
+    public String getURL() { return url; }
+}
@@ -21,27 +21,41 @@ import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
 import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.jenkinsci.plugins.ansible_tower.exceptions.AnsibleTowerException;
+
 public class TrustingSSLSocketFactory extends SSLSocketFactory {
-    private SSLContext sslContext = SSLContext.getInstance("TLS");
+    private static final TrustManager TRUST_ALL = new X509TrustManager() {
+        public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        }
 
-    public TrustingSSLSocketFactory(KeyStore truststore) throws NoSuchAlgorithmException, KeyManagementException, KeyStoreException, UnrecoverableKeyException {
-        super(truststore);
+        public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        }
 
-        TrustManager tm = new X509TrustManager() {
-            public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-            }
+        public X509Certificate[] getAcceptedIssuers() {
+            return null;
+        }
+    };
 
-            public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-            }
+    private SSLContext sslContext = SSLContext.getInstance("TLS");
 
-            public X509Certificate[] getAcceptedIssuers() {
-                return null;
-            }
-        };
+    public TrustingSSLSocketFactory(KeyStore truststore) throws NoSuchAlgorithmException, KeyManagementException, KeyStoreException, UnrecoverableKeyException {
+        super(truststore);
+        sslContext.init(null, new TrustManager[] { TRUST_ALL }, null);
+    }
 
-        sslContext.init(null, new TrustManager[] { tm }, null);
+    // Builds a stand alone all trusting context, this avoids loading a key store just to throw it away
+    public static SSLContext createTrustingContext() throws AnsibleTowerException {
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, new TrustManager[] { TRUST_ALL }, null);
+            return context;
+        } catch(Exception e) {
+            throw new AnsibleTowerException("Unable to create trusting SSL context: "+ e.getMessage());
+        }
     }
 
+    public SSLContext getSSLContext() { return sslContext; }
+
     @Override
     public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException, UnknownHostException {
         return sslContext.getSocketFactory().createSocket(socket, host, port, autoClose);
@@ -0,0 +1,153 @@
+package org.jenkinsci.plugins.ansible_tower;
+
+import com.gargoylesoftware.htmlunit.HttpMethod;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import hudson.util.Secret;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.ansible_tower.util.TowerConnector;
+import org.jenkinsci.plugins.ansible_tower.util.TowerJobMonitor;
+import org.jenkinsci.plugins.ansible_tower.util.TowerLogSink;
+import org.jenkinsci.plugins.ansible_tower.util.TowerMonitorTarget;
+import org.jenkinsci.plugins.ansible_tower.util.TowerStandIn;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AnsibleTowerWebhookTest {
+    private static final int JOB = 38;
+    private static final String TOKEN = "s3cret";
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private TowerStandIn tower;
+
+    // A job that is still running until it is told otherwise, and counts how often its status is checked
+    private class WatchedJob implements TowerMonitorTarget {
+        final AtomicInteger statusChecks = new AtomicInteger();
+        volatile boolean finished = false;
+        private final TowerConnector connector = new TowerConnector(tower.getURL(), null, null, "token", false, false);
+
+        public String getDescription() { return "job"; }
+        public boolean isComplete() {
+            statusChecks.incrementAndGet();
+            return finished;
+        }
+        public boolean wasSuccessful() { return true; }
+        public Vector<String> getLogs() { return new Vector<String>(); }
+        public void streamLogs(TowerLogSink sink) { }
+        public boolean lastLogPageWasFull() { return false; }
+        public void cancel() { }
+        public TowerConnector getConnector() { return connector; }
+        public int getUnifiedJobId() { return JOB; }
+        public void setPolledStatus(JSONObject unifiedJob) { }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        tower = new TowerStandIn(new TowerStandIn.Handler() {
+            public String handle(String method, String path, Map<String, String> query, String body) {
+                return path.equals("/api/v2/unified_jobs/") ? "{\"next\": null, \"results\": []}" : null;
+            }
+        });
+        AnsibleTowerGlobalConfig.get().setWebhookToken(Secret.fromString(TOKEN));
+        TowerJobMonitor.configure(1, 1, true, TowerJobMonitor.DEFAULT_WEBHOOK_STATUS_INTERVAL);
+    }
+
+    @After
+    public void tearDown() {
+        TowerJobMonitor.configure(TowerJobMonitor.DEFAULT_INITIAL_POLL_INTERVAL, TowerJobMonitor.DEFAULT_MAX_POLL_INTERVAL,
+                false, TowerJobMonitor.DEFAULT_WEBHOOK_STATUS_INTERVAL);
+        tower.close();
+    }
+
+    // Posted the way Tower does it, without a crumb
+    private int post(String path, String authorization, String body) throws Exception {
+        JenkinsRule.WebClient wc = j.createWebClient();
+        wc.setThrowExceptionOnFailingStatusCode(false);
+        WebRequest request = new WebRequest(new URL(j.getURL(), path), HttpMethod.POST);
+        request.setAdditionalHeader("Content-Type", "application/json");
+        if(authorization != null) { request.setAdditionalHeader("Authorization", authorization); }
+        request.setRequestBody(body);
+        return wc.getPage(request).getWebResponse().getStatusCode();
+    }
+
+    private static String notification(int id) {
+        return "{\"id\": "+ id +", \"name\": \"Demo Job Template\", \"status\": \"successful\", \"friendly_name\": \"Job\"}";
+    }
+
+    @Test
+    public void pollsTheJobRightAway() throws Exception {
+        WatchedJob job = new WatchedJob();
+        TowerJobMonitor.Handle handle = TowerJobMonitor.register(job, (TowerLogSink) null);
+
+        // Let the status checks back off (they come at 0, 1 and 3 seconds, then not until 7)
+        long giveUp = System.currentTimeMillis() + 5000;
+        while(job.statusChecks.get() < 3 && System.currentTimeMillis() < giveUp) { Thread.sleep(50); }
+        Assert.assertEquals(3, job.statusChecks.get());
+
+        job.finished = true;
+        Assert.assertEquals(200, post("ansible-tower-webhook/", "Bearer "+ TOKEN, notification(JOB)));
+        Assert.assertTrue(handle.getResult().get(2, TimeUnit.SECONDS));
+        Assert.assertEquals(4, job.statusChecks.get());
+    }
+
+    @Test
+    public void takesTheTokenAsAParameter() throws Exception {
+        Assert.assertEquals(200, post("ansible-tower-webhook/?token="+ TOKEN, null, notification(JOB)));
+    }
+
+    @Test
+    public void refusesTheWrongToken() throws Exception {
+        WatchedJob job = new WatchedJob();
+        TowerJobMonitor.Handle handle = TowerJobMonitor.register(job, (TowerLogSink) null);
+        long giveUp = System.currentTimeMillis() + 5000;
+        while(job.statusChecks.get() < 1 && System.currentTimeMillis() < giveUp) { Thread.sleep(50); }
+
+        job.finished = true;
+        Assert.assertEquals(403, post("ansible-tower-webhook/", "Bearer wrong", notification(JOB)));
+        Assert.assertEquals(403, post("ansible-tower-webhook/", null, notification(JOB)));
+        Assert.assertEquals(1, job.statusChecks.get());
+        handle.cancel().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void isOffWithoutAToken() throws Exception {
+        AnsibleTowerGlobalConfig.get().setWebhookToken(null);
+        Assert.assertEquals(404, post("ansible-tower-webhook/", "Bearer "+ TOKEN, notification(JOB)));
+    }
+
+    @Test
+    public void onlyLetsTheWebhookThroughWithoutACrumb() throws Exception {
+        // A path that merely starts the same way is still protected by the crumb
+        Assert.assertEquals(403, post("ansible-tower-webhooks/", "Bearer "+ TOKEN, notification(JOB)));
+        Assert.assertEquals(403, post("ansible-tower-webhook-other/", "Bearer "+ TOKEN, notification(JOB)));
+    }
+
+    @Test
+    public void refusesLargeBodies() throws Exception {
+        char[] padding = new char[64 * 1024];
+        Arrays.fill(padding, ' ');
+        String body = "{\"id\": "+ JOB +", \"padding\": \""+ new String(padding) +"\"}";
+        Assert.assertEquals(400, post("ansible-tower-webhook/", "Bearer "+ TOKEN, body));
+
+        // Just under the limit is fine
+        String fits = "{\"id\": "+ JOB +", \"padding\": \""+ new String(padding, 0, 64 * 1024 - 40) +"\"}";
+        Assert.assertEquals(200, post("ansible-tower-webhook/", "Bearer "+ TOKEN, fits));
+    }
+
+    @Test
+    public void refusesSomethingThatIsNotANotification() throws Exception {
+        Assert.assertEquals(400, post("ansible-tower-webhook/", "Bearer "+ TOKEN, "{\"name\": \"no id\"}"));
+    }
+}
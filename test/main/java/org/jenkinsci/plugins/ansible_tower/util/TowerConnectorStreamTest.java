@@ -0,0 +1,141 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+public class TowerConnectorStreamTest {
+    private static final int JOB = 7;
+
+    // The events Tower has saved, in the order it saved them (so by ID)
+    private final List<int[]> saved = new ArrayList<int[]>();
+    private TowerStandIn tower;
+
+    @Before
+    public void startTower() throws Exception {
+        tower = new TowerStandIn(new TowerStandIn.Handler() {
+            public String handle(String method, String path, Map<String, String> query, String body) {
+                if(!path.equals("/api/v2/jobs/"+ JOB +"/job_events/")) { return null; }
+                int idGt = query.containsKey("id__gt") ? Integer.parseInt(query.get("id__gt")) : 0;
+                int counterGt = query.containsKey("counter__gt") ? Integer.parseInt(query.get("counter__gt")) : 0;
+                StringBuilder results = new StringBuilder();
+                synchronized(saved) {
+                    for(int[] event : saved) {
+                        if(event[0] <= idGt || event[1] <= counterGt) { continue; }
+                        if(results.length() > 0) { results.append(", "); }
+                        results.append("{\"id\": ").append(event[0]).append(", \"counter\": ").append(event[1])
+                                .append(", \"stdout\": \"line ").append(event[1]).append("\"}");
+                    }
+                }
+                return "{\"next\": null, \"results\": ["+ results +"]}";
+            }
+        });
+    }
+
+    @After
+    public void stopTower() {
+        tower.close();
+    }
+
+    private void save(int id, int counter) {
+        synchronized(saved) { saved.add(new int[]{ id, counter }); }
+    }
+
+    private static String event(int counter) {
+        return "{\"group_name\": \"job_events\", \"job\": "+ JOB +", \"counter\": "+ counter +", \"stdout\": \"line "+ counter +"\"}";
+    }
+
+    // Reads until there are at least count lines (the socket's events land on another thread)
+    private static List<String> readUntil(TowerConnector connector, List<String> lines, int count) throws Exception {
+        long giveUp = System.currentTimeMillis() + 5000;
+        while(lines.size() < count && System.currentTimeMillis() < giveUp) {
+            lines.addAll(connector.getLogEvents(JOB, TowerConnector.JOB_TEMPLATE_TYPE, false));
+            if(lines.size() < count) { Thread.sleep(50); }
+        }
+        return lines;
+    }
+
+    @Test
+    public void logsAnEventTowerSavedLate() throws Exception {
+        TowerConnector connector = new TowerConnector(tower.getURL(), null, null, "token", false, false);
+        connector.setLogTransport(TowerConnector.WEBSOCKET_LOG_TRANSPORT);
+
+        // Opens the socket, nothing to log yet
+        Assert.assertEquals(new Vector<String>(), connector.getLogEvents(JOB, TowerConnector.JOB_TEMPLATE_TYPE, false));
+        TowerStandIn.Peer socket = tower.takeWebSocket(5000);
+        Assert.assertNotNull(socket);
+        Assert.assertEquals("Bearer token", socket.getHeader("authorization"));
+        String subscription = socket.readFrame(5000).getText();
+        Assert.assertTrue(subscription, subscription.contains("\"job_events\":[\""+ JOB +"\"]"));
+        Assert.assertTrue(subscription, subscription.contains("\"xrftoken\":\"standin-csrf\""));
+
+        // Tower saves 4 before 3, and the socket never sends 3
+        save(101, 1);
+        save(102, 2);
+        save(103, 4);
+        socket.sendText(event(1));
+        socket.sendText(event(2));
+        socket.sendText(event(4));
+        List<String> lines = readUntil(connector, new ArrayList<String>(), 2);
+        Assert.assertEquals(Arrays.asList("line 1", "line 2"), lines);
+
+        // The gap goes stale and a REST read finds 4 but not 3
+        Thread.sleep(2100);
+        lines.addAll(connector.getLogEvents(JOB, TowerConnector.JOB_TEMPLATE_TYPE, false));
+        Assert.assertEquals(Arrays.asList("line 1", "line 2", "line 4"), lines);
+
+        // 3 is saved after everything else, the last read still gets it
+        save(104, 3);
+        lines.addAll(connector.getLogEvents(JOB, TowerConnector.JOB_TEMPLATE_TYPE, true));
+        Assert.assertEquals(Arrays.asList("line 1", "line 2", "line 4", "line 3"), lines);
+
+        // The REST reads went by ID and only asked for what the socket hadn't logged
+        List<String> reads = new ArrayList<String>();
+        for(String request : tower.getRequests()) {
+            if(request.contains("/job_events/")) { reads.add(request.replaceAll("&page=\\d+", "")); }
+        }
+        Assert.assertEquals(Arrays.asList(
+                "GET /api/v2/jobs/7/job_events/?id__gt=0&order_by=id&counter__gt=2",
+                "GET /api/v2/jobs/7/job_events/?id__gt=103&order_by=id&counter__gt=2"), reads);
+        socket.close();
+    }
+
+    @Test
+    public void restReadsAfterTheSocketDropsSkipWhatItLogged() throws Exception {
+        TowerConnector connector = new TowerConnector(tower.getURL(), null, null, "token", false, false);
+        connector.setLogTransport(TowerConnector.WEBSOCKET_LOG_TRANSPORT);
+        connector.getLogEvents(JOB, TowerConnector.JOB_TEMPLATE_TYPE, false);
+        TowerStandIn.Peer socket = tower.takeWebSocket(5000);
+        socket.readFrame(5000);
+
+        save(101, 1);
+        save(102, 3);
+        socket.sendText(event(1));
+        socket.sendText(event(3));
+        List<String> lines = readUntil(connector, new ArrayList<String>(), 1);
+        Assert.assertEquals(Arrays.asList("line 1"), lines);
+
+        // The socket goes away, what it had is logged along with what REST has
+        socket.sendFrame(true, TowerStandIn.OP_CLOSE, new byte[]{ 0x03, (byte) 0xE8 });
+        socket.close();
+        long giveUp = System.currentTimeMillis() + 5000;
+        while(lines.size() < 2 && System.currentTimeMillis() < giveUp) {
+            lines.addAll(connector.getLogEvents(JOB, TowerConnector.JOB_TEMPLATE_TYPE, false));
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(Arrays.asList("line 1", "line 3"), lines);
+
+        // From here on it is REST, the event Tower saved late is logged once and nothing is repeated
+        save(103, 2);
+        save(104, 4);
+        lines.addAll(connector.getLogEvents(JOB, TowerConnector.JOB_TEMPLATE_TYPE, true));
+        Assert.assertEquals(Arrays.asList("line 1", "line 3", "line 2", "line 4"), lines);
+    }
+}
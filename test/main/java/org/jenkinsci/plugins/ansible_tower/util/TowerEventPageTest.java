@@ -0,0 +1,63 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+public class TowerEventPageTest {
+    private static final String PAGE = "{\"count\": 3, \"next\": \"/api/v2/jobs/12/job_events/?id__gt=0&page=2\", \"previous\": null, \"results\": [" +
+            "{\"id\": 101, \"type\": \"job_event\", \"counter\": 1, \"event_data\": {\"playbook\": \"site.yml\"}, \"stdout\": \"\"}, " +
+            "{\"id\": 102, \"counter\": 2, \"event_data\": {\"res\": {\"changed\": false, \"msg\": \"All \\\"items\\\" done\\u00e9\"}, \"task\": \"x\"}, " +
+            "\"stdout\": \"\\u001b[0;32mok: [web1] => {\\\"msg\\\": \\\"a}]\\\\\\\"\\\"}\\u001b[0m\\r\\nline two\"}, " +
+            "{\"stdout\": \"last\", \"event_data\": {\"res\": {\"msg\": [\"one\", {\"two\": 2}]}}, \"id\": 103}" +
+            "]}";
+
+    @Test
+    public void readsEvents() throws IOException {
+        TowerEventPage page = new TowerEventPage(new StringReader(PAGE), true);
+        Assert.assertTrue(page.nextEvent());
+        Assert.assertEquals(101, page.getId());
+        Assert.assertEquals(1, page.getCounter());
+        Assert.assertEquals("", page.getStdout());
+        Assert.assertNull(page.getResultMessage());
+
+        Assert.assertTrue(page.nextEvent());
+        Assert.assertEquals(102, page.getId());
+        Assert.assertEquals("\u001B[0;32mok: [web1] => {\"msg\": \"a}]\\\"\"}\u001B[0m\r\nline two", page.getStdout());
+        Assert.assertEquals("All \"items\" done\u00e9", page.getResultMessage());
+
+        Assert.assertTrue(page.nextEvent());
+        Assert.assertEquals(103, page.getId());
+        Assert.assertEquals(-1, page.getCounter());
+        Assert.assertEquals("last", page.getStdout());
+        Assert.assertEquals("[\"one\",{\"two\":2}]", page.getResultMessage());
+
+        Assert.assertFalse(page.nextEvent());
+        Assert.assertFalse(page.nextEvent());
+        Assert.assertTrue(page.hasNextPage());
+        Assert.assertEquals(3, page.getEventCount());
+    }
+
+    @Test
+    public void readsLastPage() throws IOException {
+        TowerEventPage page = new TowerEventPage(new StringReader("{\"results\": [], \"previous\": \"x\", \"next\": null}"), false);
+        Assert.assertFalse(page.nextEvent());
+        Assert.assertFalse(page.hasNextPage());
+
+        // next can come after the results
+        page = new TowerEventPage(new StringReader("{\"results\":[{\"id\":5,\"stdout\":\"a\",\"event_data\":{\"res\":{\"msg\":\"b\"}}}],\"next\":\"/page=2\"}"), false);
+        Assert.assertTrue(page.nextEvent());
+        Assert.assertEquals("a", page.getStdout());
+        Assert.assertNull(page.getResultMessage());
+        Assert.assertFalse(page.nextEvent());
+        Assert.assertTrue(page.hasNextPage());
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnTruncatedPage() throws IOException {
+        TowerEventPage page = new TowerEventPage(new StringReader("{\"next\": null, \"results\": [{\"id\": 1, \"stdout\": \"cut of"), false);
+        while(page.nextEvent()) { }
+    }
+}
@@ -0,0 +1,182 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+import net.sf.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TowerEventStreamTest {
+    private static String event(int job, int counter) {
+        return "{\"group_name\": \"job_events\", \"job\": "+ job +", \"counter\": "+ counter +", \"stdout\": \"line "+ counter +"\"}";
+    }
+
+    private static List<Integer> counters(List<JSONObject> events) {
+        List<Integer> counters = new ArrayList<Integer>();
+        for(JSONObject event : events) { counters.add(event.getInt("counter")); }
+        return counters;
+    }
+
+    private static List<Integer> list(Integer... counters) {
+        List<Integer> list = new ArrayList<Integer>();
+        for(Integer counter : counters) { list.add(counter); }
+        return list;
+    }
+
+    @Test
+    public void ordersEventsAndDropsDuplicates() {
+        final AtomicInteger activity = new AtomicInteger();
+        TowerEventStream stream = new TowerEventStream(7, new TowerLoggedCounters(0), new Runnable() {
+            public void run() { activity.incrementAndGet(); }
+        });
+        stream.onMessage(event(7, 2));
+        stream.onMessage(event(7, 1));
+        stream.onMessage(event(7, 1));
+        stream.onMessage(event(7, 3));
+        stream.onMessage(event(7, 5));
+        // Not ours, or not an event at all
+        stream.onMessage(event(8, 4));
+        stream.onMessage("{\"group_name\": \"jobs\", \"job\": 7, \"counter\": 4}");
+        stream.onMessage("not json");
+        Assert.assertEquals(5, activity.get());
+
+        Assert.assertEquals(list(1, 2, 3), counters(stream.takeReady()));
+        Assert.assertEquals(3, stream.getLastCounter());
+        // 4 is missing so 5 waits for it, but not for long enough to go and get it yet
+        Assert.assertEquals(list(), counters(stream.takeReady()));
+        Assert.assertFalse(stream.hasStaleGap());
+
+        stream.onMessage(event(7, 2));
+        stream.onMessage(event(7, 4));
+        Assert.assertEquals(list(4, 5), counters(stream.takeReady()));
+        Assert.assertEquals(5, stream.getLastCounter());
+        Assert.assertFalse(stream.hasStaleGap());
+    }
+
+    @Test
+    public void skipsWhatRestDelivered() {
+        TowerEventStream stream = new TowerEventStream(7, new TowerLoggedCounters(0), new Runnable() {
+            public void run() { }
+        });
+        stream.onMessage(event(7, 1));
+        stream.onMessage(event(7, 3));
+        stream.onMessage(event(7, 4));
+        stream.onMessage(event(7, 6));
+        Assert.assertEquals(list(1), counters(stream.takeReady()));
+
+        // A REST read filled the gap and went a little past what the socket has
+        stream.delivered(2);
+        stream.delivered(3);
+        stream.delivered(4);
+        Assert.assertEquals(4, stream.getLastCounter());
+        Assert.assertEquals(list(), counters(stream.takeReady()));
+
+        // The socket catching up with what REST gave us is ignored
+        stream.onMessage(event(7, 4));
+        stream.onMessage(event(7, 5));
+        Assert.assertEquals(list(5, 6), counters(stream.takeReady()));
+
+        // Counters the REST read saw below the last one don't move us back
+        stream.delivered(3);
+        Assert.assertEquals(6, stream.getLastCounter());
+    }
+
+    @Test
+    public void takesEverythingAtTheEnd() {
+        TowerEventStream stream = new TowerEventStream(7, new TowerLoggedCounters(10), new Runnable() {
+            public void run() { }
+        });
+        // Already logged before the stream was opened
+        stream.onMessage(event(7, 9));
+        stream.onMessage(event(7, 13));
+        stream.onMessage(event(7, 11));
+        Assert.assertEquals(list(11), counters(stream.takeReady()));
+        Assert.assertEquals(list(13), counters(stream.takeAll()));
+        // 12 never showed up, it is not counted as logged
+        Assert.assertEquals(11, stream.getLastCounter());
+        Assert.assertTrue(stream.isLogged(13));
+        Assert.assertFalse(stream.isLogged(12));
+        Assert.assertFalse(stream.hasStaleGap());
+    }
+
+    @Test
+    public void reportsAGapThatDoesNotFill() throws InterruptedException {
+        TowerEventStream stream = new TowerEventStream(7, new TowerLoggedCounters(0), new Runnable() {
+            public void run() { }
+        });
+        stream.onMessage(event(7, 2));
+        Assert.assertEquals(list(), counters(stream.takeReady()));
+        Assert.assertFalse(stream.hasStaleGap());
+        Thread.sleep(2100);
+        Assert.assertTrue(stream.hasStaleGap());
+
+        // A REST read filled it
+        stream.delivered(1);
+        Assert.assertEquals(list(2), counters(stream.takeReady()));
+        Assert.assertFalse(stream.hasStaleGap());
+        Assert.assertEquals(2, stream.getLastCounter());
+    }
+
+    @Test
+    public void keepsWaitingForAnEventRestSkippedOver() {
+        TowerLoggedCounters logged = new TowerLoggedCounters(0);
+        TowerEventStream stream = new TowerEventStream(7, logged, new Runnable() {
+            public void run() { }
+        });
+        stream.onMessage(event(7, 1));
+        stream.onMessage(event(7, 2));
+        stream.onMessage(event(7, 4));
+        Assert.assertEquals(list(1, 2), counters(stream.takeReady()));
+
+        // Tower saved 4 before 3, a REST read only has 4
+        stream.delivered(4);
+        Assert.assertEquals(2, stream.getLastCounter());
+        Assert.assertFalse(stream.isLogged(3));
+        Assert.assertTrue(stream.isLogged(4));
+        Assert.assertEquals(list(), counters(stream.takeReady()));
+
+        // 3 still gets logged when it shows up, 4 doesn't come around again
+        stream.onMessage(event(7, 3));
+        stream.onMessage(event(7, 4));
+        stream.onMessage(event(7, 5));
+        Assert.assertEquals(list(3, 5), counters(stream.takeReady()));
+        Assert.assertEquals(5, stream.getLastCounter());
+        Assert.assertEquals(5, logged.getThrough());
+    }
+
+    @Test
+    public void countsWhatWasLoggedOutOfOrder() {
+        TowerLoggedCounters logged = new TowerLoggedCounters(3);
+        Assert.assertTrue(logged.contains(1));
+        Assert.assertTrue(logged.contains(3));
+        Assert.assertFalse(logged.contains(4));
+
+        logged.add(6);
+        logged.add(5);
+        Assert.assertEquals(3, logged.getThrough());
+        Assert.assertTrue(logged.contains(5));
+        Assert.assertTrue(logged.contains(6));
+        Assert.assertFalse(logged.contains(4));
+
+        // Filling the gap folds the rest in
+        logged.add(4);
+        Assert.assertEquals(6, logged.getThrough());
+        logged.add(2);
+        Assert.assertEquals(6, logged.getThrough());
+    }
+
+    @Test
+    public void closesWhenTowerRefuses() {
+        final AtomicInteger activity = new AtomicInteger();
+        TowerEventStream stream = new TowerEventStream(7, new TowerLoggedCounters(0), new Runnable() {
+            public void run() { activity.incrementAndGet(); }
+        });
+        Assert.assertTrue(stream.isOpen());
+        stream.onMessage("{\"accept\": false}");
+        Assert.assertFalse(stream.isOpen());
+        Assert.assertEquals("Tower did not accept the websocket", stream.getCloseReason());
+        Assert.assertEquals(1, activity.get());
+    }
+}
@@ -0,0 +1,101 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+import net.sf.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TowerJobMonitorTest {
+    private static final int JOB = 42;
+
+    private TowerStandIn tower;
+
+    // A job that counts how often the monitor reads its logs and asks for its status
+    private class CountingTarget implements TowerMonitorTarget {
+        final AtomicInteger logReads = new AtomicInteger();
+        final AtomicInteger statusChecks = new AtomicInteger();
+        volatile boolean finished = false;
+        private final TowerConnector connector = new TowerConnector(tower.getURL(), null, null, "token", false, false);
+
+        public String getDescription() { return "job"; }
+        public boolean isComplete() {
+            statusChecks.incrementAndGet();
+            return finished;
+        }
+        public boolean wasSuccessful() { return true; }
+        public Vector<String> getLogs() { return new Vector<String>(); }
+        public void streamLogs(TowerLogSink sink) { logReads.incrementAndGet(); }
+        public boolean lastLogPageWasFull() { return false; }
+        public void cancel() { }
+        public TowerConnector getConnector() { return connector; }
+        public int getUnifiedJobId() { return JOB; }
+        public void setPolledStatus(JSONObject unifiedJob) { }
+    }
+
+    @Before
+    public void startTower() throws Exception {
+        tower = new TowerStandIn(new TowerStandIn.Handler() {
+            public String handle(String method, String path, Map<String, String> query, String body) {
+                return path.equals("/api/v2/unified_jobs/") ? "{\"next\": null, \"results\": []}" : null;
+            }
+        });
+    }
+
+    @After
+    public void stopTower() {
+        TowerJobMonitor.configure(TowerJobMonitor.DEFAULT_INITIAL_POLL_INTERVAL, TowerJobMonitor.DEFAULT_MAX_POLL_INTERVAL,
+                false, TowerJobMonitor.DEFAULT_WEBHOOK_STATUS_INTERVAL);
+        tower.close();
+    }
+
+    @Test
+    public void checksStatusWithEveryPollWithoutWebhooks() throws Exception {
+        TowerJobMonitor.configure(1, 1, false, TowerJobMonitor.DEFAULT_WEBHOOK_STATUS_INTERVAL);
+        CountingTarget target = new CountingTarget();
+        TowerJobMonitor.Handle handle = TowerJobMonitor.register(target, new TowerLogSink.Collector());
+        Thread.sleep(3600);
+        target.finished = true;
+        Assert.assertTrue(handle.getResult().get(5, TimeUnit.SECONDS));
+
+        Assert.assertTrue("logs read "+ target.logReads, target.logReads.get() >= 4);
+        // The last poll reads the logs twice (once more for whatever came in as the job finished)
+        Assert.assertEquals(target.logReads.get() - 1, target.statusChecks.get());
+    }
+
+    @Test
+    public void stretchesStatusChecksWithWebhooks() throws Exception {
+        TowerJobMonitor.configure(1, 1, true, TowerJobMonitor.DEFAULT_WEBHOOK_STATUS_INTERVAL);
+        CountingTarget target = new CountingTarget();
+        TowerJobMonitor.Handle handle = TowerJobMonitor.register(target, new TowerLogSink.Collector());
+        Thread.sleep(4600);
+
+        // Logs every second, status at 0, 1 and 3 seconds (the next one is at 7)
+        Assert.assertTrue("logs read "+ target.logReads, target.logReads.get() >= 4);
+        Assert.assertEquals(3, target.statusChecks.get());
+        Assert.assertFalse(handle.getResult().isDone());
+
+        // The webhook says it is done, that is checked right away
+        target.finished = true;
+        Assert.assertEquals(1, TowerJobMonitor.pollNow(JOB));
+        Assert.assertTrue(handle.getResult().get(1, TimeUnit.SECONDS));
+        Assert.assertEquals(4, target.statusChecks.get());
+    }
+
+    @Test
+    public void onlyChecksStatusWithoutLogsToRead() throws Exception {
+        TowerJobMonitor.configure(1, 1, true, TowerJobMonitor.DEFAULT_WEBHOOK_STATUS_INTERVAL);
+        CountingTarget target = new CountingTarget();
+        TowerJobMonitor.Handle handle = TowerJobMonitor.register(target, (TowerLogSink) null);
+        Thread.sleep(2600);
+
+        Assert.assertEquals(0, target.logReads.get());
+        Assert.assertEquals(2, target.statusChecks.get());
+        handle.cancel().get(5, TimeUnit.SECONDS);
+    }
+}
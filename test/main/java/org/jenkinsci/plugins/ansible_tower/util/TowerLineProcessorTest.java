@@ -0,0 +1,83 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Vector;
+
+public class TowerLineProcessorTest {
+    private static final String GREEN = "\u001B[0;32m";
+    private static final String RESET = "\u001B[0m";
+
+    // The regex based TowerConnector.logLine that TowerLineProcessor replaced
+    private static Vector<String> legacyLogLine(String output, boolean removeColor, Map<String, String> exports) {
+        Vector<String> lines = new Vector<String>();
+        for(String line : output.split("\\r\\n")) {
+            if(line.matches("^.*JENKINS_EXPORT.*$")) {
+                String[] entities = line.replaceAll("\u001B\\[[;\\d]*m", "").split("=", 2);
+                if(entities.length == 2) {
+                    entities[0] = entities[0].replaceAll(".*JENKINS_EXPORT ", "");
+                    entities[1] = entities[1].replaceAll("\"$", "");
+                    exports.put(entities[0], entities[1]);
+                }
+            }
+            if(removeColor) { line = line.replaceAll("\u001B\\[[;\\d]*m", ""); }
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    private static Vector<String> process(String output, boolean removeColor, Map<String, String> exports) {
+        TowerLogSink.Collector collector = new TowerLogSink.Collector();
+        new TowerLineProcessor().process(output, removeColor, exports, collector);
+        return collector.getLines();
+    }
+
+    @Test
+    public void splitsLikeSplit() {
+        Assert.assertEquals(Arrays.asList(""), process("", false, new HashMap<String, String>()));
+        Assert.assertEquals(Arrays.asList(), process("\r\n\r\n", false, new HashMap<String, String>()));
+        Assert.assertEquals(Arrays.asList("", "a", "", "b"), process("\r\na\r\n\r\nb\r\n\r\n", false, new HashMap<String, String>()));
+        Assert.assertEquals(Arrays.asList("a\nb\r"), process("a\nb\r\r\n", false, new HashMap<String, String>()));
+    }
+
+    @Test
+    public void removesColor() {
+        String line = GREEN +"ok: [localhost]"+ RESET +" \u001B[1m \u001B[12;x \u001B[m";
+        Assert.assertEquals(Arrays.asList("ok: [localhost]  \u001B[12;x "), process(line, true, new HashMap<String, String>()));
+        Assert.assertEquals(Arrays.asList(line), process(line, false, new HashMap<String, String>()));
+    }
+
+    @Test
+    public void findsExports() {
+        Map<String, String> exports = new HashMap<String, String>();
+        process("    \"msg\": \""+ GREEN +"JENKINS_EXPORT version=1.2=3\""+ RESET +"\r\nJENKINS_EXPORT nothing\r\nfoo=JENKINS_EXPORT bar", true, exports);
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put("version", "1.2=3");
+        expected.put("foo", "JENKINS_EXPORT bar");
+        Assert.assertEquals(expected, exports);
+    }
+
+    @Test
+    public void matchesLegacyOnRandomOutput() {
+        String[] pieces = { "\r\n", "\r", "\n", " ", "\u001B", "[", "m", "1", ";", "=", "\"", "JENKINS_EXPORT ",
+                "JENKINS_EXPORT", "a", " ", "x=y", GREEN, RESET, "ok: [host]" };
+        Random random = new Random(42);
+        for(int i = 0; i < 100000; i++) {
+            StringBuilder output = new StringBuilder();
+            int count = random.nextInt(12);
+            for(int p = 0; p < count; p++) { output.append(pieces[random.nextInt(pieces.length)]); }
+            boolean removeColor = random.nextBoolean();
+
+            Map<String, String> legacyExports = new HashMap<String, String>();
+            Map<String, String> exports = new HashMap<String, String>();
+            Assert.assertEquals(output.toString(), legacyLogLine(output.toString(), removeColor, legacyExports),
+                    process(output.toString(), removeColor, exports));
+            Assert.assertEquals(output.toString(), legacyExports, exports);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class TowerProjectSyncTest {
+    private static final int SYNC = 12;
+
+    private TowerStandIn tower;
+    private volatile String finished = "null";
+
+    @Before
+    public void startTower() throws Exception {
+        tower = new TowerStandIn(new TowerStandIn.Handler() {
+            public String handle(String method, String path, Map<String, String> query, String body) {
+                if(!path.equals("/api/v2/project_updates/"+ SYNC +"/")) { return null; }
+                return "{\"id\": "+ SYNC +", \"url\": \"/api/v2/project_updates/"+ SYNC +"/\", \"finished\": "+ finished +", \"failed\": false, " +
+                        "\"related\": {\"events\": \"/api/v2/project_updates/"+ SYNC +"/events/\"}}";
+            }
+        });
+    }
+
+    @After
+    public void stopTower() {
+        tower.close();
+    }
+
+    private List<String> syncReads() {
+        List<String> reads = new ArrayList<String>();
+        for(String request : tower.getRequests()) {
+            if(request.contains("/project_updates/")) { reads.add(request); }
+        }
+        return reads;
+    }
+
+    @Test
+    public void readsTheResultOnce() throws Exception {
+        TowerConnector connector = new TowerConnector(tower.getURL(), null, null, "token", false, false);
+        TowerProjectSync sync = new TowerProjectSync(connector, SYNC, 0);
+        Assert.assertFalse(sync.isComplete());
+        Assert.assertEquals(2, syncReads().size());
+
+        finished = "\"2020-10-01T12:00:00.000000Z\"";
+        Assert.assertTrue(sync.isComplete());
+        Assert.assertTrue(sync.wasSuccessful());
+        // The result came from the read isComplete() did
+        Assert.assertEquals(3, syncReads().size());
+    }
+
+    @Test
+    public void readsTheResultIfItWasNotFinished() throws Exception {
+        TowerConnector connector = new TowerConnector(tower.getURL(), null, null, "token", false, false);
+        TowerProjectSync sync = new TowerProjectSync(connector, SYNC, 0);
+        finished = "\"2020-10-01T12:00:00.000000Z\"";
+        Assert.assertTrue(sync.wasSuccessful());
+        Assert.assertEquals(2, syncReads().size());
+    }
+}
@@ -0,0 +1,280 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+/*
+    A tiny local stand-in for Tower: plain HTTP/1.1 on a random port, one request per connection.
+    REST requests are answered by a Handler, websocket upgrades to /websocket/ are accepted and handed to the test
+    as a Peer that can send and read raw frames.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class TowerStandIn implements Closeable {
+    public static final int OP_CONTINUATION = 0x0;
+    public static final int OP_TEXT = 0x1;
+    public static final int OP_CLOSE = 0x8;
+    public static final int OP_PING = 0x9;
+    public static final int OP_PONG = 0xA;
+
+    public interface Handler {
+        // The body to answer the request with (as JSON), null for a 404
+        String handle(String method, String path, Map<String, String> query, String body);
+    }
+
+    public static class Frame {
+        public final boolean fin;
+        public final int opcode;
+        public final byte[] payload;
+
+        Frame(boolean fin, int opcode, byte[] payload) {
+            this.fin = fin;
+            this.opcode = opcode;
+            this.payload = payload;
+        }
+
+        public String getText() { return new String(payload, StandardCharsets.UTF_8); }
+    }
+
+    public class Peer implements Closeable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final OutputStream out;
+        private final Map<String, String> headers;
+
+        Peer(Socket socket, DataInputStream in, Map<String, String> headers) throws IOException {
+            this.socket = socket;
+            this.in = in;
+            this.out = socket.getOutputStream();
+            this.headers = headers;
+        }
+
+        // Header names are lower case
+        public String getHeader(String name) { return headers.get(name); }
+
+        public void sendText(String text) throws IOException {
+            sendFrame(true, OP_TEXT, text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // Server frames are never masked
+        public synchronized void sendFrame(boolean fin, int opcode, byte[] payload) throws IOException {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            frame.write((fin ? 0x80 : 0) | opcode);
+            if(payload.length < 126) {
+                frame.write(payload.length);
+            } else if(payload.length <= 0xFFFF) {
+                frame.write(126);
+                frame.write(payload.length >>> 8);
+                frame.write(payload.length);
+            } else {
+                frame.write(127);
+                for(int shift = 56; shift >= 0; shift -= 8) { frame.write((int) ((long) payload.length >>> shift)); }
+            }
+            frame.write(payload, 0, payload.length);
+            out.write(frame.toByteArray());
+            out.flush();
+        }
+
+        // The next frame from the client, which has to be masked
+        public Frame readFrame(int timeout) throws IOException {
+            socket.setSoTimeout(timeout);
+            int first = in.readUnsignedByte();
+            int second = in.readUnsignedByte();
+            if((second & 0x80) == 0) { throw new IOException("Client frame is not masked"); }
+            long length = second & 0x7F;
+            if(length == 126) {
+                length = in.readUnsignedShort();
+            } else if(length == 127) {
+                length = in.readLong();
+            }
+            byte[] mask = new byte[4];
+            in.readFully(mask);
+            byte[] payload = new byte[(int) length];
+            in.readFully(payload);
+            for(int i = 0; i < payload.length; i++) { payload[i] ^= mask[i % 4]; }
+            return new Frame((first & 0x80) != 0, first & 0x0F, payload);
+        }
+
+        public void close() {
+            try {
+                socket.close();
+            } catch(IOException ioe) {
+                // Going away anyway
+            }
+        }
+    }
+
+    private final ServerSocket server;
+    private final Handler handler;
+    private final LinkedBlockingQueue<Peer> peers = new LinkedBlockingQueue<Peer>();
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+    private volatile String acceptOverride = null;
+
+    public TowerStandIn(Handler handler) throws IOException {
+        this.handler = handler;
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() { acceptLoop(); }
+        }, "Tower stand-in");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String getURL() { return "http://localhost:"+ server.getLocalPort(); }
+
+    // The request lines (method and path with query) of the REST requests, in the order they came in
+    public List<String> getRequests() {
+        synchronized(requests) {
+            return new ArrayList<String>(requests);
+        }
+    }
+
+    // Answer upgrades with this instead of the right Sec-WebSocket-Accept
+    public void setAcceptOverride(String acceptOverride) { this.acceptOverride = acceptOverride; }
+
+    public Peer takeWebSocket(long timeout) throws InterruptedException {
+        return peers.poll(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    public void close() {
+        try {
+            server.close();
+        } catch(IOException ioe) {
+            // Nothing to do
+        }
+        synchronized(sockets) {
+            for(Socket socket : sockets) {
+                try {
+                    socket.close();
+                } catch(IOException ioe) {
+                    // Nothing to do
+                }
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        while(!server.isClosed()) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch(IOException ioe) {
+                return;
+            }
+            sockets.add(socket);
+            Thread worker = new Thread(new Runnable() {
+                public void run() { serve(socket); }
+            }, "Tower stand-in connection");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        boolean upgraded = false;
+        try {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            String requestLine = readLine(in);
+            Map<String, String> headers = new HashMap<String, String>();
+            String line;
+            while(!(line = readLine(in)).isEmpty()) {
+                int colon = line.indexOf(':');
+                if(colon != -1) { headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim()); }
+            }
+            String[] parts = requestLine.split(" ");
+            String method = parts[0];
+            String target = parts[1];
+
+            if("websocket".equalsIgnoreCase(headers.get("upgrade"))) {
+                String accept = acceptOverride != null ? acceptOverride : accept(headers.get("sec-websocket-key"));
+                String response = "HTTP/1.1 101 Switching Protocols\r\n" +
+                        "Upgrade: websocket\r\n" +
+                        "Connection: Upgrade\r\n" +
+                        "Sec-WebSocket-Accept: "+ accept +"\r\n" +
+                        "Set-Cookie: csrftoken=standin-csrf; Path=/; SameSite=Lax\r\n\r\n";
+                socket.getOutputStream().write(response.getBytes(StandardCharsets.ISO_8859_1));
+                socket.getOutputStream().flush();
+                peers.add(new Peer(socket, in, headers));
+                upgraded = true;
+                return;
+            }
+
+            String body = "";
+            if(headers.containsKey("content-length")) {
+                byte[] bytes = new byte[Integer.parseInt(headers.get("content-length"))];
+                in.readFully(bytes);
+                body = new String(bytes, StandardCharsets.UTF_8);
+            }
+            requests.add(method +" "+ target);
+            int question = target.indexOf('?');
+            String path = question == -1 ? target : target.substring(0, question);
+            Map<String, String> query = new HashMap<String, String>();
+            if(question != -1) {
+                for(String pair : target.substring(question + 1).split("&")) {
+                    int equals = pair.indexOf('=');
+                    if(equals == -1) {
+                        query.put(pair, "");
+                    } else {
+                        query.put(pair.substring(0, equals), pair.substring(equals + 1));
+                    }
+                }
+            }
+
+            String answer = handler.handle(method, path, query, body);
+            byte[] content = (answer == null ? "{\"detail\": \"Not found.\"}" : answer).getBytes(StandardCharsets.UTF_8);
+            String response = "HTTP/1.1 "+ (answer == null ? "404 Not Found" : "200 OK") +"\r\n" +
+                    "Content-Type: application/json\r\n" +
+                    "Content-Length: "+ content.length +"\r\n" +
+                    "Connection: close\r\n\r\n";
+            OutputStream out = socket.getOutputStream();
+            out.write(response.getBytes(StandardCharsets.ISO_8859_1));
+            out.write(content);
+            out.flush();
+        } catch(IOException ioe) {
+            // The client went away
+        } finally {
+            if(!upgraded) {
+                try {
+                    socket.close();
+                } catch(IOException ioe) {
+                    // Nothing to do
+                }
+            }
+        }
+    }
+
+    private static String readLine(DataInputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while((c = in.read()) != -1 && c != '\n') {
+            if(c != '\r') { line.append((char) c); }
+        }
+        if(c == -1 && line.length() == 0) { throw new IOException("Connection closed"); }
+        return line.toString();
+    }
+
+    private static String accept(String key) throws IOException {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return Base64.getEncoder().encodeToString(sha1.digest((key +"258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(StandardCharsets.ISO_8859_1)));
+        } catch(Exception e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+import org.jenkinsci.plugins.ansible_tower.exceptions.AnsibleTowerException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class TowerWebSocketTest {
+    private TowerStandIn tower;
+    private final LinkedBlockingQueue<String> messages = new LinkedBlockingQueue<String>();
+    private final LinkedBlockingQueue<String> closes = new LinkedBlockingQueue<String>();
+    private final TowerWebSocket.Listener listener = new TowerWebSocket.Listener() {
+        public void onMessage(String message) { messages.add(message); }
+        public void onClose(String reason) { closes.add(reason); }
+    };
+
+    @Before
+    public void startTower() throws Exception {
+        tower = new TowerStandIn(new TowerStandIn.Handler() {
+            public String handle(String method, String path, Map<String, String> query, String body) { return null; }
+        });
+    }
+
+    @After
+    public void stopTower() {
+        tower.close();
+    }
+
+    private TowerWebSocket connect() throws AnsibleTowerException {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Authorization", "Bearer token");
+        return TowerWebSocket.connect(tower.getURL(), "/websocket/", headers, null, 5000, listener);
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    public void upgrades() throws Exception {
+        TowerWebSocket socket = connect();
+        TowerStandIn.Peer peer = tower.takeWebSocket(5000);
+        Assert.assertEquals("Bearer token", peer.getHeader("authorization"));
+        Assert.assertEquals("13", peer.getHeader("sec-websocket-version"));
+        Assert.assertEquals(tower.getURL(), peer.getHeader("origin"));
+        Assert.assertEquals("standin-csrf", socket.getCookie("csrftoken"));
+        Assert.assertNull(socket.getCookie("sessionid"));
+
+        // What we send is masked (readFrame checks) and comes out as sent
+        socket.send("{\"groups\": {}}");
+        TowerStandIn.Frame frame = peer.readFrame(5000);
+        Assert.assertEquals(TowerStandIn.OP_TEXT, frame.opcode);
+        Assert.assertTrue(frame.fin);
+        Assert.assertEquals("{\"groups\": {}}", frame.getText());
+
+        // Both of the longer length forms
+        String medium = repeat('m', 300);
+        String large = repeat('l', 70000);
+        peer.sendText(medium);
+        peer.sendText(large);
+        Assert.assertEquals(medium, messages.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals(large, messages.poll(5, TimeUnit.SECONDS));
+        socket.send(medium);
+        Assert.assertEquals(medium, peer.readFrame(5000).getText());
+
+        socket.close();
+        Assert.assertFalse(socket.isOpen());
+        Assert.assertEquals(TowerStandIn.OP_CLOSE, peer.readFrame(5000).opcode);
+        peer.close();
+    }
+
+    @Test
+    public void refusesTheWrongAcceptKey() throws Exception {
+        tower.setAcceptOverride("bm90IHRoZSByaWdodCBrZXk=");
+        try {
+            connect();
+            Assert.fail("The upgrade should have been refused");
+        } catch(AnsibleTowerException ate) {
+            Assert.assertTrue(ate.getMessage(), ate.getMessage().contains("accept key"));
+        }
+    }
+
+    @Test
+    public void putsFragmentsTogetherAroundAPing() throws Exception {
+        connect();
+        TowerStandIn.Peer peer = tower.takeWebSocket(5000);
+        peer.sendFrame(false, TowerStandIn.OP_TEXT, "{\"counter\": ".getBytes(StandardCharsets.UTF_8));
+        peer.sendFrame(true, TowerStandIn.OP_PING, "in between".getBytes(StandardCharsets.UTF_8));
+        // The last fragment starts in the middle of the two bytes of the last letter
+        byte[] rest = "1, \"stdout\": \"caf\u00e9\"}".getBytes(StandardCharsets.UTF_8);
+        int split = rest.length - 3;
+        peer.sendFrame(false, TowerStandIn.OP_CONTINUATION, Arrays.copyOfRange(rest, 0, split));
+        peer.sendFrame(true, TowerStandIn.OP_CONTINUATION, Arrays.copyOfRange(rest, split, rest.length));
+        peer.sendText("next");
+
+        // The ping is answered right away, with its payload
+        TowerStandIn.Frame pong = peer.readFrame(5000);
+        Assert.assertEquals(TowerStandIn.OP_PONG, pong.opcode);
+        Assert.assertEquals("in between", pong.getText());
+
+        Assert.assertEquals("{\"counter\": 1, \"stdout\": \"caf\u00e9\"}", messages.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals("next", messages.poll(5, TimeUnit.SECONDS));
+        Assert.assertTrue(closes.isEmpty());
+        peer.close();
+    }
+
+    @Test
+    public void closesWhenTowerDoes() throws Exception {
+        TowerWebSocket socket = connect();
+        TowerStandIn.Peer peer = tower.takeWebSocket(5000);
+        peer.sendText("last");
+        peer.sendFrame(true, TowerStandIn.OP_CLOSE, new byte[]{ 0x03, (byte) 0xE8 });
+
+        Assert.assertEquals("last", messages.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals("closed by Tower", closes.poll(5, TimeUnit.SECONDS));
+        Assert.assertFalse(socket.isOpen());
+        // We answer with our own close
+        Assert.assertEquals(TowerStandIn.OP_CLOSE, peer.readFrame(5000).opcode);
+        // And the listener only hears about it once
+        socket.close();
+        Assert.assertNull(closes.poll(200, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(messages.isEmpty());
+        peer.close();
+    }
+
+    @Test
+    public void closesWhenTheConnectionDrops() throws Exception {
+        TowerWebSocket socket = connect();
+        TowerStandIn.Peer peer = tower.takeWebSocket(5000);
+        peer.close();
+        Assert.assertEquals("connection closed", closes.poll(5, TimeUnit.SECONDS));
+        Assert.assertFalse(socket.isOpen());
+    }
+}
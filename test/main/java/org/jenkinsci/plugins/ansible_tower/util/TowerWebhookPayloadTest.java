@@ -0,0 +1,69 @@
+package org.jenkinsci.plugins.ansible_tower.util;
+
+import org.jenkinsci.plugins.ansible_tower.exceptions.AnsibleTowerException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.HttpURLConnection;
+
+public class TowerWebhookPayloadTest {
+    @Test
+    public void parsesNotification() throws AnsibleTowerException {
+        TowerWebhookPayload payload = TowerWebhookPayload.parse("{\"id\": 38, \"name\": \"Demo Job Template\", " +
+                "\"url\": \"https://tower/#/jobs/playbook/38\", \"status\": \"successful\", \"friendly_name\": \"Job\"}");
+        Assert.assertEquals(38, payload.getId());
+        Assert.assertEquals("successful", payload.getStatus());
+        Assert.assertEquals("https://tower/#/jobs/playbook/38", payload.getURL());
+
+        // Only the id is needed
+        payload = TowerWebhookPayload.parse("{\"id\": \"12\"}");
+        Assert.assertEquals(12, payload.getId());
+        Assert.assertNull(payload.getStatus());
+    }
+
+    @Test(expected = AnsibleTowerException.class)
+    public void failsWithoutId() throws AnsibleTowerException {
+        TowerWebhookPayload.parse("{\"name\": \"Demo Job Template\", \"status\": \"failed\"}");
+    }
+
+    @Test(expected = AnsibleTowerException.class)
+    public void failsOnIdThatIsNotANumber() throws AnsibleTowerException {
+        TowerWebhookPayload.parse("{\"id\": \"thirty-eight\"}");
+    }
+
+    @Test(expected = AnsibleTowerException.class)
+    public void failsOnBadJson() throws AnsibleTowerException {
+        TowerWebhookPayload.parse("{\"id\": 38, \"status\": ");
+    }
+
+    @Test(expected = AnsibleTowerException.class)
+    public void failsOnEmptyBody() throws AnsibleTowerException {
+        TowerWebhookPayload.parse("  ");
+    }
+
+    @Test
+    public void acceptsTheToken() {
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, TowerWebhookPayload.checkToken("s3cret", "Bearer s3cret", null));
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, TowerWebhookPayload.checkToken("s3cret", "bearer  s3cret ", null));
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, TowerWebhookPayload.checkToken("s3cret", null, "s3cret"));
+        // Some other kind of authorization, the parameter is used
+        Assert.assertEquals(HttpURLConnection.HTTP_OK, TowerWebhookPayload.checkToken("s3cret", "Basic dXNlcjpwYXNz", "s3cret"));
+    }
+
+    @Test
+    public void refusesAWrongToken() {
+        Assert.assertEquals(HttpURLConnection.HTTP_FORBIDDEN, TowerWebhookPayload.checkToken("s3cret", "Bearer guess", null));
+        Assert.assertEquals(HttpURLConnection.HTTP_FORBIDDEN, TowerWebhookPayload.checkToken("s3cret", null, "s3cre"));
+        Assert.assertEquals(HttpURLConnection.HTTP_FORBIDDEN, TowerWebhookPayload.checkToken("s3cret", "Bearer ", null));
+        Assert.assertEquals(HttpURLConnection.HTTP_FORBIDDEN, TowerWebhookPayload.checkToken("s3cret", null, ""));
+        Assert.assertEquals(HttpURLConnection.HTTP_FORBIDDEN, TowerWebhookPayload.checkToken("s3cret", null, null));
+        // The header wins over the parameter
+        Assert.assertEquals(HttpURLConnection.HTTP_FORBIDDEN, TowerWebhookPayload.checkToken("s3cret", "Bearer guess", "s3cret"));
+    }
+
+    @Test
+    public void isNotThereWithoutAToken() {
+        Assert.assertEquals(HttpURLConnection.HTTP_NOT_FOUND, TowerWebhookPayload.checkToken(null, "Bearer s3cret", "s3cret"));
+        Assert.assertEquals(HttpURLConnection.HTTP_NOT_FOUND, TowerWebhookPayload.checkToken("", null, ""));
+    }
+}